@@ -0,0 +1,155 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import com.microsoft.jfr.dcmd.DiagnosticCommandConnections;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * A connection to the flight recorder of this JVM for use by the benchmarks. The
+ * {@code transport} selects how the benchmarks reach the MBean server:
+ * <ul>
+ *     <li>{@code "platform"} calls the platform MBean server in this JVM. This measures the cost of the library
+ *     and of the flight recorder, without serialization.</li>
+ *     <li>{@code "rmi"} goes through an RMI connector server on the loopback interface. This adds
+ *     serialization and a round-trip through the network stack to every call, which is closer to
+ *     what a collector sees.</li>
+ *     <li>{@code "wan"} is the {@code "rmi"} transport with a {@link LatencyInjectingConnection} that adds
+ *     the latency, jitter and bandwidth of a wide area network. The defaults, 20 ms, 5 ms and 12.5 MB/s,
+ *     can be changed with the system properties {@code jfr.benchmark.wan.latency} and
+ *     {@code jfr.benchmark.wan.jitter} in milliseconds and {@code jfr.benchmark.wan.bandwidth} in bytes per second.</li>
+ * </ul>
+ * The {@code connection} selects the {@code FlightRecorderConnection}:
+ * <ul>
+ *     <li>{@code "mxbean"} is a {@link FlightRecorderConnection} that only uses the {@code FlightRecorderMXBean},
+ *     through {@code MBeanServer#invoke} even on the {@code "platform"} transport.</li>
+ *     <li>{@code "jfrStart"} is the {@code "mxbean"} connection, but starting recordings with the
+ *     {@code DiagnosticCommand} where it can.</li>
+ *     <li>{@code "direct"} is the {@link FlightRecorderConnection} returned by
+ *     {@link FlightRecorderConnection#connect(javax.management.MBeanServerConnection)}, which calls the
+ *     {@code FlightRecorderMXBean} directly on the {@code "platform"} transport. On the other transports it is
+ *     the same as {@code "mxbean"}.</li>
+ *     <li>{@code "dcmd"} is a {@link com.microsoft.jfr.dcmd.FlightRecorderDiagnosticCommandConnection}.</li>
+ * </ul>
+ */
+final class BenchmarkConnection implements Closeable {
+
+    private static final long WAN_LATENCY = Long.getLong("jfr.benchmark.wan.latency", 20L);
+    private static final long WAN_JITTER = Long.getLong("jfr.benchmark.wan.jitter", 5L);
+    private static final long WAN_BANDWIDTH = Long.getLong("jfr.benchmark.wan.bandwidth", 12_500_000L);
+
+    private final JMXConnectorServer connectorServer;
+    private final JMXConnector connector;
+    private final FlightRecorderConnection flightRecorderConnection;
+
+    private BenchmarkConnection(JMXConnectorServer connectorServer, JMXConnector connector,
+                                FlightRecorderConnection flightRecorderConnection) {
+        this.connectorServer = connectorServer;
+        this.connector = connector;
+        this.flightRecorderConnection = flightRecorderConnection;
+    }
+
+    /**
+     * Open a connection.
+     * @param transport {@code "platform"}, {@code "rmi"} or {@code "wan"}
+     * @param connection {@code "mxbean"}, {@code "jfrStart"}, {@code "direct"} or {@code "dcmd"}
+     * @return A connection, which the caller must close.
+     * @throws IOException The connector could not be started.
+     * @throws InstanceNotFoundException The flight recorder is not available in this JVM.
+     * @throws JfrStreamingException The flight recorder is not available in this JVM.
+     */
+    static BenchmarkConnection open(String transport, String connection)
+            throws IOException, InstanceNotFoundException, JfrStreamingException {
+
+        MBeanServer platformMBeanServer = ManagementFactory.getPlatformMBeanServer();
+        JMXConnectorServer connectorServer = null;
+        JMXConnector connector = null;
+        MBeanServerConnection mBeanServerConnection;
+
+        switch (transport) {
+            case "platform":
+                mBeanServerConnection = platformMBeanServer;
+                break;
+            case "rmi":
+            case "wan":
+                // Port 0 exports the connector on an ephemeral port. The address of the started server
+                // embeds the RMI stub, so no registry is needed.
+                JMXServiceURL url = new JMXServiceURL("rmi", "localhost", 0);
+                connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(url, null, platformMBeanServer);
+                connectorServer.start();
+                connector = JMXConnectorFactory.connect(connectorServer.getAddress());
+                mBeanServerConnection = connector.getMBeanServerConnection();
+                if ("wan".equals(transport)) {
+                    mBeanServerConnection = new LatencyInjectingConnection.Builder(mBeanServerConnection)
+                            .latency(Duration.ofMillis(WAN_LATENCY))
+                            .jitter(Duration.ofMillis(WAN_JITTER))
+                            .bandwidth(WAN_BANDWIDTH)
+                            .build()
+                            .getConnection();
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("transport: " + transport);
+        }
+
+        try {
+            FlightRecorderConnection flightRecorderConnection;
+            switch (connection) {
+                case "mxbean":
+                case "jfrStart":
+                    flightRecorderConnection = FlightRecorderConnection.connect(mBeanServerConnection, false);
+                    flightRecorderConnection.setUseDiagnosticCommand("jfrStart".equals(connection));
+                    break;
+                case "direct":
+                    flightRecorderConnection = FlightRecorderConnection.connect(mBeanServerConnection, true);
+                    break;
+                case "dcmd":
+                    flightRecorderConnection = DiagnosticCommandConnections.connect(mBeanServerConnection);
+                    break;
+                default:
+                    throw new IllegalArgumentException("connection: " + connection);
+            }
+            return new BenchmarkConnection(connectorServer, connector, flightRecorderConnection);
+        } catch (IOException | InstanceNotFoundException | JfrStreamingException | RuntimeException e) {
+            close(connector, connectorServer);
+            throw e;
+        }
+    }
+
+    /**
+     * Get the {@code FlightRecorderConnection}.
+     * @return The {@code FlightRecorderConnection}.
+     */
+    FlightRecorderConnection getFlightRecorderConnection() {
+        return flightRecorderConnection;
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(connector, connectorServer);
+    }
+
+    private static void close(JMXConnector connector, JMXConnectorServer connectorServer) throws IOException {
+        try {
+            if (connector != null) {
+                connector.close();
+            }
+        } finally {
+            if (connectorServer != null) {
+                connectorServer.stop();
+            }
+        }
+    }
+}
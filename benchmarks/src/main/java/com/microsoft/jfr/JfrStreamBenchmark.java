@@ -0,0 +1,91 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import javax.management.InstanceNotFoundException;
+
+/**
+ * Measures the time to read a stopped recording through a {@code JfrStream} for a range of block sizes.
+ * Each block is one {@code readStream} call to the {@code FlightRecorderMXBean}, so the block size sets
+ * the number of round-trips.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JfrStreamBenchmark {
+
+    @Param({"platform", "rmi", "wan"})
+    public String transport;
+
+    @Param({"4096", "50000", "1000000"})
+    public long blockSize;
+
+    private BenchmarkConnection connection;
+    private Recording recording;
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setup() throws IOException, InstanceNotFoundException, JfrStreamingException {
+        connection = BenchmarkConnection.open(transport, "mxbean");
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().disk("true").build();
+        recording = connection.getFlightRecorderConnection().newRecording(recordingOptions, RecordingConfiguration.PROFILE_CONFIGURATION);
+        recording.start();
+        Instant then = Instant.now().plusSeconds(2);
+        while (Instant.now().isBefore(then)) {
+            doWork();
+        }
+        recording.stop();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, JfrStreamingException {
+        try {
+            recording.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    // Give the flight recorder something to record.
+    private static void doWork() {
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < 1000; n++) {
+            sb.append(n);
+        }
+        if (sb.length() == 0) {
+            throw new AssertionError();
+        }
+    }
+
+    @Benchmark
+    public long read() throws IOException, JfrStreamingException {
+        long total = 0L;
+        try (InputStream inputStream = recording.getStream(null, null, blockSize)) {
+            int n;
+            while ((n = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                total += n;
+            }
+        }
+        return total;
+    }
+}
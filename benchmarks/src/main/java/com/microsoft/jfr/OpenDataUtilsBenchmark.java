@@ -0,0 +1,92 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+
+/**
+ * Measures the cost of converting recording options to the {@code TabularData} passed to the
+ * {@code FlightRecorderMXBean}. Run with {@code -prof gc} to see the allocation per operation.
+ * <ul>
+ *     <li>{@code rebuildTypes} builds the open types on every call, as {@code OpenDataUtils} used to.</li>
+ *     <li>{@code makeOpenData} reuses the open types, which is the cost for {@code getStream} options.</li>
+ *     <li>{@code cachedOpenData} is the cost for an immutable {@code RecordingOptions} after the first use.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OpenDataUtilsBenchmark {
+
+    private RecordingOptions recordingOptions;
+    private Map<String, String> options;
+
+    @Setup
+    public void setup() throws OpenDataException {
+        recordingOptions = new RecordingOptions.Builder()
+                .name("benchmark")
+                .maxAge("10 m")
+                .maxSize("100000000")
+                .disk("true")
+                .duration("1 h")
+                .build();
+        options = recordingOptions.getRecordingOptions();
+        recordingOptions.getOpenData();
+    }
+
+    // The implementation of OpenDataUtils.makeOpenData before the open types were cached.
+    private static TabularData makeOpenDataWithNewTypes(final Map<String, String> options) throws OpenDataException {
+        final String typeName = "java.util.Map<java.lang.String, java.lang.String>";
+        final String[] itemNames = new String[]{"key", "value"};
+        final OpenType<?>[] openTypes = new OpenType[]{SimpleType.STRING, SimpleType.STRING};
+        final CompositeType rowType = new CompositeType(typeName, typeName, itemNames, itemNames, openTypes);
+        final TabularType tabularType = new TabularType(typeName, typeName, rowType, new String[]{"key"});
+        final TabularDataSupport table = new TabularDataSupport(tabularType);
+
+        for (Map.Entry<String, String> entry : options.entrySet()) {
+            Object[] itemValues = {entry.getKey(), entry.getValue()};
+            CompositeData element = new CompositeDataSupport(rowType, itemNames, itemValues);
+            table.put(element);
+        }
+        return table;
+    }
+
+    @Benchmark
+    public TabularData rebuildTypes() throws OpenDataException {
+        return makeOpenDataWithNewTypes(options);
+    }
+
+    @Benchmark
+    public TabularData makeOpenData() throws OpenDataException {
+        return OpenDataUtils.makeOpenData(options);
+    }
+
+    @Benchmark
+    public TabularData cachedOpenData() throws OpenDataException {
+        return recordingOptions.getOpenData();
+    }
+}
@@ -0,0 +1,61 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of building {@code RecordingOptions}, which validates and normalizes every option.
+ * <ul>
+ *     <li>{@code build} builds from a builder that already has its options set.</li>
+ *     <li>{@code buildAll} sets every option on a new builder and builds it, as a collector does
+ *     when it reads its options from system properties.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordingOptionsBenchmark {
+
+    private RecordingOptions.Builder builder;
+
+    @Setup
+    public void setup() {
+        builder = newBuilder();
+    }
+
+    private static RecordingOptions.Builder newBuilder() {
+        return new RecordingOptions.Builder()
+                .name("benchmark")
+                .maxAge("10 m")
+                .maxSize("100000000")
+                .dumpOnExit("true")
+                .destination("benchmark.jfr")
+                .disk("true")
+                .duration("1 h");
+    }
+
+    @Benchmark
+    public RecordingOptions build() {
+        return builder.build();
+    }
+
+    @Benchmark
+    public RecordingOptions buildAll() {
+        return newBuilder().build();
+    }
+}
@@ -0,0 +1,109 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.management.InstanceNotFoundException;
+
+/**
+ * Measures the latency of starting and of stopping a recording. The {@code connection} parameter
+ * compares the {@code FlightRecorderMXBean} calls through {@code MBeanServer#invoke}, the single {@code jfrStart}
+ * call, the direct calls to the {@code FlightRecorderMXBean} of this JVM, and the
+ * {@code FlightRecorderDiagnosticCommandConnection}. See {@link BenchmarkConnection}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartStopBenchmark {
+
+    @Param({"platform", "rmi", "wan"})
+    public String transport;
+
+    @Param({"mxbean", "jfrStart", "direct", "dcmd"})
+    public String connection;
+
+    private BenchmarkConnection benchmarkConnection;
+    private FlightRecorderConnection flightRecorderConnection;
+    private RecordingOptions recordingOptions;
+
+    @Setup
+    public void setup() throws IOException, InstanceNotFoundException, JfrStreamingException {
+        benchmarkConnection = BenchmarkConnection.open(transport, connection);
+        flightRecorderConnection = benchmarkConnection.getFlightRecorderConnection();
+        recordingOptions = new RecordingOptions.Builder().name("benchmark").build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        benchmarkConnection.close();
+    }
+
+    private Recording newRecording() {
+        return flightRecorderConnection.newRecording(recordingOptions, RecordingConfiguration.DEFAULT_CONFIGURATION);
+    }
+
+    /** A recording that is started by the benchmark and stopped after it. */
+    @State(Scope.Thread)
+    public static class ToStart {
+        Recording recording;
+
+        @TearDown(Level.Invocation)
+        public void stop() throws IOException {
+            recording.close();
+        }
+    }
+
+    /** A recording that is started before the benchmark and stopped by it. */
+    @State(Scope.Thread)
+    public static class ToStop {
+        Recording recording;
+
+        @Setup(Level.Invocation)
+        public void start(StartStopBenchmark benchmark) throws IOException, JfrStreamingException {
+            recording = benchmark.newRecording();
+            recording.start();
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() throws IOException {
+            recording.close();
+        }
+    }
+
+    @Benchmark
+    public long start(ToStart toStart) throws IOException, JfrStreamingException {
+        toStart.recording = newRecording();
+        return toStart.recording.start();
+    }
+
+    @Benchmark
+    public void stop(ToStop toStop) throws IOException, JfrStreamingException {
+        toStop.recording.stop();
+    }
+
+    @Benchmark
+    public void startAndStop() throws IOException, JfrStreamingException {
+        Recording recording = newRecording();
+        recording.start();
+        recording.stop();
+        recording.close();
+    }
+}
@@ -0,0 +1,48 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr.dcmd;
+
+import com.microsoft.jfr.FlightRecorderConnection;
+import com.microsoft.jfr.JfrStreamingException;
+
+import java.io.IOException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+
+/**
+ * Creates a {@link FlightRecorderDiagnosticCommandConnection} for the benchmarks.
+ */
+public final class DiagnosticCommandConnections {
+
+    private static final String DIAGNOSTIC_COMMAND_OBJECT_NAME = "com.sun.management:type=DiagnosticCommand";
+
+    private DiagnosticCommandConnections() {
+    }
+
+    /**
+     * Connect to the {@code DiagnosticCommand} MBean. {@link FlightRecorderDiagnosticCommandConnection#connect}
+     * fails on JDK 11 and later, which do not have the {@code vmCheckCommercialFeatures} command. The
+     * benchmarks run on those JDKs too, so this falls back to creating the connection directly.
+     * @param mBeanServerConnection The {@code MBeanServerConnection} to the JVM.
+     * @return A {@code FlightRecorderDiagnosticCommandConnection}.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws InstanceNotFoundException The DiagnosticCommand MBean is not registered on the target JVM.
+     * @throws JfrStreamingException Wraps a {@code javax.management.MalformedObjectNameException}.
+     */
+    public static FlightRecorderConnection connect(MBeanServerConnection mBeanServerConnection)
+            throws IOException, InstanceNotFoundException, JfrStreamingException {
+        try {
+            return FlightRecorderDiagnosticCommandConnection.connect(mBeanServerConnection);
+        } catch (JfrStreamingException e) {
+            try {
+                ObjectInstance objectInstance = mBeanServerConnection.getObjectInstance(new ObjectName(DIAGNOSTIC_COMMAND_OBJECT_NAME));
+                return new FlightRecorderDiagnosticCommandConnection(mBeanServerConnection, objectInstance.getObjectName());
+            } catch (MalformedObjectNameException malformed) {
+                throw new JfrStreamingException(DIAGNOSTIC_COMMAND_OBJECT_NAME, malformed);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+/**
+ * Chooses the {@code blockSize} for {@link Recording#getStream(java.time.Instant, java.time.Instant, AdaptiveBlockSize)}
+ * from the latency of earlier calls to {@code FlightRecorderMXBean#readStream(long)}.
+ * <p>
+ * The time for a call to {@code readStream} is modeled as a fixed cost per call (the round-trip
+ * to the MBean server) plus a cost per byte. The model is fit to the blocks read by the streams
+ * that use this {@code AdaptiveBlockSize}, with recent blocks weighted more heavily than older ones.
+ * The block size is then chosen so that the fixed cost is about a tenth of the time of each call.
+ * Over a high latency connection this gives large blocks and few round-trips, while over a
+ * local connection the blocks stay small, which keeps heap use low.
+ * <p>
+ * The {@code blockSize} of a stream is fixed when the stream is opened. An {@code AdaptiveBlockSize}
+ * therefore adapts from one stream to the next, and is meant to be shared by the streams read
+ * from the same connection. The block size always stays within the bounds given to the constructor.
+ * This class is thread-safe.
+ */
+public class AdaptiveBlockSize {
+
+    // The target fraction of the time of a readStream call that is spent on the fixed cost of the call.
+    private static final double OVERHEAD_FRACTION = 0.1;
+
+    // Weight given to previous samples each time a new sample is recorded.
+    private static final double DECAY = 0.98;
+
+    // If the block sizes that were sampled vary by less than this fraction,
+    // the fixed and per-byte costs cannot be told apart.
+    private static final double MIN_RELATIVE_SPREAD = 0.05;
+
+    private final long minBlockSize;
+    private final long maxBlockSize;
+    private long blockSize;
+
+    // Exponentially decayed sums for a least squares fit of nanos = fixedNanos + nanosPerByte * bytes
+    private double weight;
+    private double sumBytes;
+    private double sumNanos;
+    private double sumBytesSquared;
+    private double sumBytesNanos;
+
+    /**
+     * Create an {@code AdaptiveBlockSize} that chooses a block size between {@code minBlockSize}
+     * and {@code maxBlockSize}, inclusive. The first stream uses the default block size, limited
+     * to these bounds.
+     * @param minBlockSize The smallest block size to use, greater than zero.
+     * @param maxBlockSize The largest block size to use, not less than {@code minBlockSize}.
+     * Setting maxBlockSize to a very high value may result in an exception if the Java Virtual Machine (JVM)
+     * deems the value too large to handle.
+     * @throws IllegalArgumentException If {@code minBlockSize} is not positive, or
+     * if {@code maxBlockSize} is less than {@code minBlockSize}.
+     */
+    public AdaptiveBlockSize(long minBlockSize, long maxBlockSize) {
+        if (minBlockSize <= 0L) {
+            throw new IllegalArgumentException("minBlockSize: " + minBlockSize + " <= 0");
+        }
+        if (maxBlockSize < minBlockSize) {
+            throw new IllegalArgumentException("maxBlockSize: " + maxBlockSize + " < minBlockSize: " + minBlockSize);
+        }
+        this.minBlockSize = minBlockSize;
+        this.maxBlockSize = maxBlockSize;
+        this.blockSize = clamp(JfrStream.getDefaultBlockSize());
+    }
+
+    /**
+     * Get the smallest block size this {@code AdaptiveBlockSize} will choose.
+     * @return The minimum block size.
+     */
+    public long getMinBlockSize() {
+        return minBlockSize;
+    }
+
+    /**
+     * Get the largest block size this {@code AdaptiveBlockSize} will choose.
+     * @return The maximum block size.
+     */
+    public long getMaxBlockSize() {
+        return maxBlockSize;
+    }
+
+    /**
+     * Get the block size that was chosen for the most recently opened stream.
+     * @return The current block size.
+     */
+    public synchronized long getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Choose the block size for a stream that is about to be opened.
+     * @return The block size for the next stream.
+     */
+    /* package scope */ synchronized long nextBlockSize() {
+        if (weight == 0d) {
+            return blockSize;
+        }
+        double meanBytes = sumBytes / weight;
+        double meanNanos = sumNanos / weight;
+        double varianceBytes = sumBytesSquared / weight - meanBytes * meanBytes;
+        double spread = MIN_RELATIVE_SPREAD * meanBytes;
+        double nanosPerByte = varianceBytes > 0d ? (sumBytesNanos / weight - meanBytes * meanNanos) / varianceBytes : 0d;
+
+        if (varianceBytes <= spread * spread || nanosPerByte <= 0d) {
+            // Every sample has about the same size, so probe with a different size to learn the cost per byte.
+            blockSize = blockSize < maxBlockSize ? clamp(Math.min(maxBlockSize / 2, blockSize) * 2) : clamp(blockSize / 2);
+        } else {
+            double fixedNanos = meanNanos - nanosPerByte * meanBytes;
+            double target = fixedNanos <= 0d ? minBlockSize
+                    : (fixedNanos / nanosPerByte) * (1d - OVERHEAD_FRACTION) / OVERHEAD_FRACTION;
+            blockSize = clamp(target >= maxBlockSize ? maxBlockSize : (long) target);
+        }
+        return blockSize;
+    }
+
+    /**
+     * Record the time taken by a call to {@code readStream}.
+     * @param bytes The number of bytes returned by the call. Zero if the call returned the end of the stream.
+     * @param nanos The elapsed time of the call, in nanoseconds.
+     */
+    /* package scope */ synchronized void record(long bytes, long nanos) {
+        weight = weight * DECAY + 1d;
+        sumBytes = sumBytes * DECAY + bytes;
+        sumNanos = sumNanos * DECAY + nanos;
+        sumBytesSquared = sumBytesSquared * DECAY + (double) bytes * bytes;
+        sumBytesNanos = sumBytesNanos * DECAY + (double) bytes * nanos;
+    }
+
+    private long clamp(long value) {
+        return Math.max(minBlockSize, Math.min(maxBlockSize, value));
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveBlockSize[" + minBlockSize + ".." + maxBlockSize + "] = " + getBlockSize();
+    }
+}
@@ -0,0 +1,138 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * An asynchronous facade for a {@link FlightRecorderConnection}. Each call to the MBean server is run
+ * on a caller-supplied {@code Executor} and its result is returned as a {@code CompletableFuture},
+ * so that a small pool of threads can control recordings on many JVMs.
+ * <p>
+ * Calls made through one {@code AsyncFlightRecorderConnection} run one at a time, in the order they
+ * were made. For example, a {@code stop} made after a {@code start} runs after the {@code start}
+ * completes, even if the calls are made from different threads. Calls made through different
+ * {@code AsyncFlightRecorderConnection} instances are independent of each other.
+ * <p>
+ * A call can be cancelled by cancelling its future, or given a deadline. A call that is cancelled or
+ * that misses its deadline before it starts to run is not run. A call that is already running when it
+ * is cancelled, or when its deadline passes, runs to completion, because a call to the MBean server
+ * cannot be interrupted, and the next call waits for it. Its result is discarded. For example, a
+ * recording may be started even though the future for {@link AsyncRecording#start()} completed with a
+ * {@code TimeoutException}. The state of the {@link Recording} reflects what was done.
+ * <pre>{@code
+ * ExecutorService executor = Executors.newFixedThreadPool(4);
+ * AsyncFlightRecorderConnection connection =
+ *         new AsyncFlightRecorderConnection(FlightRecorderConnection.connect(mBeanServerConnection), executor, Duration.ofSeconds(30));
+ * AsyncRecording recording = connection.newRecording(recordingOptions, RecordingConfiguration.PROFILE_CONFIGURATION);
+ * recording.start()
+ *         .thenCompose(id -> recording.stop())
+ *         .thenCompose(ignored -> recording.streamTo(Paths.get("recording.jfr")))
+ *         .whenComplete((statistics, e) -> recording.close());
+ * }</pre>
+ */
+public class AsyncFlightRecorderConnection {
+
+    /**
+     * A blocking call to make through the {@code AsyncFlightRecorderConnection}.
+     * @param <T> The type of the result of the call.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        /**
+         * Make the call.
+         * @return The result of the call.
+         * @throws IOException A communication problem occurred when talking to the MBean server.
+         * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+         */
+        T call() throws IOException, JfrStreamingException;
+    }
+
+    private final FlightRecorderConnection connection;
+    private final CallQueue calls;
+    private final Duration timeout;
+
+    /**
+     * Create an {@code AsyncFlightRecorderConnection} whose calls have no deadline and are run on
+     * the executor of this library. On JDK 21 and later, that executor runs each call on a virtual thread.
+     * Otherwise, it runs calls on a pool of daemon threads that grows as needed.
+     * @param connection The connection to make calls on, not {@code null}.
+     */
+    public AsyncFlightRecorderConnection(FlightRecorderConnection connection) {
+        this(connection, JfrExecutors.getExecutor(), null);
+    }
+
+    /**
+     * Create an {@code AsyncFlightRecorderConnection} whose calls have no deadline.
+     * @param connection The connection to make calls on, not {@code null}.
+     * @param executor The executor to make calls on, not {@code null}.
+     */
+    public AsyncFlightRecorderConnection(FlightRecorderConnection connection, Executor executor) {
+        this(connection, executor, null);
+    }
+
+    /**
+     * Create an {@code AsyncFlightRecorderConnection}.
+     * @param connection The connection to make calls on, not {@code null}.
+     * @param executor The executor to make calls on, not {@code null}.
+     * @param timeout The deadline for each call, measured from when the call is made, or {@code null} for no deadline.
+     * @throws IllegalArgumentException The {@code timeout} is negative.
+     */
+    public AsyncFlightRecorderConnection(FlightRecorderConnection connection, Executor executor, Duration timeout) {
+        if (timeout != null && timeout.isNegative()) {
+            throw new IllegalArgumentException("timeout: " + timeout + " < 0");
+        }
+        this.connection = Objects.requireNonNull(connection);
+        this.calls = new CallQueue(Objects.requireNonNull(executor));
+        this.timeout = timeout;
+    }
+
+    /**
+     * Get the {@code FlightRecorderConnection} that calls are made on.
+     * @return The {@code FlightRecorderConnection}.
+     */
+    public FlightRecorderConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Create an {@link AsyncRecording} with the given options and configuration. This does not call the
+     * MBean server. The recording is created in the {@link Recording.State#NEW} state.
+     * @param recordingOptions The options to be used for the recording, or {@code null} for defaults.
+     * @param recordingConfiguration The configuration to be used for the recording, or {@code null} for defaults.
+     * @return An {@code AsyncRecording} whose calls are made through this {@code AsyncFlightRecorderConnection}.
+     * @see FlightRecorderConnection#newRecording(RecordingOptions, RecordingConfiguration)
+     */
+    public AsyncRecording newRecording(RecordingOptions recordingOptions, RecordingConfiguration recordingConfiguration) {
+        return new AsyncRecording(this, connection.newRecording(recordingOptions, recordingConfiguration));
+    }
+
+    /**
+     * Make a call after the calls already made through this {@code AsyncFlightRecorderConnection},
+     * with the deadline given to the constructor.
+     * @param call The call to make, not {@code null}.
+     * @param <T> The type of the result of the call.
+     * @return A future for the result of the call.
+     */
+    public <T> CompletableFuture<T> submit(Call<T> call) {
+        return submit(call, timeout);
+    }
+
+    /**
+     * Make a call after the calls already made through this {@code AsyncFlightRecorderConnection}.
+     * The future completes exceptionally with a {@code TimeoutException} if the call has not
+     * completed by the deadline.
+     * @param call The call to make, not {@code null}.
+     * @param timeout The deadline for the call, measured from now, or {@code null} for no deadline.
+     * @param <T> The type of the result of the call.
+     * @return A future for the result of the call.
+     */
+    public <T> CompletableFuture<T> submit(Call<T> call, Duration timeout) {
+        Objects.requireNonNull(call);
+        return calls.submit(call, timeout);
+    }
+}
@@ -0,0 +1,127 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An asynchronous facade for a {@link Recording}. Each method makes its call through an
+ * {@link AsyncFlightRecorderConnection}, so calls are run on the executor of that connection, one
+ * at a time and in the order they were made. Exceptions thrown by a {@code Recording} method, including
+ * {@code IllegalStateException}, complete the returned future exceptionally.
+ * {@code AsyncRecording} instances are created by
+ * {@link AsyncFlightRecorderConnection#newRecording(RecordingOptions, RecordingConfiguration)}.
+ */
+public class AsyncRecording {
+
+    private final AsyncFlightRecorderConnection connection;
+    private final Recording recording;
+
+    /* package scope */ AsyncRecording(AsyncFlightRecorderConnection connection, Recording recording) {
+        this.connection = connection;
+        this.recording = recording;
+    }
+
+    /**
+     * Get the {@code Recording} that calls are made on. The state and id of the recording reflect
+     * the calls that have completed.
+     * @return The {@code Recording}.
+     */
+    public Recording getRecording() {
+        return recording;
+    }
+
+    /**
+     * Start the recording.
+     * @return A future for the recording id.
+     * @see Recording#start()
+     */
+    public CompletableFuture<Long> start() {
+        return connection.submit(recording::start);
+    }
+
+    /**
+     * Stop the recording.
+     * @return A future that completes when the recording has stopped.
+     * @see Recording#stop()
+     */
+    public CompletableFuture<Void> stop() {
+        return connection.submit(() -> {
+            recording.stop();
+            return null;
+        });
+    }
+
+    /**
+     * Write recording data to the specified file on the machine where the JVM is running.
+     * @param outputFile the system-dependent file name where data is written, not {@code null}
+     * @return A future that completes when the data has been written.
+     * @see Recording#dump(String)
+     */
+    public CompletableFuture<Void> dump(String outputFile) {
+        return connection.submit(() -> {
+            recording.dump(outputFile);
+            return null;
+        });
+    }
+
+    /**
+     * Clone the recording. Calls on the clone are made through the same {@code AsyncFlightRecorderConnection}.
+     * @param stop Whether to stop the cloned recording.
+     * @return A future for the cloned recording.
+     * @see Recording#clone(boolean)
+     */
+    public CompletableFuture<AsyncRecording> clone(boolean stop) {
+        return connection.submit(() -> new AsyncRecording(connection, recording.clone(stop)));
+    }
+
+    /**
+     * Open a data stream for the specified interval. Only opening the stream is asynchronous.
+     * Reading the stream blocks the reading thread, so use {@link #streamTo(Path)} to transfer
+     * the data without blocking.
+     * @param startTime The start time for the stream, or {@code null} to get data from the start time of the recording.
+     * @param endTime The end time for the stream, or {@code null} to get data until the end of the recording.
+     * @return A future for the stream.
+     * @see Recording#getStream(Instant, Instant)
+     */
+    public CompletableFuture<InputStream> getStream(Instant startTime, Instant endTime) {
+        return connection.submit(() -> recording.getStream(startTime, endTime));
+    }
+
+    /**
+     * Transfer the recording to a file on this machine. Later calls through the same
+     * {@code AsyncFlightRecorderConnection} wait until the transfer is complete.
+     * @param path The file to write, which is created or truncated.
+     * @return A future for the statistics of the transfer.
+     * @see Recording#streamTo(Path)
+     */
+    public CompletableFuture<TransferStatistics> streamTo(Path path) {
+        return connection.submit(() -> recording.streamTo(path));
+    }
+
+    /**
+     * Write the data recorded so far to a file on this machine, without stopping the recording.
+     * Later calls through the same {@code AsyncFlightRecorderConnection} wait until the snapshot is complete.
+     * @param path The file to write, which is created or truncated.
+     * @return A future for the statistics of the transfer.
+     * @see Recording#snapshot(Path)
+     */
+    public CompletableFuture<TransferStatistics> snapshot(Path path) {
+        return connection.submit(() -> recording.snapshot(path));
+    }
+
+    /**
+     * Close the recording.
+     * @return A future that completes when the recording has been closed.
+     * @see Recording#close()
+     */
+    public CompletableFuture<Void> close() {
+        return connection.submit(() -> {
+            recording.close();
+            return null;
+        });
+    }
+}
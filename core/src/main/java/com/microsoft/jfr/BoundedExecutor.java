@@ -0,0 +1,66 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@code Executor} that runs tasks on another executor, but no more than a given number at a time.
+ * Tasks beyond the limit wait in a queue, in the order they were submitted.
+ */
+final class BoundedExecutor implements Executor {
+
+    private final Executor delegate;
+    private final int limit;
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+
+    BoundedExecutor(Executor delegate, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit: " + limit + " < 1");
+        }
+        this.delegate = delegate;
+        this.limit = limit;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        queue.add(task);
+        drain();
+    }
+
+    // Hand queued tasks to the delegate while there are fewer than limit running.
+    private void drain() {
+        while (!queue.isEmpty()) {
+            int n = running.get();
+            if (n >= limit) {
+                // A running task will drain the queue when it finishes.
+                return;
+            }
+            if (!running.compareAndSet(n, n + 1)) {
+                continue;
+            }
+            final Runnable task = queue.poll();
+            if (task == null) {
+                running.decrementAndGet();
+                continue;
+            }
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        running.decrementAndGet();
+                        drain();
+                    }
+                });
+            } catch (RuntimeException e) {
+                running.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs blocking calls on an {@code Executor} one at a time, in the order they were submitted.
+ * A call that is cancelled, or that misses its deadline, before it starts to run is skipped.
+ * A call that is running when it is cancelled, or when its deadline passes, runs to completion
+ * and holds up the next call, but its result is discarded.
+ */
+final class CallQueue {
+
+    private final Executor executor;
+
+    // Completes when the last call submitted has finished. Guarded by this.
+    private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+    CallQueue(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Run a call after the calls already submitted.
+     * @param call The call to run.
+     * @param timeout The deadline for the call, measured from now, or {@code null} for no deadline.
+     * @param <T> The type of the result of the call.
+     * @return A future for the result of the call, which completes exceptionally with a
+     * {@code TimeoutException} if the call has not completed by the deadline.
+     */
+    <T> CompletableFuture<T> submit(AsyncFlightRecorderConnection.Call<T> call, Duration timeout) {
+        return submit(call, timeout, false);
+    }
+
+    /**
+     * Run a call after the calls already submitted.
+     * @param call The call to run.
+     * @param timeout The deadline for the call, or {@code null} for no deadline.
+     * @param fromStart Whether the deadline is measured from when the call starts to run, rather than from now.
+     *                  A call that waits for its turn then cannot miss its deadline while it waits.
+     * @param <T> The type of the result of the call.
+     * @return A future for the result of the call, which completes exceptionally with a
+     * {@code TimeoutException} if the call has not completed by the deadline.
+     */
+    <T> CompletableFuture<T> submit(AsyncFlightRecorderConnection.Call<T> call, Duration timeout, boolean fromStart) {
+
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final CompletableFuture<Void> previous;
+        synchronized (this) {
+            previous = tail;
+            tail = done;
+        }
+
+        previous.whenComplete((ignored, e) -> {
+            try {
+                executor.execute(() -> {
+                    try {
+                        // Skip the call if it was cancelled or missed its deadline while it waited.
+                        if (!result.isDone()) {
+                            if (timeout != null && fromStart) {
+                                scheduleDeadline(result, timeout);
+                            }
+                            result.complete(call.call());
+                        }
+                    } catch (Throwable t) {
+                        result.completeExceptionally(t);
+                    } finally {
+                        done.complete(null);
+                    }
+                });
+            } catch (RejectedExecutionException ree) {
+                result.completeExceptionally(ree);
+                done.complete(null);
+            }
+        });
+
+        if (timeout != null && !fromStart) {
+            scheduleDeadline(result, timeout);
+        }
+        return result;
+    }
+
+    private static void scheduleDeadline(CompletableFuture<?> result, Duration timeout) {
+        if (result.isDone()) {
+            return;
+        }
+        final ScheduledFuture<?> deadline = JfrExecutors.getScheduler().schedule(
+                () -> result.completeExceptionally(new TimeoutException("Call did not complete within " + timeout)),
+                timeout.toNanos(),
+                TimeUnit.NANOSECONDS);
+        result.whenComplete((ignored, e) -> deadline.cancel(false));
+    }
+}
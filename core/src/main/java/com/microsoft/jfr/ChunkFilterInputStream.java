@@ -0,0 +1,162 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Passes through the chunks of a Java Flight Recording that end after a given point in time,
+ * and skips the others. Chunks in a recording are in time order, so the stream also skips
+ * a chunk that ends no later than a chunk it has already passed through. This removes the
+ * duplicate chunks that occur when streams for overlapping intervals are concatenated.
+ * Only the chunk headers are examined; the rest of the data is copied as is.
+ */
+class ChunkFilterInputStream extends FilterInputStream {
+
+    private final byte[] headerBytes = new byte[ChunkHeader.SIZE];
+    // Position in headerBytes of the next header byte to pass through, or SIZE if the header has been passed through.
+    private int headerIndex = ChunkHeader.SIZE;
+    // The header of the chunk being passed through, or null at a chunk boundary.
+    private ChunkHeader chunk = null;
+    // Bytes of the current chunk, after the header, that have not been read.
+    private long remaining = 0L;
+    // Chunks that end at or before this time, in nanoseconds since the epoch, are skipped.
+    private long skipThroughNanos;
+    // End time of the last chunk that was completely passed through.
+    private long lastCompleteEndNanos;
+    // Number of bytes of the current chunk, including the header, that have been passed through.
+    private long chunkPosition = 0L;
+
+    /**
+     * Create a stream that passes through the chunks of {@code in} that end after {@code afterNanos}.
+     * @param in The recording data.
+     * @param afterNanos Chunks ending at or before this time, in nanoseconds since the epoch, are skipped.
+     *                   Use {@code Long.MIN_VALUE} to pass through every chunk except duplicates.
+     */
+    /* package scope */ ChunkFilterInputStream(InputStream in, long afterNanos) {
+        super(in);
+        this.skipThroughNanos = afterNanos;
+        this.lastCompleteEndNanos = afterNanos;
+    }
+
+    /**
+     * Get the end time of the last chunk that was completely read from this stream.
+     * @return The end time in nanoseconds since the epoch, or the {@code afterNanos}
+     * argument of the constructor if no chunk has been completely read.
+     */
+    /* package scope */ long getLastCompleteEndNanos() {
+        return lastCompleteEndNanos;
+    }
+
+    /**
+     * Get the header of the chunk that is partially read.
+     * @return The header of the chunk being read, or {@code null} if the stream is at a chunk boundary.
+     */
+    /* package scope */ ChunkHeader getCurrentChunk() {
+        return chunk;
+    }
+
+    /**
+     * Get the number of bytes of the current chunk, including the header, that have been read.
+     * @return The number of bytes read from the current chunk, or {@code 0} at a chunk boundary.
+     */
+    /* package scope */ long getChunkPosition() {
+        return chunkPosition;
+    }
+
+    // Read the next chunk header that is not filtered out. Returns false at the end of the data.
+    private boolean nextChunk() throws IOException {
+        while (true) {
+            ChunkHeader header = ChunkHeader.read(in, headerBytes);
+            if (header == null) return false;
+            long bodySize = header.getChunkSize() - ChunkHeader.SIZE;
+            if (header.getEndNanos() <= skipThroughNanos) {
+                ChunkHeader.skipBody(in, bodySize);
+                continue;
+            }
+            skipThroughNanos = header.getEndNanos();
+            chunk = header;
+            headerIndex = 0;
+            remaining = bodySize;
+            chunkPosition = 0L;
+            return true;
+        }
+    }
+
+    // Called when the last byte of the current chunk has been read.
+    private void endChunk() {
+        lastCompleteEndNanos = chunk.getEndNanos();
+        chunk = null;
+        chunkPosition = 0L;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + b.length);
+        }
+        if (len == 0) return 0;
+        if (chunk == null && !nextChunk()) return -1;
+
+        final int n;
+        if (headerIndex < headerBytes.length) {
+            n = Math.min(len, headerBytes.length - headerIndex);
+            System.arraycopy(headerBytes, headerIndex, b, off, n);
+            headerIndex += n;
+        } else {
+            n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("Truncated chunk: " + remaining + " bytes missing");
+            }
+            remaining -= n;
+        }
+        chunkPosition += n;
+        if (remaining == 0L && headerIndex == headerBytes.length) {
+            endChunk();
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipping is done by reading so that the chunk boundaries are seen.
+        byte[] b = new byte[(int) Math.min(n, 8192L)];
+        long skipped = 0L;
+        while (skipped < n) {
+            int count = read(b, 0, (int) Math.min(b.length, n - skipped));
+            if (count < 0) break;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (chunk == null) return 0;
+        if (headerIndex < headerBytes.length) return headerBytes.length - headerIndex;
+        return (int) Math.min(remaining, in.available());
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
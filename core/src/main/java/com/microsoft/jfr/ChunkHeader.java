@@ -0,0 +1,155 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The fixed size header at the start of each chunk of a Java Flight Recording.
+ * A recording is a sequence of self-contained chunks. The header gives the size of
+ * the chunk and the period of time covered by the events in the chunk.
+ * <pre>
+ *  0-3:  magic "FLR\0"
+ *  4-5:  major version
+ *  6-7:  minor version
+ *  8-15: chunk size, including the header
+ * 16-23: constant pool offset
+ * 24-31: metadata offset
+ * 32-39: chunk start, in nanoseconds since the epoch
+ * 40-47: chunk duration, in nanoseconds
+ * 48-55: chunk start, in ticks
+ * 56-63: ticks per second
+ * 64-67: file state and feature flags
+ * </pre>
+ * All values are big-endian.
+ */
+final class ChunkHeader {
+
+    /** The size of a chunk header, in bytes. */
+    static final int SIZE = 68;
+
+    private static final int MAGIC = ('F' << 24) | ('L' << 16) | ('R' << 8);
+
+    private final short major;
+    private final short minor;
+    private final long chunkSize;
+    private final long constantPoolOffset;
+    private final long metadataOffset;
+    private final long startNanos;
+    private final long durationNanos;
+    private final long startTicks;
+    private final long ticksPerSecond;
+    private final int features;
+
+    private ChunkHeader(ByteBuffer buffer) {
+        this.major = buffer.getShort(4);
+        this.minor = buffer.getShort(6);
+        this.chunkSize = buffer.getLong(8);
+        this.constantPoolOffset = buffer.getLong(16);
+        this.metadataOffset = buffer.getLong(24);
+        this.startNanos = buffer.getLong(32);
+        this.durationNanos = buffer.getLong(40);
+        this.startTicks = buffer.getLong(48);
+        this.ticksPerSecond = buffer.getLong(56);
+        this.features = buffer.getInt(64);
+    }
+
+    /**
+     * Parse a chunk header.
+     * @param bytes An array holding the header.
+     * @param offset The offset of the header in {@code bytes}.
+     * @return The chunk header.
+     * @throws IOException If the bytes are not a chunk header.
+     */
+    static ChunkHeader parse(byte[] bytes, int offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, SIZE).slice();
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a JFR chunk: bad magic at offset " + offset);
+        }
+        ChunkHeader header = new ChunkHeader(buffer);
+        if (header.chunkSize < SIZE) {
+            throw new IOException("Not a JFR chunk: chunk size " + header.chunkSize + " < " + SIZE);
+        }
+        return header;
+    }
+
+    /**
+     * Read and parse the chunk header at the current position of a stream.
+     * @param in The stream, positioned at the start of a chunk or at the end of the data.
+     * @param headerBytes An array of at least {@link #SIZE} bytes, which is left holding the header.
+     * @return The chunk header, or {@code null} if {@code in} is at the end of the data.
+     * @throws EOFException If the data ends within the header.
+     * @throws IOException An error occurred reading {@code in}, or the bytes are not a chunk header.
+     */
+    static ChunkHeader read(InputStream in, byte[] headerBytes) throws IOException {
+        int total = 0;
+        while (total < SIZE) {
+            int n = in.read(headerBytes, total, SIZE - total);
+            if (n < 0) break;
+            total += n;
+        }
+        if (total == 0) {
+            return null;
+        }
+        if (total < SIZE) {
+            throw new EOFException("Truncated chunk header: " + total + " bytes");
+        }
+        return parse(headerBytes, 0);
+    }
+
+    /**
+     * Skip the body of a chunk, or what is left of it.
+     * @param in The stream, positioned in a chunk.
+     * @param n The number of bytes to skip.
+     * @throws EOFException If the data ends before {@code n} bytes.
+     * @throws IOException An error occurred reading {@code in}.
+     */
+    static void skipBody(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                // skip may return 0 before the end of the data; read a byte to tell the difference
+                if (in.read() < 0) throw new EOFException("Truncated chunk: " + n + " bytes missing");
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    short getMajor() { return major; }
+
+    short getMinor() { return minor; }
+
+    long getChunkSize() { return chunkSize; }
+
+    long getConstantPoolOffset() { return constantPoolOffset; }
+
+    long getMetadataOffset() { return metadataOffset; }
+
+    long getStartNanos() { return startNanos; }
+
+    long getDurationNanos() { return durationNanos; }
+
+    /**
+     * Get the end of the period covered by the chunk, in nanoseconds since the epoch.
+     * @return The chunk start plus the chunk duration.
+     */
+    long getEndNanos() { return startNanos + durationNanos; }
+
+    long getStartTicks() { return startTicks; }
+
+    long getTicksPerSecond() { return ticksPerSecond; }
+
+    int getFeatures() { return features; }
+
+    @Override
+    public String toString() {
+        return "ChunkHeader[version=" + major + "." + minor
+                + ", size=" + chunkSize
+                + ", startNanos=" + startNanos
+                + ", durationNanos=" + durationNanos + "]";
+    }
+}
@@ -0,0 +1,52 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of {@link FlightRecorderConnection#closeOrphanedRecordings(String)}. Each recording that was
+ * to be closed is either in {@link #getClosed()} or in {@link #getFailed()}. A recording that could not be
+ * closed because it was closed by someone else in the meantime is in neither.
+ */
+public final class ClosedRecordings {
+
+    private final List<Long> closed;
+    private final Map<Long, Exception> failed;
+
+    /* package scope */ ClosedRecordings(List<Long> closed, Map<Long, Exception> failed) {
+        this.closed = Collections.unmodifiableList(closed);
+        this.failed = Collections.unmodifiableMap(failed);
+    }
+
+    /**
+     * Get the ids of the recordings that were closed.
+     * @return The ids of the closed recordings, in the order they were closed.
+     */
+    public List<Long> getClosed() {
+        return closed;
+    }
+
+    /**
+     * Get the exceptions of the recordings that could not be closed. These recordings are still open.
+     * @return The exception for each recording that could not be closed, by recording id.
+     */
+    public Map<Long, Exception> getFailed() {
+        return failed;
+    }
+
+    /**
+     * Whether every recording that was to be closed is closed.
+     * @return {@code true} if no recording failed to close.
+     */
+    public boolean isComplete() {
+        return failed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ClosedRecordings{closed=" + closed + ", failed=" + failed + "}";
+    }
+}
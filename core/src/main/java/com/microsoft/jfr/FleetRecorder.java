@@ -0,0 +1,350 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+
+/**
+ * Controls a recording on each of many JVMs, the <em>targets</em>. Each operation, {@link #start()},
+ * {@link #stop()}, {@link #snapshot(Path)}, {@link #stream(Path)} and {@link #close()}, is fanned out to
+ * all targets concurrently and returns a future for a {@link FleetResult}, which holds the result of each
+ * target that succeeded and the exception of each target that failed. A failure on one target does not
+ * affect the others.
+ * <p>
+ * No more than {@link Builder#parallelism(int) parallelism} calls run at a time, across all targets.
+ * Operations on one target run one at a time, in the order they were made, so a {@code stop()} made
+ * right after a {@code start()} stops the recording that was started. Each target is connected to
+ * on its first operation, using the {@link ConnectionSupplier} given for it. A target that fails to
+ * connect is connected to again on its next operation. The {@code MBeanServerConnection}s belong to the
+ * caller, which must close them after the recordings are closed.
+ * <pre>{@code
+ * FleetRecorder fleet = new FleetRecorder.Builder()
+ *         .target("web-1", () -> JMXConnectorFactory.connect(web1).getMBeanServerConnection())
+ *         .target("web-2", () -> JMXConnectorFactory.connect(web2).getMBeanServerConnection())
+ *         .recordingConfiguration(RecordingConfiguration.PROFILE_CONFIGURATION)
+ *         .parallelism(64)
+ *         .timeout(Duration.ofSeconds(10))
+ *         .build();
+ * FleetResult<Long> started = fleet.start().join();
+ * TimeUnit.MINUTES.sleep(1);
+ * FleetResult<TransferStatistics> snapshots = fleet.snapshot(Paths.get("profiles")).join();
+ * fleet.close().join();
+ * }</pre>
+ */
+public class FleetRecorder {
+
+    /**
+     * Supplies the connection to the MBean server of a target.
+     */
+    @FunctionalInterface
+    public interface ConnectionSupplier {
+        /**
+         * Get a connection to the MBean server of the target.
+         * @return A connection to the MBean server.
+         * @throws IOException The connection could not be made.
+         */
+        MBeanServerConnection get() throws IOException;
+    }
+
+    /**
+     * Builder for a {@link FleetRecorder}.
+     */
+    public static class Builder {
+
+        private final Map<String, ConnectionSupplier> targets = new LinkedHashMap<>();
+        private RecordingOptions recordingOptions = null;
+        private RecordingConfiguration recordingConfiguration = null;
+        private Executor executor = JfrExecutors.getExecutor();
+        private int parallelism = 32;
+        private Duration timeout = null;
+
+        /**
+         * Constructor for a {@code Builder}.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Add a target. The name identifies the target in a {@link FleetResult}, and names the file
+         * written by {@link #snapshot(Path)} and {@link #stream(Path)}, so it must be a valid file name.
+         * @param name The name of the target, not {@code null}.
+         * @param connectionSupplier Supplies the connection to the target, not {@code null}.
+         * @return {@code this}
+         * @throws IllegalArgumentException A target with the same name was already added.
+         */
+        public Builder target(String name, ConnectionSupplier connectionSupplier) {
+            Objects.requireNonNull(name);
+            Objects.requireNonNull(connectionSupplier);
+            if (targets.putIfAbsent(name, connectionSupplier) != null) {
+                throw new IllegalArgumentException("duplicate target: " + name);
+            }
+            return this;
+        }
+
+        /**
+         * Add targets.
+         * @param connectionSuppliers The connection supplier for each target, by target name.
+         * @return {@code this}
+         * @throws IllegalArgumentException A target with the same name was already added.
+         * @see #target(String, ConnectionSupplier)
+         */
+        public Builder targets(Map<String, ConnectionSupplier> connectionSuppliers) {
+            connectionSuppliers.forEach(this::target);
+            return this;
+        }
+
+        /**
+         * Set the options for the recordings.
+         * @param recordingOptions The options for the recordings, or {@code null} for defaults.
+         * @return {@code this}
+         */
+        public Builder recordingOptions(RecordingOptions recordingOptions) {
+            this.recordingOptions = recordingOptions;
+            return this;
+        }
+
+        /**
+         * Set the configuration for the recordings.
+         * @param recordingConfiguration The configuration for the recordings, or {@code null} for defaults.
+         * @return {@code this}
+         */
+        public Builder recordingConfiguration(RecordingConfiguration recordingConfiguration) {
+            this.recordingConfiguration = recordingConfiguration;
+            return this;
+        }
+
+        /**
+         * Set the executor that calls to the targets are made on. By default, calls are made on the
+         * executor of this library, which uses virtual threads on JDK 21 and later.
+         * @param executor The executor, not {@code null}.
+         * @return {@code this}
+         */
+        public Builder executor(Executor executor) {
+            this.executor = Objects.requireNonNull(executor);
+            return this;
+        }
+
+        /**
+         * Set the maximum number of calls that run at a time, across all targets. The default is 32.
+         * @param parallelism The maximum number of concurrent calls.
+         * @return {@code this}
+         * @throws IllegalArgumentException The {@code parallelism} is less than 1.
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism: " + parallelism + " < 1");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Set the time a target has to complete an operation, measured from when the operation starts
+         * to run on the target. A target that does not complete in time fails with a
+         * {@code java.util.concurrent.TimeoutException}. The default is no limit.
+         * @param timeout The time allowed for an operation on a target, or {@code null} for no limit.
+         * @return {@code this}
+         * @throws IllegalArgumentException The {@code timeout} is negative.
+         */
+        public Builder timeout(Duration timeout) {
+            if (timeout != null && timeout.isNegative()) {
+                throw new IllegalArgumentException("timeout: " + timeout + " < 0");
+            }
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Construct a {@code FleetRecorder} from this builder.
+         * @return A {@code FleetRecorder}, never {@code null}.
+         */
+        public FleetRecorder build() {
+            return new FleetRecorder(this);
+        }
+    }
+
+    // An operation on one target.
+    @FunctionalInterface
+    private interface TargetCall<T> {
+        T call(Target target) throws IOException, JfrStreamingException;
+    }
+
+    private final List<Target> targets;
+    private final RecordingOptions recordingOptions;
+    private final RecordingConfiguration recordingConfiguration;
+    private final Duration timeout;
+
+    private FleetRecorder(Builder builder) {
+        this.recordingOptions = builder.recordingOptions;
+        this.recordingConfiguration = builder.recordingConfiguration;
+        this.timeout = builder.timeout;
+        final Executor executor = new BoundedExecutor(builder.executor, builder.parallelism);
+        final List<Target> targets = new ArrayList<>(builder.targets.size());
+        builder.targets.forEach((name, connectionSupplier) -> targets.add(new Target(name, connectionSupplier, executor)));
+        this.targets = Collections.unmodifiableList(targets);
+    }
+
+    /**
+     * Get the names of the targets.
+     * @return The target names, in the order the targets were added.
+     */
+    public Set<String> getTargets() {
+        Set<String> names = new LinkedHashSet<>();
+        targets.forEach(target -> names.add(target.name));
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Get the recording of a target.
+     * @param name The name of the target.
+     * @return The recording of the target, or {@code null} if the target is unknown or has not been started.
+     */
+    public Recording getRecording(String name) {
+        for (Target target : targets) {
+            if (target.name.equals(name)) {
+                return target.recording;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Start a recording on each target. A target whose recording is closed, or that has no recording,
+     * gets a new recording with the options and configuration given to the builder.
+     * @return A future for the recording id of each target.
+     * @see Recording#start()
+     */
+    public CompletableFuture<FleetResult<Long>> start() {
+        return fanOut(target -> {
+            FlightRecorderConnection connection = target.connect();
+            if (target.recording == null || target.recording.getState() == Recording.State.CLOSED) {
+                target.recording = connection.newRecording(recordingOptions, recordingConfiguration);
+            }
+            return target.recording.start();
+        });
+    }
+
+    /**
+     * Stop the recording on each target.
+     * @return A future that completes when each target has stopped, or failed to.
+     * @see Recording#stop()
+     */
+    public CompletableFuture<FleetResult<Void>> stop() {
+        return fanOut(target -> {
+            target.getRecording().stop();
+            return null;
+        });
+    }
+
+    /**
+     * Write the data recorded so far on each target to a file named after the target in {@code directory},
+     * without stopping the recordings.
+     * @param directory The directory for the files, which must exist.
+     * @return A future for the statistics of the transfer from each target.
+     * @see Recording#snapshot(Path)
+     */
+    public CompletableFuture<FleetResult<TransferStatistics>> snapshot(Path directory) {
+        Objects.requireNonNull(directory);
+        return fanOut(target -> target.getRecording().snapshot(directory.resolve(target.name + ".jfr")));
+    }
+
+    /**
+     * Write the stopped recording of each target to a file named after the target in {@code directory}.
+     * @param directory The directory for the files, which must exist.
+     * @return A future for the statistics of the transfer from each target.
+     * @see Recording#streamTo(Path)
+     */
+    public CompletableFuture<FleetResult<TransferStatistics>> stream(Path directory) {
+        Objects.requireNonNull(directory);
+        return fanOut(target -> target.getRecording().streamTo(directory.resolve(target.name + ".jfr")));
+    }
+
+    /**
+     * Close the recording on each target. A target with no recording succeeds.
+     * @return A future that completes when each target has closed its recording, or failed to.
+     * @see Recording#close()
+     */
+    public CompletableFuture<FleetResult<Void>> close() {
+        return fanOut(target -> {
+            Recording recording = target.recording;
+            if (recording != null) {
+                recording.close();
+            }
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<FleetResult<T>> fanOut(TargetCall<T> targetCall) {
+        final long start = System.nanoTime();
+        final Map<String, CompletableFuture<T>> futures = new LinkedHashMap<>();
+        for (Target target : targets) {
+            futures.put(target.name, target.calls.submit(() -> targetCall.call(target), timeout, true));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, e) -> {
+                    final Map<String, T> succeeded = new LinkedHashMap<>();
+                    final Map<String, Throwable> failed = new LinkedHashMap<>();
+                    futures.forEach((name, future) -> {
+                        try {
+                            succeeded.put(name, future.join());
+                        } catch (CompletionException completionException) {
+                            Throwable cause = completionException.getCause();
+                            failed.put(name, cause != null ? cause : completionException);
+                        } catch (CancellationException cancellationException) {
+                            failed.put(name, cancellationException);
+                        }
+                    });
+                    return new FleetResult<>(succeeded, failed, Duration.ofNanos(System.nanoTime() - start));
+                });
+    }
+
+    // The state of one target. The connection and recording are only changed by calls on the
+    // target's CallQueue, which run one at a time.
+    private static final class Target {
+        final String name;
+        final ConnectionSupplier connectionSupplier;
+        final CallQueue calls;
+        volatile FlightRecorderConnection connection;
+        volatile Recording recording;
+
+        Target(String name, ConnectionSupplier connectionSupplier, Executor executor) {
+            this.name = name;
+            this.connectionSupplier = connectionSupplier;
+            this.calls = new CallQueue(executor);
+        }
+
+        FlightRecorderConnection connect() throws IOException, JfrStreamingException {
+            if (connection == null) {
+                try {
+                    connection = FlightRecorderConnection.connect(connectionSupplier.get());
+                } catch (InstanceNotFoundException e) {
+                    throw new JfrStreamingException("FlightRecorder MBean not found on target " + name, e);
+                }
+            }
+            return connection;
+        }
+
+        Recording getRecording() {
+            if (recording == null) {
+                throw new IllegalStateException("No recording on target " + name);
+            }
+            return recording;
+        }
+    }
+}
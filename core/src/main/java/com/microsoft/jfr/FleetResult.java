@@ -0,0 +1,64 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The result of an operation that a {@link FleetRecorder} fanned out to its targets. An operation
+ * may succeed on some targets and fail on others. Each target is either in {@link #getSucceeded()}
+ * or in {@link #getFailed()}.
+ * @param <T> The type of the result for a target.
+ */
+public final class FleetResult<T> {
+
+    private final Map<String, T> succeeded;
+    private final Map<String, Throwable> failed;
+    private final Duration elapsed;
+
+    /* package scope */ FleetResult(Map<String, T> succeeded, Map<String, Throwable> failed, Duration elapsed) {
+        this.succeeded = Collections.unmodifiableMap(succeeded);
+        this.failed = Collections.unmodifiableMap(failed);
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * Get the results of the targets on which the operation succeeded.
+     * @return The result for each target, by target name. The result of an operation with no result is {@code null}.
+     */
+    public Map<String, T> getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * Get the exceptions of the targets on which the operation failed. A target that did not complete
+     * the operation in time has a {@code java.util.concurrent.TimeoutException}.
+     * @return The exception for each target, by target name.
+     */
+    public Map<String, Throwable> getFailed() {
+        return failed;
+    }
+
+    /**
+     * Whether the operation succeeded on all targets.
+     * @return {@code true} if no target failed.
+     */
+    public boolean isComplete() {
+        return failed.isEmpty();
+    }
+
+    /**
+     * Get the time from the start of the operation until the last target succeeded or failed.
+     * @return The time taken by the operation.
+     */
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "FleetResult{succeeded=" + succeeded.keySet() + ", failed=" + failed + ", elapsed=" + elapsed + "}";
+    }
+}
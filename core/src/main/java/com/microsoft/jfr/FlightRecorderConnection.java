@@ -1,18 +1,32 @@
 package com.microsoft.jfr;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanException;
+import javax.management.MBeanServer;
 import javax.management.MBeanServerConnection;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectInstance;
 import javax.management.ObjectName;
 import javax.management.ReflectionException;
+import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.OpenDataException;
 import javax.management.openmbean.TabularData;
 
@@ -33,11 +47,27 @@ import javax.management.openmbean.TabularData;
  * also be to a remote MBean server via {@code javax.management.remote.JMXConnector}.
  * Refer to the summary in the javadoc of the {@code javax.management} package and of the
  * {@code javax.management.remote} package for details.
+ * <p>
+ * A recording in the JVM is closed by {@link Recording#close()}. If a {@code Recording} is garbage
+ * collected without being closed, its recording in the JVM is closed by a periodic sweep, which runs every
+ * {@code jfr.recording.sweep.interval} milliseconds (60000 by default, 0 to turn it off). Recordings left
+ * behind by a process that is gone can be closed with {@link #closeOrphanedRecordings(String)}.
+ * <p>
+ * The state of a {@code Recording} changes with the calls made through it. Changes made in the JVM, such as
+ * a recording that stops when it reaches its {@code duration}, are picked up for all recordings of a
+ * connection at once by {@link #syncRecordingStates()}, which can also be run periodically, or as they
+ * happen while a {@link #addRecordingListener(RecordingListener) RecordingListener} is added.
  */
 public class FlightRecorderConnection {
 
     private static final String JFR_OBJECT_NAME = "jdk.management.jfr:type=FlightRecorder";
 
+    // The start of the message of the IOException the FlightRecorderMXBean throws for an interval with no data.
+    private static final String NO_DATA_AVAILABLE = "No recording data available";
+
+    // Whether a connection to the platform MBean server of this JVM calls the FlightRecorderMXBean directly.
+    private static final boolean USE_DIRECT_CALLS = Boolean.parseBoolean(System.getProperty("jfr.connection.direct", "true"));
+
     /**
      * Create a connection to the {@code FlightRecorder} via JMX. This method either returns a
      * {@code FlightRecorderConnection}, or throws an exception. An {@code IOException}
@@ -46,6 +76,11 @@ public class FlightRecorderConnection {
      * if the target JVM does not support Java Flight Recorder, or if experimental features need to be
      * enabled on the target JVM. If an {@code InstanceNotFoundException} is thrown by a Java 8 JVM,
      * consider using {@link com.microsoft.jfr.dcmd.FlightRecorderDiagnosticCommandConnection}.
+     * <p>
+     * If {@code mBeanServerConnection} is the platform MBean server of this JVM, the returned connection calls
+     * the {@code FlightRecorderMXBean} directly, rather than through {@code MBeanServer#invoke}, for the calls
+     * that start, stop, clone, stream and close recordings. This lowers the cost of each call for an agent that
+     * records its own JVM. Setting the system property {@code jfr.connection.direct} to {@code false} turns this off.
      *
      * @param mBeanServerConnection The {@code MBeanServerConnection} to the JVM.
      * @return A {@code FlightRecorderConnection}.
@@ -57,10 +92,37 @@ public class FlightRecorderConnection {
      */
     public static FlightRecorderConnection connect(MBeanServerConnection mBeanServerConnection)
             throws IOException, InstanceNotFoundException, JfrStreamingException {
+        return connect(mBeanServerConnection, USE_DIRECT_CALLS);
+    }
+
+    /**
+     * Create a connection to the {@code FlightRecorder} via JMX, as {@link #connect(MBeanServerConnection)} does,
+     * but choosing whether to call the {@code FlightRecorderMXBean} of this JVM directly regardless of the
+     * {@code jfr.connection.direct} system property.
+     * @param mBeanServerConnection The {@code MBeanServerConnection} to the JVM.
+     * @param directCalls Whether to call the {@code FlightRecorderMXBean} directly if {@code mBeanServerConnection}
+     *                    is the platform MBean server of this JVM.
+     * @return A {@code FlightRecorderConnection}.
+     * @throws IOException               A communication problem occurred when talking to the MBean server.
+     * @throws InstanceNotFoundException The FlightRecorder MBean is not registered on the target JVM.
+     * @throws JfrStreamingException     Wraps a {@code javax.management.MalformedObjectNameException}
+     *                                   and indicates a bug in this class.
+     */
+    /* package scope */ static FlightRecorderConnection connect(MBeanServerConnection mBeanServerConnection, boolean directCalls)
+            throws IOException, InstanceNotFoundException, JfrStreamingException {
         Objects.requireNonNull(mBeanServerConnection);
         try {
             ObjectName objectName = new ObjectName(JFR_OBJECT_NAME);
             ObjectInstance objectInstance = mBeanServerConnection.getObjectInstance(objectName);
+            if (directCalls
+                    && mBeanServerConnection instanceof MBeanServer
+                    && mBeanServerConnection == ManagementFactory.getPlatformMBeanServer()) {
+                FlightRecorderConnection local =
+                        LocalFlightRecorderConnection.create((MBeanServer) mBeanServerConnection, objectInstance.getObjectName());
+                if (local != null) {
+                    return local;
+                }
+            }
             return new FlightRecorderConnection(mBeanServerConnection, objectInstance.getObjectName());
         } catch (MalformedObjectNameException e) {
             // Not expected to happen. This exception comes from the ObjectName constructor. If
@@ -86,6 +148,13 @@ public class FlightRecorderConnection {
     /**
      * Start a recording. This method creates a new recording, sets the configuration, and then starts the recording.
      * This method is called from the {@link Recording#start()} method.
+     * <p>
+     * Where the request can be expressed as a {@code jcmd JFR.start} command, that is, where the configuration
+     * is a {@link RecordingConfiguration.PredefinedConfiguration}, the recording is started with a single call to
+     * the {@code jfrStart} operation of the {@code com.sun.management:type=DiagnosticCommand} MBean. Otherwise,
+     * or if the diagnostic command is not available or does not accept the request, the recording is started
+     * through the {@code FlightRecorderMXBean} and the configuration and options are set concurrently. Setting
+     * the system property {@code jfr.start.dcmd} to {@code false} disables the use of the diagnostic command.
      * @param recordingOptions The {@code RecordingOptions} which was passed to
      *                         the {@link #newRecording(RecordingOptions, RecordingConfiguration)} method. {@code null} is allowed.
      * @param recordingConfiguration The {@code RecordingConfiguration} which was passed to
@@ -101,18 +170,22 @@ public class FlightRecorderConnection {
     public long startRecording(RecordingOptions recordingOptions, RecordingConfiguration recordingConfiguration)
             throws IOException, JfrStreamingException {
 
+        if (useDiagnosticCommand) {
+            final String[] arguments = JfrStartCommand.formArguments(recordingOptions, recordingConfiguration);
+            if (arguments != null) {
+                final long id = startRecordingWithDiagnosticCommand(arguments);
+                if (id != -1L) {
+                    return id;
+                }
+            }
+        }
+
         try {
             Object[] args = new Object[]{};
             String[] argTypes = new String[]{};
             final long id = (long) mBeanServerConnection.invoke(objectName, "newRecording", args, argTypes);
 
-            if (recordingConfiguration != null) {
-                setConfiguration(recordingConfiguration, id);
-            }
-
-            if (recordingOptions != null) {
-                setOptions(recordingOptions, id);
-            }
+            setConfigurationAndOptions(recordingConfiguration, recordingOptions, id);
 
             args = new Object[]{id};
             argTypes = new String[]{long.class.getName()};
@@ -125,10 +198,126 @@ public class FlightRecorderConnection {
         }
     }
 
+    /**
+     * Choose whether {@link #startRecording(RecordingOptions, RecordingConfiguration)} tries the {@code jfrStart}
+     * diagnostic command first. This overrides the system property {@code jfr.start.dcmd} for this connection only.
+     * @param useDiagnosticCommand {@code true} to try {@code jfrStart} first, {@code false} to only use the
+     * {@code FlightRecorderMXBean}.
+     */
+    /* package scope */ void setUseDiagnosticCommand(boolean useDiagnosticCommand) {
+        this.useDiagnosticCommand = useDiagnosticCommand;
+    }
+
+    // Start a recording with a single jfrStart call. Returns -1 if the recording was not started,
+    // in which case the caller falls back to the FlightRecorderMXBean.
+    private long startRecordingWithDiagnosticCommand(String[] arguments) throws IOException, JfrStreamingException {
+        final Object result;
+        try {
+            ObjectName diagnosticCommand = new ObjectName(JfrStartCommand.DIAGNOSTIC_COMMAND_OBJECT_NAME);
+            result = mBeanServerConnection.invoke(
+                    diagnosticCommand, JfrStartCommand.OPERATION, new Object[]{arguments}, JfrStartCommand.SIGNATURE);
+        } catch (InstanceNotFoundException | ReflectionException e) {
+            // The target JVM does not have the DiagnosticCommand MBean, or it does not have jfrStart.
+            // Don't pay for the round-trip again.
+            useDiagnosticCommand = false;
+            return -1L;
+        } catch (MBeanException e) {
+            // The diagnostic command did not accept the arguments. No recording was started.
+            return -1L;
+        } catch (MalformedObjectNameException e) {
+            // Not expected to happen. DIAGNOSTIC_COMMAND_OBJECT_NAME is a constant.
+            useDiagnosticCommand = false;
+            return -1L;
+        }
+        final long id = JfrStartCommand.parseRecordingId(result);
+        return id != -1L ? id : findStartedRecording(arguments);
+    }
+
+    // jfrStart reports a rejected request in its result rather than by an exception, so a result that does
+    // not report a started recording usually means nothing was started. But a JVM may word the report of a
+    // started recording differently, and falling back would then leave that recording behind. The recording
+    // jfrStart started is the newest in the JVM, is running or delayed, and has the name it was given, or
+    // its id if it was given none. Returns -1 if there is no such recording.
+    private long findStartedRecording(String[] arguments) throws IOException, JfrStreamingException {
+        CompositeData newest = null;
+        for (CompositeData recording : getRecordings()) {
+            if (recording != null && (newest == null || (Long) recording.get("id") > (Long) newest.get("id"))) {
+                newest = recording;
+            }
+        }
+        if (newest == null) {
+            return -1L;
+        }
+        final long id = (Long) newest.get("id");
+        final String name = JfrStartCommand.getName(arguments);
+        final Object state = newest.get("state");
+        if ((name != null ? name : Long.toString(id)).equals(newest.get("name"))
+                && ("RUNNING".equals(state) || "DELAYED".equals(state))
+                && !recordingTracker.getTracked().contains(id)) {
+            return id;
+        }
+        return -1L;
+    }
+
+    // The configuration and the options are independent of each other, so when there are both,
+    // the options are set on another thread while this thread sets the configuration. This saves
+    // a round-trip to the MBean server.
+    private void setConfigurationAndOptions(RecordingConfiguration recordingConfiguration, RecordingOptions recordingOptions, long id)
+            throws OpenDataException, InstanceNotFoundException, MBeanException, ReflectionException, IOException {
+
+        if (recordingConfiguration == null || recordingOptions == null || recordingOptions.getRecordingOptions().isEmpty()) {
+            if (recordingConfiguration != null) {
+                setConfiguration(recordingConfiguration, id);
+            }
+            if (recordingOptions != null) {
+                setOptions(recordingOptions, id);
+            }
+            return;
+        }
+
+        final Future<Void> options = JfrExecutors.getExecutor().submit(() -> {
+            setOptions(recordingOptions, id);
+            return null;
+        });
+
+        try {
+            setConfiguration(recordingConfiguration, id);
+        } catch (OpenDataException | InstanceNotFoundException | MBeanException | ReflectionException | IOException e) {
+            options.cancel(true);
+            throw e;
+        }
+
+        try {
+            options.get();
+        } catch (InterruptedException e) {
+            options.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while setting recording options");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof OpenDataException) {
+                throw (OpenDataException) cause;
+            } else if (cause instanceof InstanceNotFoundException) {
+                throw (InstanceNotFoundException) cause;
+            } else if (cause instanceof MBeanException) {
+                throw (MBeanException) cause;
+            } else if (cause instanceof ReflectionException) {
+                throw (ReflectionException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     private void setOptions(RecordingOptions recordingOptions, long id) throws OpenDataException, InstanceNotFoundException, MBeanException, ReflectionException, IOException {
         Map<String, String> options = recordingOptions.getRecordingOptions();
         if (options != null && !options.isEmpty()) {
-            TabularData recordingOptionsParam = OpenDataUtils.makeOpenData(options);
+            TabularData recordingOptionsParam = recordingOptions.getOpenData();
             Object[] args = new Object[]{id, recordingOptionsParam};
             String[]  argTypes = new String[]{long.class.getName(), TabularData.class.getName()};
             mBeanServerConnection.invoke(objectName, "setRecordingOptions", args, argTypes);
@@ -223,10 +412,7 @@ public class FlightRecorderConnection {
      */
     public InputStream getStream(long id, Instant startTime, Instant endTime, long blockSize)
             throws IOException, JfrStreamingException {
-        Map<String,String> options = new HashMap<>();
-        if (startTime != null) options.put("startTime", startTime.toString());
-        if (endTime != null)   options.put("endTime",   endTime.toString());
-        if (blockSize > 0)     options.put("blockSize", Long.toString(blockSize));
+        Map<String,String> options = streamOptions(startTime, endTime, blockSize);
 
         try {
             TabularData streamOptions = OpenDataUtils.makeOpenData(options);
@@ -239,6 +425,340 @@ public class FlightRecorderConnection {
         }
     }
 
+    // The options for FlightRecorderMXBean#openStream.
+    /* package scope */ static Map<String,String> streamOptions(Instant startTime, Instant endTime, long blockSize) {
+        Map<String,String> options = new HashMap<>();
+        if (startTime != null) options.put("startTime", startTime.toString());
+        if (endTime != null)   options.put("endTime",   endTime.toString());
+        if (blockSize > 0)     options.put("blockSize", Long.toString(blockSize));
+        return options;
+    }
+
+    /**
+     * Get the Java Flight Recording as an {@code java.io.InputStream} that reads ahead of the caller.
+     * This method is called from the {@link Recording#getStream(Instant, Instant, long, int)} method.
+     *
+     * The stream returned by {@link #getStream(long, Instant, Instant, long)} calls
+     * {@code FlightRecorderMXBean#readStream(long)} only when the caller has consumed the previous block,
+     * which leaves the connection idle while the caller processes data. The stream returned by this method
+     * calls {@code readStream} on a background thread and keeps up to {@code prefetchDepth} blocks queued
+     * for the caller. The memory used by the stream is bounded by roughly
+     * {@code (prefetchDepth + 2) * blockSize} bytes.
+     *
+     * @param id The id of the recording.
+     * @param startTime The point in time to start the recording stream, possibly {@code null}.
+     * @param endTime The point in time to end the recording stream, possibly {@code null}.
+     * @param blockSize The number of bytes to read at a time.
+     * @param prefetchDepth The maximum number of blocks to read ahead of the caller.
+     *                      If {@code prefetchDepth} is zero, the stream does not read ahead.
+     * @return A {@code InputStream} of the Java Flight Recording data.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps an {@code javax.management.InstanceNotFoundException},
+     * a {@code javax.management.MBeanException} or a {@code javax.management.ReflectionException}
+     * and indicates an issue with the FlightRecorderMXBean in the JVM.
+     * The cause may also be a {@code javax.management.openmbean.OpenDataException}
+     * which indicates a bug in the code of this class.
+     * @throws IllegalArgumentException If {@code prefetchDepth} is negative.
+     */
+    public InputStream getStream(long id, Instant startTime, Instant endTime, long blockSize, int prefetchDepth)
+            throws IOException, JfrStreamingException {
+        if (prefetchDepth < 0) {
+            throw new IllegalArgumentException("prefetchDepth: " + prefetchDepth + " < 0");
+        }
+        InputStream stream = getStream(id, startTime, endTime, blockSize);
+        if (prefetchDepth > 0 && stream instanceof JfrStream) {
+            return new PrefetchingJfrStream((JfrStream) stream, prefetchDepth);
+        }
+        return stream;
+    }
+
+    /**
+     * Get the Java Flight Recording as an {@code java.io.InputStream}, using a {@code blockSize}
+     * chosen by the given {@link AdaptiveBlockSize}.
+     * This method is called from the {@link Recording#getStream(Instant, Instant, AdaptiveBlockSize)} method.
+     *
+     * The time taken by each call to {@code FlightRecorderMXBean#readStream(long)} is reported to
+     * {@code adaptiveBlockSize}, which uses it to choose the {@code blockSize} of the next stream.
+     *
+     * @param id The id of the recording.
+     * @param startTime The point in time to start the recording stream, possibly {@code null}.
+     * @param endTime The point in time to end the recording stream, possibly {@code null}.
+     * @param adaptiveBlockSize Chooses the number of bytes to read at a time, not {@code null}.
+     * @return A {@code InputStream} of the Java Flight Recording data.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps an {@code javax.management.InstanceNotFoundException},
+     * a {@code javax.management.MBeanException} or a {@code javax.management.ReflectionException}
+     * and indicates an issue with the FlightRecorderMXBean in the JVM.
+     * The cause may also be a {@code javax.management.openmbean.OpenDataException}
+     * which indicates a bug in the code of this class.
+     * @throws NullPointerException If {@code adaptiveBlockSize} is {@code null}.
+     */
+    public InputStream getStream(long id, Instant startTime, Instant endTime, AdaptiveBlockSize adaptiveBlockSize)
+            throws IOException, JfrStreamingException {
+        Objects.requireNonNull(adaptiveBlockSize, "adaptiveBlockSize may not be null");
+        InputStream stream = getStream(id, startTime, endTime, adaptiveBlockSize.nextBlockSize());
+        if (stream instanceof JfrStream) {
+            ((JfrStream) stream).measureWith(adaptiveBlockSize);
+        }
+        return stream;
+    }
+
+    /**
+     * Get the Java Flight Recording as an {@code java.io.InputStream} that reads the chunk files of the recording
+     * from the disk repository of the JVM, when the JVM runs on the same host as the caller.
+     * This method is called from the {@link Recording#getRepositoryStream(Instant, Instant)} method.
+     *
+     * A recording with {@code disk=true} writes its data to chunk files in the repository of the JVM, which
+     * {@link #getStream(long, Instant, Instant, long)} copies through the MBean server one block at a time.
+     * If this process can read the repository, the completed chunk files of the recording are instead mapped
+     * into memory with {@code FileChannel#map} and read without calls to the MBean server. The chunk that the
+     * JVM is writing is not read, so the stream of a running recording holds the chunks completed so far.
+     * The repository is found from the {@code jdk.jfr.repository} system property, which the JVM only sets on
+     * JDK 14 and later.
+     * If the repository cannot be read, the recording was not recorded to disk, or a chunk of the interval is
+     * missing, this method returns the stream of {@code getStream(id, startTime, endTime, JfrStream.getDefaultBlockSize())}.
+     * The MBean server only streams a stopped recording, so for a running recording that is the stream of a
+     * stopped clone, which is closed when the stream is closed.
+     *
+     * @param id The id of the recording.
+     * @param startTime The point in time to start the recording stream, possibly {@code null}.
+     * @param endTime The point in time to end the recording stream, possibly {@code null}.
+     * @return A {@code InputStream} of the Java Flight Recording data.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps an {@code javax.management.InstanceNotFoundException},
+     * a {@code javax.management.MBeanException} or a {@code javax.management.ReflectionException}
+     * and indicates an issue with the FlightRecorderMXBean in the JVM.
+     */
+    public InputStream getRepositoryStream(long id, Instant startTime, Instant endTime)
+            throws IOException, JfrStreamingException {
+        InputStream stream = localRepository.openStream(id, startTime, endTime);
+        if (stream != null) {
+            return stream;
+        }
+        CompositeData info = getRecordingInfo(id);
+        if (info == null || !"RUNNING".equals(info.get("state"))) {
+            return getStream(id, startTime, endTime, JfrStream.getDefaultBlockSize());
+        }
+        long cloneId = cloneRecording(id, true);
+        try {
+            return new CloneStream(getStream(cloneId, startTime, endTime, JfrStream.getDefaultBlockSize()), cloneId);
+        } catch (IOException | JfrStreamingException | RuntimeException e) {
+            try {
+                closeRecording(cloneId);
+            } catch (IOException | JfrStreamingException | RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Get the Java Flight Recording as an {@code java.io.InputStream} that carries on over a new connection
+     * if the connection to the MBean server fails.
+     * This method is called from the {@link Recording#getResumableStream(Instant, Instant, Reconnector, int)} method.
+     *
+     * When a read fails with an {@code IOException}, the stream gets a new {@code MBeanServerConnection} from
+     * {@code reconnector}, opens the recording again from the end of the last chunk that was read completely, and
+     * skips the bytes of the current chunk that were already read. The caller sees the data continue without
+     * a gap or a duplicated byte. After {@code maxRetries} consecutive failures the read fails with the last exception.
+     *
+     * @param id The id of the recording.
+     * @param startTime The point in time to start the recording stream, possibly {@code null}.
+     * @param endTime The point in time to end the recording stream, possibly {@code null}.
+     * @param blockSize The number of bytes to read at a time.
+     * @param reconnector Supplies a new connection to the same JVM, not {@code null}.
+     * @param maxRetries The number of times to try a new connection before giving up, not negative.
+     * @return A {@code InputStream} of the Java Flight Recording data.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps an {@code javax.management.InstanceNotFoundException},
+     * a {@code javax.management.MBeanException} or a {@code javax.management.ReflectionException}
+     * and indicates an issue with the FlightRecorderMXBean in the JVM.
+     * The cause may also be a {@code javax.management.openmbean.OpenDataException}
+     * which indicates a bug in the code of this class.
+     * @throws IllegalArgumentException If {@code maxRetries} is negative.
+     * @throws NullPointerException If {@code reconnector} is {@code null}.
+     */
+    public InputStream getResumableStream(long id, Instant startTime, Instant endTime, long blockSize,
+                                          Reconnector reconnector, int maxRetries)
+            throws IOException, JfrStreamingException {
+        Objects.requireNonNull(reconnector, "reconnector may not be null");
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries: " + maxRetries + " < 0");
+        }
+        return new ResumableStream(this, id, startTime, endTime, blockSize, reconnector, maxRetries);
+    }
+
+    /**
+     * Get the information the {@code FlightRecorderMXBean} holds about a recording. This reads the
+     * {@code Recordings} attribute, which describes every recording of the JVM, and picks out the one
+     * with the given id. The {@code CompositeData} has the items of {@code jdk.management.jfr.RecordingInfo},
+     * such as {@code state}, {@code startTime} and {@code stopTime}.
+     * @param id The id of the recording.
+     * @return The information about the recording, or {@code null} if there is no recording with the given id.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     */
+    /* package scope */ CompositeData getRecordingInfo(long id) throws IOException, JfrStreamingException {
+        for (CompositeData recording : getRecordings()) {
+            if (recording != null && Long.valueOf(id).equals(recording.get("id"))) {
+                return recording;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the information the {@code FlightRecorderMXBean} holds about every recording of the JVM, with one
+     * read of the {@code Recordings} attribute.
+     * @return The {@code jdk.management.jfr.RecordingInfo} of each recording, never {@code null}.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     */
+    /* package scope */ CompositeData[] getRecordings() throws IOException, JfrStreamingException {
+        try {
+            CompositeData[] recordings = (CompositeData[]) mBeanServerConnection.getAttribute(objectName, "Recordings");
+            return recordings != null ? recordings : new CompositeData[0];
+        } catch (AttributeNotFoundException|InstanceNotFoundException|MBeanException|ReflectionException e) {
+            throw new JfrStreamingException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Bring the {@link Recording#getState() state} of every {@link Recording} of this connection up to date
+     * with the {@code FlightRecorderMXBean}, with one call to the MBean server however many recordings there
+     * are. A recording that the JVM stopped because it reached its {@code duration} becomes
+     * {@link Recording.State#STOPPED}, and a recording that was closed in the JVM, or that the JVM no longer
+     * has, becomes {@link Recording.State#CLOSED}. A {@code Recording} that has not been started, or that
+     * has been closed, is not changed.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     * @see #setRecordingStateSyncInterval(Duration)
+     */
+    public void syncRecordingStates() throws IOException, JfrStreamingException {
+        recordingTracker.syncStates();
+    }
+
+    /**
+     * Call {@link #syncRecordingStates()} every {@code interval} on a background thread, for as long as
+     * this {@code FlightRecorderConnection} is in use. Replaces the interval set by an earlier call.
+     * A sync that fails, for example because the connection to the MBean server is down, is skipped.
+     * @param interval The time between syncs, or {@code null} or zero to stop syncing.
+     * @throws IllegalArgumentException If {@code interval} is negative.
+     */
+    public void setRecordingStateSyncInterval(Duration interval) {
+        if (interval != null && interval.isNegative()) {
+            throw new IllegalArgumentException("interval: " + interval + " is negative");
+        }
+        recordingTracker.syncEvery(interval == null || interval.isZero() ? 0L : interval.toNanos());
+    }
+
+    /**
+     * Close the recordings of the JVM whose name starts with {@code namePrefix} and that were not created
+     * through this {@code FlightRecorderConnection}. A recording that is left behind, because the process that
+     * created it went away or lost its connection before closing it, keeps its memory and repository files in
+     * the JVM until it is closed. Giving the recordings of an application a common name prefix, and calling this
+     * method after connecting, closes the recordings left behind by earlier connections of the application.
+     * Recordings whose {@link Recording} objects are still in use through this {@code FlightRecorderConnection}
+     * are not closed. A recording that fails to close does not stop the others from being closed; it is
+     * reported in {@link ClosedRecordings#getFailed()}.
+     * @param namePrefix The prefix of the names of the recordings to close, not {@code null} or empty.
+     * @return The ids of the recordings that were closed, and of those that could not be closed.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     * @throws IllegalArgumentException If {@code namePrefix} is empty.
+     * @throws NullPointerException If {@code namePrefix} is {@code null}.
+     */
+    public ClosedRecordings closeOrphanedRecordings(String namePrefix) throws IOException, JfrStreamingException {
+        Objects.requireNonNull(namePrefix, "namePrefix may not be null");
+        if (namePrefix.isEmpty()) {
+            throw new IllegalArgumentException("namePrefix may not be empty");
+        }
+        final CompositeData[] recordings = getRecordings();
+        final List<Long> closed = new ArrayList<>();
+        final Map<Long, Exception> failed = new LinkedHashMap<>();
+        final Set<Long> inUse = recordingTracker.getTracked();
+        for (CompositeData recording : recordings) {
+            if (recording == null) continue;
+            final long id = (Long) recording.get("id");
+            final String name = (String) recording.get("name");
+            if (name != null && name.startsWith(namePrefix) && !inUse.contains(id)) {
+                try {
+                    closeRecording(id);
+                    closed.add(id);
+                } catch (IOException | JfrStreamingException | RuntimeException e) {
+                    failed.put(id, e);
+                }
+            }
+        }
+        if (!failed.isEmpty()) {
+            // A recording that is gone was closed by someone else after it was listed, which is not a failure.
+            try {
+                final Set<Long> remaining = new HashSet<>();
+                for (CompositeData recording : getRecordings()) {
+                    if (recording != null) remaining.add((Long) recording.get("id"));
+                }
+                failed.keySet().retainAll(remaining);
+            } catch (IOException | JfrStreamingException e) {
+                // Report every failure as it is, rather than lose the ids that were closed.
+            }
+        }
+        return new ClosedRecordings(closed, failed);
+    }
+
+    /**
+     * Add a listener for the changes in state of the recordings of the JVM. The first listener registers one
+     * {@code NotificationListener} with the {@code FlightRecorderMXBean}. From then on, the state of each
+     * {@link Recording} of this connection is also kept up to date as the notifications arrive, without polling
+     * the MBean server. Over a remote connection, notifications can be lost if the client does not keep up. A
+     * periodic {@link #setRecordingStateSyncInterval(Duration) sync} with a long interval covers for that.
+     * @param listener The listener to add, not {@code null}.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     * @throws NullPointerException If {@code listener} is {@code null}.
+     * @see RecordingListener
+     */
+    public void addRecordingListener(RecordingListener listener) throws IOException, JfrStreamingException {
+        Objects.requireNonNull(listener, "listener may not be null");
+        recordingNotifications.addListener(listener);
+    }
+
+    /**
+     * Remove a listener that was added with {@link #addRecordingListener(RecordingListener)}. When the last
+     * listener is removed, the {@code NotificationListener} is unregistered from the {@code FlightRecorderMXBean}.
+     * @param listener The listener to remove.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     */
+    public void removeRecordingListener(RecordingListener listener) throws IOException, JfrStreamingException {
+        recordingNotifications.removeListener(listener);
+    }
+
+    /**
+     * Get the tracker for the recordings that {@code Recording} objects of this connection have created.
+     * @return The {@code RecordingTracker} of this connection.
+     */
+    /* package scope */ RecordingTracker getRecordingTracker() {
+        return recordingTracker;
+    }
+
+    /**
+     * Tell whether an exception from {@link #getStream(long, Instant, Instant, long)} means that the recording
+     * has no data in the requested interval. The {@code FlightRecorderMXBean} reports this by throwing an
+     * {@code IOException} from {@code openStream}, which reaches the caller wrapped in an {@code MBeanException}.
+     * {@code openStream} throws an {@code IOException} for other reasons too, such as a recording that is not
+     * stopped or a failure to read the repository, so the message is checked as well.
+     * @param e The exception thrown by {@code getStream}.
+     * @return {@code true} if the exception means there is no data in the interval.
+     */
+    /* package scope */ static boolean isNoDataAvailable(JfrStreamingException e) {
+        Throwable cause = e.getCause();
+        if (!(cause instanceof MBeanException) || !(cause.getCause() instanceof IOException)) {
+            return false;
+        }
+        String message = cause.getCause().getMessage();
+        return message != null && message.startsWith(NO_DATA_AVAILABLE);
+    }
+
     /**
      * Close the recording. This method is called from the {@link Recording#close()} method.
      * @param id The id of the recording.
@@ -273,4 +793,43 @@ public class FlightRecorderConnection {
     protected final MBeanServerConnection mBeanServerConnection;
     /** The ObjectName of the MBean we are connecting to. */
     protected final ObjectName objectName;
+
+    // The recordings created by Recording objects of this connection that have not been closed yet.
+    private final RecordingTracker recordingTracker = new RecordingTracker(this);
+
+    // Reads recordings from the disk repository of a JVM on the same host.
+    private final LocalRepository localRepository = new LocalRepository(this);
+
+    // Registered with the FlightRecorderMXBean while there are RecordingListeners.
+    private final RecordingNotifications recordingNotifications = new RecordingNotifications(this, recordingTracker);
+
+    // Whether to try jfrStart first. Cleared if the target JVM turns out not to support it.
+    private volatile boolean useDiagnosticCommand = Boolean.parseBoolean(System.getProperty("jfr.start.dcmd", "true"));
+
+    // The stream of a stopped clone of a running recording, which closes the clone when it is closed.
+    private final class CloneStream extends FilterInputStream {
+
+        private final long cloneId;
+        private boolean closed = false;
+
+        CloneStream(InputStream in, long cloneId) {
+            super(in);
+            this.cloneId = cloneId;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                try {
+                    closeRecording(cloneId);
+                } catch (JfrStreamingException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+            }
+        }
+    }
 }
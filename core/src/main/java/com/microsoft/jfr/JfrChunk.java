@@ -0,0 +1,140 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.InputStream;
+
+/**
+ * One chunk of a Java Flight Recording, as returned by {@link JfrChunkReader#next()}. A chunk is
+ * self-contained: it holds the metadata and constant pools needed to read its events, so the bytes of
+ * a chunk are by themselves a valid recording file. The header fields are available as soon as the
+ * chunk arrives. The bytes of the chunk are read through {@link #getInputStream()}, which is only
+ * readable until the {@code JfrChunkReader} moves on to the next chunk.
+ */
+public final class JfrChunk {
+
+    private final ChunkHeader header;
+    private final long offset;
+    private final InputStream inputStream;
+
+    /* package scope */ JfrChunk(ChunkHeader header, long offset, InputStream inputStream) {
+        this.header = header;
+        this.offset = offset;
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Get the major version of the file format of the chunk.
+     * @return The major version.
+     */
+    public int getMajorVersion() {
+        return header.getMajor();
+    }
+
+    /**
+     * Get the minor version of the file format of the chunk.
+     * @return The minor version.
+     */
+    public int getMinorVersion() {
+        return header.getMinor();
+    }
+
+    /**
+     * Get the size of the chunk, including the header.
+     * @return The size of the chunk in bytes.
+     */
+    public long getSize() {
+        return header.getChunkSize();
+    }
+
+    /**
+     * Get the position of the chunk in the stream it was read from.
+     * @return The number of bytes in the stream before this chunk.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the offset from the start of the chunk of the last constant pool event.
+     * @return The constant pool offset.
+     */
+    public long getConstantPoolOffset() {
+        return header.getConstantPoolOffset();
+    }
+
+    /**
+     * Get the offset from the start of the chunk of the metadata event.
+     * @return The metadata offset.
+     */
+    public long getMetadataOffset() {
+        return header.getMetadataOffset();
+    }
+
+    /**
+     * Get the start of the period covered by the events in the chunk.
+     * @return The chunk start, in nanoseconds since the epoch.
+     */
+    public long getStartNanos() {
+        return header.getStartNanos();
+    }
+
+    /**
+     * Get the length of the period covered by the events in the chunk.
+     * @return The chunk duration, in nanoseconds.
+     */
+    public long getDurationNanos() {
+        return header.getDurationNanos();
+    }
+
+    /**
+     * Get the end of the period covered by the events in the chunk.
+     * @return The chunk start plus the chunk duration, in nanoseconds since the epoch.
+     */
+    public long getEndNanos() {
+        return header.getEndNanos();
+    }
+
+    /**
+     * Get the start of the chunk in ticks, the unit of the timestamps of the events in the chunk.
+     * @return The chunk start, in ticks.
+     */
+    public long getStartTicks() {
+        return header.getStartTicks();
+    }
+
+    /**
+     * Get the number of ticks per second.
+     * @return The frequency of the tick counter.
+     */
+    public long getTicksPerSecond() {
+        return header.getTicksPerSecond();
+    }
+
+    /**
+     * Get the file state and feature flags of the chunk.
+     * @return The last four bytes of the chunk header.
+     */
+    public int getFeatures() {
+        return header.getFeatures();
+    }
+
+    /**
+     * Get the bytes of the chunk, starting with the header. The stream ends at the end of the chunk.
+     * Closing the stream skips the rest of the chunk. Once {@link JfrChunkReader#next()} has been called
+     * again, reading the stream throws an {@code IOException}.
+     * @return An {@code InputStream} of the bytes of the chunk.
+     */
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /* package scope */ ChunkHeader getHeader() {
+        return header;
+    }
+
+    @Override
+    public String toString() {
+        return "JfrChunk[offset=" + offset + ", " + header + "]";
+    }
+}
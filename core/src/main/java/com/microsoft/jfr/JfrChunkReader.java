@@ -0,0 +1,177 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * Splits a stream of Java Flight Recording data into its chunks. Each call to {@link #next()} reads the
+ * header of the next chunk and returns a {@link JfrChunk}, whose bytes are then read from the underlying
+ * stream as the caller reads them. Only one chunk header is held in memory at a time, so a recording of
+ * any size can be split as it arrives from {@link Recording#getStream(java.time.Instant, java.time.Instant)}.
+ * A caller that needs only some chunks, for example those in a time range, skips the others without
+ * reading their bytes.
+ * <pre>{@code
+ * try (JfrChunkReader reader = new JfrChunkReader(recording.getStream(null, null))) {
+ *     JfrChunk chunk;
+ *     while ((chunk = reader.next()) != null) {
+ *         upload(chunk.getStartNanos(), chunk.getInputStream());
+ *     }
+ * }
+ * }</pre>
+ * A {@code JfrChunkReader} is not thread-safe.
+ */
+public class JfrChunkReader implements Closeable {
+
+    private final InputStream in;
+    private final byte[] headerBytes = new byte[ChunkHeader.SIZE];
+    // The stream of the current chunk, or null before the first chunk.
+    private ChunkInputStream current = null;
+    // The position in the underlying stream of the end of the current chunk.
+    private long offset = 0L;
+    private boolean closed = false;
+
+    /**
+     * Create a reader of the chunks in a stream of recording data.
+     * @param in The recording data, for example from {@link Recording#getStream(java.time.Instant, java.time.Instant)}.
+     * @throws NullPointerException If {@code in} is {@code null}.
+     */
+    public JfrChunkReader(InputStream in) {
+        this.in = Objects.requireNonNull(in, "in may not be null");
+    }
+
+    /**
+     * Read the header of the next chunk. The rest of the current chunk that has not been read is skipped.
+     * @return The next chunk, or {@code null} at the end of the data.
+     * @throws IOException An error occurred reading the underlying stream, or the data is not a
+     * Java Flight Recording, or the last chunk is truncated.
+     */
+    public JfrChunk next() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (current != null) {
+            current.skipRest();
+            current.detach();
+            current = null;
+        }
+        final ChunkHeader header = ChunkHeader.read(in, headerBytes);
+        if (header == null) {
+            return null;
+        }
+        current = new ChunkInputStream(headerBytes.clone(), header.getChunkSize() - ChunkHeader.SIZE);
+        final JfrChunk chunk = new JfrChunk(header, offset, current);
+        offset += header.getChunkSize();
+        return chunk;
+    }
+
+    /**
+     * Close the underlying stream.
+     * @throws IOException An error occurred closing the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (current != null) {
+            current.detach();
+            current = null;
+        }
+        in.close();
+    }
+
+    // The bytes of one chunk: its header, then the rest of the chunk read from the underlying stream.
+    private final class ChunkInputStream extends InputStream {
+        private final byte[] header;
+        private int headerIndex = 0;
+        private long remaining;
+        private boolean attached = true;
+
+        ChunkInputStream(byte[] header, long bodySize) {
+            this.header = header;
+            this.remaining = bodySize;
+        }
+
+        void detach() {
+            attached = false;
+        }
+
+        void skipRest() throws IOException {
+            headerIndex = header.length;
+            ChunkHeader.skipBody(in, remaining);
+            remaining = 0;
+        }
+
+        private void ensureAttached() throws IOException {
+            if (!attached) {
+                throw new IOException("The reader has moved past this chunk");
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + b.length);
+            }
+            ensureAttached();
+            if (len == 0) return 0;
+            if (headerIndex < header.length) {
+                int n = Math.min(len, header.length - headerIndex);
+                System.arraycopy(header, headerIndex, b, off, n);
+                headerIndex += n;
+                return n;
+            }
+            if (remaining == 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new EOFException("Truncated chunk: " + remaining + " bytes missing");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            ensureAttached();
+            if (n <= 0) return 0L;
+            long skipped = 0L;
+            if (headerIndex < header.length) {
+                int fromHeader = (int) Math.min(n, header.length - headerIndex);
+                headerIndex += fromHeader;
+                skipped += fromHeader;
+            }
+            if (skipped < n && remaining > 0) {
+                long fromBody = in.skip(Math.min(n - skipped, remaining));
+                if (fromBody > 0) {
+                    remaining -= fromBody;
+                    skipped += fromBody;
+                }
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (!attached) return 0;
+            if (headerIndex < header.length) return header.length - headerIndex;
+            return (int) Math.min(remaining, in.available());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (attached) {
+                skipRest();
+            }
+        }
+    }
+}
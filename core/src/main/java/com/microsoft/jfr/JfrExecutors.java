@@ -0,0 +1,60 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the executor used for the background work of this package, such as reading ahead
+ * on a stream or downloading the slices of a recording in parallel. The threads are daemon
+ * threads so that abandoned work does not keep the JVM alive.
+ * <p>
+ * On JDK 21 and later, the executor runs each task on a virtual thread, since the tasks spend most
+ * of their time blocked on the MBean server. See {@link JfrThreads}.
+ */
+final class JfrExecutors {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static final ExecutorService EXECUTOR = JfrThreads.newExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jfr-streaming-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ScheduledThreadPoolExecutor SCHEDULER = newScheduler();
+
+    private JfrExecutors() {}
+
+    private static ScheduledThreadPoolExecutor newScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "jfr-streaming-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Most deadlines are cancelled because the call finished in time. Don't let them pile up.
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Get the executor for background work. Tasks run on this executor spend most of their time
+     * waiting on the MBean server, so the executor creates threads as needed rather than bounding them.
+     * On JDK 21 and later, these are virtual threads unless {@code jfr.executor.virtual} is {@code false}.
+     * @return The shared executor.
+     */
+    static ExecutorService getExecutor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * Get the scheduler for deadlines. Tasks run on the scheduler must be short, since there is one thread.
+     * @return The shared scheduler.
+     */
+    static ScheduledExecutorService getScheduler() {
+        return SCHEDULER;
+    }
+}
@@ -0,0 +1,163 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Forms the arguments of, and parses the result of, the {@code jfrStart} operation of the
+ * {@code com.sun.management:type=DiagnosticCommand} MBean. This is the operation behind
+ * {@code jcmd <pid> JFR.start}. It creates, configures and starts a recording in a single call,
+ * where the {@code FlightRecorderMXBean} needs a call each for {@code newRecording},
+ * the configuration, the options and {@code startRecording}.
+ * <p>
+ * The diagnostic command cannot express every request. It only knows predefined configurations,
+ * it joins its arguments with spaces and splits them again, and it rejects some values that
+ * the {@code FlightRecorderMXBean} accepts, such as a numeric name or a duration of less than a
+ * second. Rejected arguments are reported in the result rather than by an exception, so the caller
+ * has to check the result with {@link #parseRecordingId(Object)}.
+ */
+final class JfrStartCommand {
+
+    /** The name of the DiagnosticCommand MBean. */
+    static final String DIAGNOSTIC_COMMAND_OBJECT_NAME = "com.sun.management:type=DiagnosticCommand";
+
+    /** The name of the operation. */
+    static final String OPERATION = "jfrStart";
+
+    /** The signature of the operation. All diagnostic commands take a String[]. */
+    static final String[] SIGNATURE = new String[]{String[].class.getName()};
+
+    // jfrStart returns "Started recording 2." and some more stuff, possibly preceded by warnings.
+    private static final Pattern JFR_START_PATTERN = Pattern.compile("Started recording (\\d+)\\.");
+
+    // Anything that would not survive the diagnostic command splitting its arguments on spaces.
+    private static final Pattern UNSAFE_VALUE_PATTERN = Pattern.compile("[\\s\"']");
+
+    // The FlightRecorderMXBean's value for "no limit" on maxAge, maxSize and duration.
+    private static final String NO_LIMIT = "0";
+
+    private static final Pattern NUMERIC_PATTERN = Pattern.compile("\\d+");
+
+    private JfrStartCommand() {
+    }
+
+    /**
+     * Form the arguments for {@code jfrStart}.
+     * @param recordingOptions The options for the recording, or {@code null} for defaults.
+     * @param recordingConfiguration The configuration for the recording.
+     * @return The arguments, or {@code null} if {@code jfrStart} cannot express the request.
+     */
+    static String[] formArguments(RecordingOptions recordingOptions, RecordingConfiguration recordingConfiguration) {
+
+        // A null configuration is a recording with no settings, which jfrStart does not have
+        // on every JDK. Map and jfc configurations cannot be passed by value.
+        if (!(recordingConfiguration instanceof RecordingConfiguration.PredefinedConfiguration)) {
+            return null;
+        }
+
+        List<String> arguments = new ArrayList<>();
+        if (!add(arguments, "settings", recordingConfiguration.toString())) {
+            return null;
+        }
+
+        // jfrStart defaults differ from those of the FlightRecorderMXBean. It records to disk, dumps on exit
+        // if there is a filename and, if neither maxage nor maxsize is given, limits the size to 250MB.
+        // So dumponexit and maxsize are always passed. RecordingOptions always holds disk, since it adds
+        // disk=false when disk was not set, so disk is passed with the other options.
+        final RecordingOptions options = recordingOptions != null
+                ? recordingOptions
+                : new RecordingOptions.Builder().build();
+
+        for (Map.Entry<String, String> option : options.getRecordingOptions().entrySet()) {
+            final String value = option.getValue();
+            final boolean added;
+            switch (option.getKey()) {
+                case "name":
+                    // jfrStart rejects a numeric name, which it could confuse with a recording id.
+                    added = !NUMERIC_PATTERN.matcher(value).matches() && add(arguments, "name", value);
+                    break;
+                case "maxAge":
+                    added = NO_LIMIT.equals(value) || add(arguments, "maxage", toDiagnosticCommandTime(value));
+                    break;
+                case "maxSize":
+                case "dumpOnExit":
+                    added = true; // always added below
+                    break;
+                case "destination":
+                    added = add(arguments, "filename", value);
+                    break;
+                case "disk":
+                    added = add(arguments, "disk", value);
+                    break;
+                case "duration":
+                    // jfrStart rejects a duration of "0", which is the FlightRecorderMXBean's "no limit".
+                    added = NO_LIMIT.equals(value) || add(arguments, "duration", toDiagnosticCommandTime(value));
+                    break;
+                default:
+                    added = false;
+                    break;
+            }
+            if (!added) {
+                return null;
+            }
+        }
+
+        if (!add(arguments, "maxsize", options.getMaxSize())
+                || !add(arguments, "dumponexit", options.getDumpOnExit())) {
+            return null;
+        }
+
+        return arguments.toArray(new String[0]);
+    }
+
+    /**
+     * Get the id of the recording from the result of {@code jfrStart}.
+     * @param result The result of the {@code jfrStart} operation.
+     * @return The recording id, or {@code -1} if the result does not report a started recording.
+     */
+    static long parseRecordingId(Object result) {
+        if (result instanceof String) {
+            Matcher matcher = JFR_START_PATTERN.matcher((String) result);
+            if (matcher.find()) {
+                try {
+                    return Long.parseLong(matcher.group(1));
+                } catch (NumberFormatException ignored) {
+                    // Not a recording id we can use.
+                }
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * Get the name of the recording from the arguments formed by {@link #formArguments(RecordingOptions, RecordingConfiguration)}.
+     * @param arguments The arguments for {@code jfrStart}.
+     * @return The name, or {@code null} if the arguments do not name the recording.
+     */
+    static String getName(String[] arguments) {
+        for (String argument : arguments) {
+            if (argument.startsWith("name=")) {
+                return argument.substring("name=".length());
+            }
+        }
+        return null;
+    }
+
+    // RecordingOptions formats time as "10 m". The diagnostic command wants "10m".
+    private static String toDiagnosticCommandTime(String value) {
+        return value.replace(" ", "");
+    }
+
+    private static boolean add(List<String> arguments, String key, String value) {
+        if (value == null || value.isEmpty() || UNSAFE_VALUE_PATTERN.matcher(value).find()) {
+            return false;
+        }
+        arguments.add(key + "=" + value);
+        return true;
+    }
+}
@@ -4,6 +4,9 @@ package com.microsoft.jfr;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanException;
 import javax.management.MBeanServerConnection;
@@ -12,6 +15,9 @@ import javax.management.ReflectionException;
 
 /**
  * A JFR data stream backed by {@code jdk.management.jfr.FlightRecorderMXBean#readStream(long)}.
+ * Each call to {@code readStream} returns a block of up to {@code blockSize} bytes. The bulk
+ * read methods of this class copy directly out of the current block, so a consumer that reads
+ * into a {@code byte[]} pays for one array copy per block rather than one method call per byte.
  */
 class JfrStream extends InputStream {
 
@@ -29,14 +35,18 @@ class JfrStream extends InputStream {
      */
     public static long getDefaultBlockSize() { return DEFAULT_BLOCKSIZE; }
 
+    // The block most recently returned by readStream, and the index of the next byte to read from it.
     private byte[] buffer;
     private int index = 0;
     private boolean EOF = false;
+    private boolean closed = false;
     // There is a recording id and an id you get from the recording for the stream.
     // streamId is the id for the stream.
-    private final long streamid;
-    private final MBeanServerConnection connection;
-    private final ObjectName flightRecorder;
+    /* package scope */ final long streamid;
+    /* package scope */ final MBeanServerConnection connection;
+    /* package scope */ final ObjectName flightRecorder;
+    // If not null, the latency of each readStream call is reported to this AdaptiveBlockSize.
+    private AdaptiveBlockSize adaptiveBlockSize;
 
     /* package scope */ JfrStream(MBeanServerConnection connection, ObjectName flightRecorder, long streamid) {
         this.streamid = streamid;
@@ -44,28 +54,153 @@ class JfrStream extends InputStream {
         this.flightRecorder = flightRecorder;
     }
 
+    /**
+     * Report the latency of each block read by this stream to the given {@code AdaptiveBlockSize}.
+     * @param adaptiveBlockSize The {@code AdaptiveBlockSize} that chose the block size of this stream.
+     */
+    /* package scope */ void measureWith(AdaptiveBlockSize adaptiveBlockSize) {
+        this.adaptiveBlockSize = adaptiveBlockSize;
+    }
+
+    /**
+     * Read the next block of data, measuring the time taken if an {@code AdaptiveBlockSize} is in use.
+     * @return The next block of data, or {@code null} if there is no more data.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     */
+    /* package scope */ final byte[] nextBlock() throws IOException {
+        if (adaptiveBlockSize == null) {
+            return readBlock();
+        }
+        long start = System.nanoTime();
+        byte[] block = readBlock();
+        adaptiveBlockSize.record(block != null ? block.length : 0, System.nanoTime() - start);
+        return block;
+    }
+
+    /**
+     * Read the next block of data from the FlightRecorderMXBean.
+     * @return The next block of data, or {@code null} if there is no more data.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     */
+    /* package scope */ byte[] readBlock() throws IOException {
+        Object[] params = new Object[] {streamid};
+        String[] signature = new String[] {long.class.getName()};
+        try {
+            return (byte[]) connection.invoke(flightRecorder, "readStream", params, signature);
+        } catch (InstanceNotFoundException | MBeanException | ReflectionException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    // Make sure there is unread data in buffer. Returns false if the end of the stream has been reached.
+    private boolean fill() throws IOException {
+        while (!EOF && (buffer == null || index >= buffer.length)) {
+            buffer = nextBlock();
+            index = 0;
+            EOF = (buffer == null);
+        }
+        return !EOF;
+    }
+
     @Override
     public int read() throws IOException {
+        if (!fill()) return -1;
+        return buffer[index++] & 0xFF;
+    }
 
-        if (!EOF && index == 0) {
-            Object[] params = new Object[] {streamid};
-            String[] signature = new String[] {long.class.getName()};
-            try {
-                buffer = (byte[]) connection.invoke(flightRecorder, "readStream", params, signature);
-            } catch (InstanceNotFoundException | MBeanException | ReflectionException e) {
-                throw new IOException(e.getMessage(), e);
-            }
+    /**
+     * Reads up to {@code len} bytes of data into an array of bytes. This method copies
+     * at most the bytes that remain in the current block, and only calls
+     * {@code readStream} when the current block has been consumed.
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + b.length);
         }
+        if (len == 0) return 0;
+        if (!fill()) return -1;
+        int n = Math.min(len, buffer.length - index);
+        System.arraycopy(buffer, index, b, off, n);
+        index += n;
+        return n;
+    }
 
-        if (EOF || (EOF = (buffer == null))) return -1;
+    /**
+     * Skips over up to {@code n} bytes of data. At most the bytes that remain
+     * in the current block are skipped.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || !fill()) return 0;
+        int skipped = (int) Math.min(n, buffer.length - index);
+        index += skipped;
+        return skipped;
+    }
 
-        int b = buffer[index] & 0xFF;
-        index = ++index % buffer.length;
-        return b;
+    /**
+     * Returns the number of bytes that remain in the current block. These bytes
+     * can be read without a call to the MBean server.
+     */
+    @Override
+    public int available() throws IOException {
+        return EOF || buffer == null ? 0 : buffer.length - index;
+    }
+
+    /**
+     * Reads all remaining bytes from this stream and writes them to the given output stream,
+     * one block at a time. On Java 9 and higher, this method overrides {@code InputStream#transferTo}.
+     * @param out The output stream, not {@code null}.
+     * @return The number of bytes transferred.
+     * @throws IOException A communication problem occurred when talking to the MBean server,
+     * or an error occurred writing to {@code out}.
+     */
+    public long transferTo(OutputStream out) throws IOException {
+        long transferred = 0L;
+        while (fill()) {
+            int n = buffer.length - index;
+            out.write(buffer, index, n);
+            index += n;
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    /**
+     * Reads all remaining bytes from this stream and writes them to the given channel. Each block
+     * returned by {@code readStream} is wrapped in a {@code ByteBuffer} and written as is, without
+     * being copied into an intermediate buffer.
+     * @param channel The channel to write to, not {@code null}.
+     * @return The number of bytes transferred.
+     * @throws IOException A communication problem occurred when talking to the MBean server,
+     * or an error occurred writing to {@code channel}.
+     */
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        long transferred = 0L;
+        while (fill()) {
+            ByteBuffer block = ByteBuffer.wrap(buffer, index, buffer.length - index);
+            while (block.hasRemaining()) {
+                transferred += channel.write(block);
+            }
+            index = buffer.length;
+        }
+        return transferred;
     }
 
     @Override
     public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        EOF = true;
+        buffer = null;
+        closeStream();
+    }
+
+    /**
+     * Close the stream on the FlightRecorderMXBean. This method is called once, from {@link #close()}.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     */
+    /* package scope */ void closeStream() throws IOException {
         Object[] params = new Object[] {streamid};
         String[] signature = new String[] {long.class.getName()};
         try {
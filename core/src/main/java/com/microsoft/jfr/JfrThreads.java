@@ -0,0 +1,26 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the executor for {@link JfrExecutors}. This is the Java 8 version, which uses a pool
+ * of platform threads. The jar is a multi-release jar, and JDK 21 and later load the version from
+ * {@code META-INF/versions/21}, which uses virtual threads.
+ */
+final class JfrThreads {
+
+    private JfrThreads() {}
+
+    /**
+     * Create the executor for background work.
+     * @param platformThreadFactory The factory for platform threads.
+     * @return A cached pool of threads from {@code platformThreadFactory}.
+     */
+    static ExecutorService newExecutor(ThreadFactory platformThreadFactory) {
+        return Executors.newCachedThreadPool(platformThreadFactory);
+    }
+}
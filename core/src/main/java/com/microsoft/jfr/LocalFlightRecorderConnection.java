@@ -0,0 +1,229 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.PlatformManagedObject;
+import java.time.Instant;
+import java.util.Map;
+import javax.management.MBeanException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.RuntimeMBeanException;
+
+/**
+ * A {@link FlightRecorderConnection} to the platform MBean server of this JVM that calls the
+ * {@code jdk.management.jfr.FlightRecorderMXBean} directly. Going through {@code MBeanServer#invoke} costs a
+ * lookup of the operation by name, the boxing of the arguments into an {@code Object[]}, the conversion of
+ * maps to and from {@code TabularData}, and a reflective call, for every call. The operations used to start,
+ * stop, clone, stream and close recordings are instead called through {@code MethodHandle}s bound to the
+ * {@code FlightRecorderMXBean} of this JVM. Everything else, such as reading the {@code Recordings} attribute
+ * and notifications, goes through the MBean server as usual.
+ * <p>
+ * The {@code FlightRecorderMXBean} interface is looked up at run time, so this library does not depend on
+ * the {@code jdk.management.jfr} module. Exceptions thrown by the {@code FlightRecorderMXBean} are wrapped
+ * the way the MBean server would wrap them, so callers see the same exceptions as with any other connection.
+ */
+final class LocalFlightRecorderConnection extends FlightRecorderConnection {
+
+    private static final String FLIGHT_RECORDER_MXBEAN = "jdk.management.jfr.FlightRecorderMXBean";
+
+    /**
+     * Create a {@code LocalFlightRecorderConnection} if the {@code FlightRecorderMXBean} of this JVM can be called directly.
+     * @param platformMBeanServer The platform MBean server of this JVM.
+     * @param objectName The name of the {@code FlightRecorderMXBean}.
+     * @return A {@code LocalFlightRecorderConnection}, or {@code null} if this JVM has no {@code FlightRecorderMXBean}
+     * interface, or it cannot be called directly.
+     */
+    /* package scope */ static FlightRecorderConnection create(MBeanServer platformMBeanServer, ObjectName objectName) {
+        try {
+            @SuppressWarnings("unchecked")
+            Class<? extends PlatformManagedObject> type =
+                    (Class<? extends PlatformManagedObject>) Class.forName(FLIGHT_RECORDER_MXBEAN);
+            Object bean = ManagementFactory.getPlatformMXBean(type);
+            if (bean == null) {
+                return null;
+            }
+            return new LocalFlightRecorderConnection(platformMBeanServer, objectName, type, bean);
+        } catch (ClassNotFoundException | ClassCastException | IllegalArgumentException
+                 | NoSuchMethodException | IllegalAccessException | SecurityException e) {
+            return null;
+        }
+    }
+
+    private final MethodHandle newRecording;
+    private final MethodHandle startRecording;
+    private final MethodHandle stopRecording;
+    private final MethodHandle closeRecording;
+    private final MethodHandle cloneRecording;
+    private final MethodHandle copyTo;
+    private final MethodHandle setPredefinedConfiguration;
+    private final MethodHandle setConfiguration;
+    private final MethodHandle setRecordingSettings;
+    private final MethodHandle setRecordingOptions;
+    private final MethodHandle openStream;
+    private final MethodHandle readStream;
+    private final MethodHandle closeStream;
+
+    private LocalFlightRecorderConnection(MBeanServer platformMBeanServer, ObjectName objectName, Class<?> type, Object bean)
+            throws NoSuchMethodException, IllegalAccessException {
+        super(platformMBeanServer, objectName);
+        final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        this.newRecording = lookup.findVirtual(type, "newRecording", MethodType.methodType(long.class)).bindTo(bean);
+        this.startRecording = lookup.findVirtual(type, "startRecording", MethodType.methodType(void.class, long.class)).bindTo(bean);
+        this.stopRecording = lookup.findVirtual(type, "stopRecording", MethodType.methodType(boolean.class, long.class)).bindTo(bean);
+        this.closeRecording = lookup.findVirtual(type, "closeRecording", MethodType.methodType(void.class, long.class)).bindTo(bean);
+        this.cloneRecording = lookup.findVirtual(type, "cloneRecording", MethodType.methodType(long.class, long.class, boolean.class)).bindTo(bean);
+        this.copyTo = lookup.findVirtual(type, "copyTo", MethodType.methodType(void.class, long.class, String.class)).bindTo(bean);
+        this.setPredefinedConfiguration = lookup.findVirtual(type, "setPredefinedConfiguration", MethodType.methodType(void.class, long.class, String.class)).bindTo(bean);
+        this.setConfiguration = lookup.findVirtual(type, "setConfiguration", MethodType.methodType(void.class, long.class, String.class)).bindTo(bean);
+        this.setRecordingSettings = lookup.findVirtual(type, "setRecordingSettings", MethodType.methodType(void.class, long.class, Map.class)).bindTo(bean);
+        this.setRecordingOptions = lookup.findVirtual(type, "setRecordingOptions", MethodType.methodType(void.class, long.class, Map.class)).bindTo(bean);
+        this.openStream = lookup.findVirtual(type, "openStream", MethodType.methodType(long.class, long.class, Map.class)).bindTo(bean);
+        this.readStream = lookup.findVirtual(type, "readStream", MethodType.methodType(byte[].class, long.class)).bindTo(bean);
+        this.closeStream = lookup.findVirtual(type, "closeStream", MethodType.methodType(void.class, long.class)).bindTo(bean);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The calls to the {@code FlightRecorderMXBean} are made directly, so the recording is started with
+     * {@code newRecording}, {@code startRecording} and the calls that set the configuration and options,
+     * rather than with the {@code jfrStart} diagnostic command.
+     */
+    @Override
+    public long startRecording(RecordingOptions recordingOptions, RecordingConfiguration recordingConfiguration)
+            throws IOException, JfrStreamingException {
+        try {
+            final long id = (long) newRecording.invokeExact();
+            if (recordingConfiguration instanceof RecordingConfiguration.PredefinedConfiguration) {
+                final String name = ((RecordingConfiguration.PredefinedConfiguration) recordingConfiguration).getConfigurationName();
+                if (name.trim().length() > 0) {
+                    setPredefinedConfiguration.invokeExact(id, name);
+                }
+            } else if (recordingConfiguration instanceof RecordingConfiguration.JfcFileConfiguration) {
+                final String configuration = ((RecordingConfiguration.JfcFileConfiguration) recordingConfiguration).getConfiguration();
+                if (configuration.trim().length() > 0) {
+                    setConfiguration.invokeExact(id, configuration);
+                }
+            } else if (recordingConfiguration instanceof RecordingConfiguration.MapConfiguration) {
+                final Map<String, String> settings = ((RecordingConfiguration.MapConfiguration) recordingConfiguration).getConfiguration();
+                if (!settings.isEmpty()) {
+                    setRecordingSettings.invokeExact(id, settings);
+                }
+            }
+            if (recordingOptions != null) {
+                final Map<String, String> options = recordingOptions.getRecordingOptions();
+                if (options != null && !options.isEmpty()) {
+                    setRecordingOptions.invokeExact(id, options);
+                }
+            }
+            startRecording.invokeExact(id);
+            return id;
+        } catch (Throwable t) {
+            throw wrap(t);
+        }
+    }
+
+    @Override
+    public void stopRecording(long id) throws IOException, JfrStreamingException {
+        try {
+            // The result only tells whether the recording was running. The MBean server would discard it too.
+            final boolean wasRunning = (boolean) stopRecording.invokeExact(id);
+        } catch (Throwable t) {
+            throw wrap(t);
+        }
+    }
+
+    @Override
+    public void dumpRecording(long id, String outputFile) throws IOException, JfrStreamingException {
+        try {
+            copyTo.invokeExact(id, outputFile);
+        } catch (Throwable t) {
+            throw wrap(t);
+        }
+    }
+
+    @Override
+    public long cloneRecording(long id, boolean stop) throws IOException, JfrStreamingException {
+        try {
+            return (long) cloneRecording.invokeExact(id, stop);
+        } catch (Throwable t) {
+            throw wrap(t);
+        }
+    }
+
+    @Override
+    public InputStream getStream(long id, Instant startTime, Instant endTime, long blockSize)
+            throws IOException, JfrStreamingException {
+        final Map<String, String> options = streamOptions(startTime, endTime, blockSize);
+        try {
+            final long streamId = (long) openStream.invokeExact(id, options);
+            return new DirectJfrStream(streamId);
+        } catch (Throwable t) {
+            throw wrap(t);
+        }
+    }
+
+    @Override
+    public void closeRecording(long id) throws IOException, JfrStreamingException {
+        try {
+            closeRecording.invokeExact(id);
+        } catch (Throwable t) {
+            throw wrap(t);
+        }
+    }
+
+    // Wrap an exception from the FlightRecorderMXBean the way the MBean server would have: a checked exception
+    // in an MBeanException, which this library wraps in a JfrStreamingException, and an unchecked exception
+    // in a RuntimeMBeanException, which is thrown.
+    private static JfrStreamingException wrap(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw new RuntimeMBeanException((RuntimeException) t, t.getMessage());
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new JfrStreamingException(t.getMessage(), new MBeanException((Exception) t, t.getMessage()));
+    }
+
+    // Wrap an exception from readStream or closeStream the way JfrStream does.
+    private static IOException wrapStreamException(Throwable t) {
+        if (t instanceof RuntimeException) {
+            throw new RuntimeMBeanException((RuntimeException) t, t.getMessage());
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IOException(t.getMessage(), new MBeanException((Exception) t, t.getMessage()));
+    }
+
+    // A JfrStream that reads blocks with direct calls to the FlightRecorderMXBean.
+    private final class DirectJfrStream extends JfrStream {
+
+        DirectJfrStream(long streamId) {
+            super(mBeanServerConnection, objectName, streamId);
+        }
+
+        @Override
+        /* package scope */ byte[] readBlock() throws IOException {
+            try {
+                return (byte[]) readStream.invokeExact(streamid);
+            } catch (Throwable t) {
+                throw wrapStreamException(t);
+            }
+        }
+
+        @Override
+        /* package scope */ void closeStream() throws IOException {
+            try {
+                closeStream.invokeExact(streamid);
+            } catch (Throwable t) {
+                throw wrapStreamException(t);
+            }
+        }
+    }
+}
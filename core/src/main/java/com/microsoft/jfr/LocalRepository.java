@@ -0,0 +1,216 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+/**
+ * Reads the chunks of a recording from the disk repository of a JVM that runs on the same host, rather than
+ * through the {@code FlightRecorderMXBean}. A recording with {@code disk=true} writes its data to chunk files
+ * in the repository, the directory named by the {@code jdk.jfr.repository} system property of the JVM. Each
+ * completed chunk file that covers the recording is mapped with {@code FileChannel#map}, and read from memory
+ * without a call to the MBean server. The JVM only sets {@code jdk.jfr.repository} on JDK 14 and later, so on
+ * earlier JDKs the repository is not found.
+ * <p>
+ * The repository is only used if every chunk of the requested interval can be read: the directory must be
+ * accessible, the chunk files must be complete, and there must be no gap between them. Otherwise
+ * {@link #openStream(long, Instant, Instant)} returns {@code null}, and the caller reads the recording
+ * through the {@code FlightRecorderMXBean} instead. A chunk that is still being written is never read.
+ */
+final class LocalRepository {
+
+    /** The system property of the JVM that names its repository. */
+    static final String REPOSITORY_PROPERTY = "jdk.jfr.repository";
+
+    private static final String RUNTIME_OBJECT_NAME = "java.lang:type=Runtime";
+
+    // The file state byte of a chunk header is 0 once the chunk is complete.
+    private static final int FILE_STATE_SHIFT = 24;
+
+    private final FlightRecorderConnection connection;
+
+    // The repository of the JVM, once it has been found. Null until then, and again if the directory goes away.
+    private volatile Path directory = null;
+
+    /* package scope */ LocalRepository(FlightRecorderConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Open a stream of the chunks of a recording that are in the repository.
+     * @param id The id of the recording.
+     * @param startTime The point in time to start the stream, possibly {@code null}.
+     * @param endTime The point in time to end the stream, possibly {@code null}.
+     * @return An {@code InputStream} of the chunk files, or {@code null} if the recording cannot be read from
+     * the repository.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     */
+    /* package scope */ InputStream openStream(long id, Instant startTime, Instant endTime)
+            throws IOException, JfrStreamingException {
+        final CompositeData info = connection.getRecordingInfo(id);
+        if (info == null || !Boolean.TRUE.equals(info.get("toDisk"))) {
+            return null;
+        }
+        final String state = (String) info.get("state");
+        if (!"RUNNING".equals(state) && !"STOPPED".equals(state)) {
+            return null;
+        }
+        final Path repository = findRepository();
+        if (repository == null) {
+            return null;
+        }
+
+        // The start and stop times of a recording are in milliseconds. Only the chunks that certainly
+        // overlap the recording are taken, so not the chunk that ended when the recording started, nor
+        // the chunk that started when it stopped.
+        final long recordingStart = TimeUnit.MILLISECONDS.toNanos((Long) info.get("startTime")) + TimeUnit.MILLISECONDS.toNanos(1) - 1;
+        final long recordingStop = "STOPPED".equals(state)
+                ? TimeUnit.MILLISECONDS.toNanos((Long) info.get("stopTime"))
+                : Long.MAX_VALUE;
+        final long from = startTime != null ? Math.max(recordingStart, toNanos(startTime)) : recordingStart;
+        final long to = endTime != null ? Math.min(recordingStop, toNanos(endTime)) : recordingStop;
+
+        try {
+            final List<Chunk> chunks = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(repository, "*.jfr")) {
+                for (Path file : files) {
+                    final Chunk chunk = Chunk.read(file);
+                    if (chunk != null && chunk.header.getEndNanos() > from && chunk.header.getStartNanos() < to) {
+                        chunks.add(chunk);
+                    }
+                }
+            }
+            if (chunks.isEmpty()) {
+                return null;
+            }
+            chunks.sort(Comparator.comparingLong(chunk -> chunk.header.getStartNanos()));
+            for (int n = 1; n < chunks.size(); n++) {
+                if (chunks.get(n).header.getStartNanos() != chunks.get(n - 1).header.getEndNanos()) {
+                    // A chunk is missing, or is still being written.
+                    return null;
+                }
+            }
+            if (recordingStop != Long.MAX_VALUE && chunks.get(chunks.size() - 1).header.getEndNanos() < to) {
+                // The last chunk of a stopped recording has not been completed.
+                return null;
+            }
+            final List<ByteBuffer> buffers = new ArrayList<>(chunks.size());
+            for (Chunk chunk : chunks) {
+                buffers.add(chunk.map());
+            }
+            return new RepositoryStream(buffers);
+        } catch (IOException | SecurityException e) {
+            // The repository is not readable by this process, or a chunk file was removed while it was read.
+            directory = null;
+            return null;
+        }
+    }
+
+    // Find the repository of the JVM, if this process can read it.
+    private Path findRepository() throws IOException, JfrStreamingException {
+        Path repository = directory;
+        if (repository != null && Files.isDirectory(repository)) {
+            return repository;
+        }
+        final String property = getSystemProperty(REPOSITORY_PROPERTY);
+        if (property == null) {
+            return null;
+        }
+        try {
+            repository = Paths.get(property);
+            if (!Files.isDirectory(repository) || !Files.isReadable(repository)) {
+                return null;
+            }
+        } catch (RuntimeException e) {
+            // An invalid path on this host, or no permission to read it.
+            return null;
+        }
+        directory = repository;
+        return repository;
+    }
+
+    // Read a system property of the JVM from the RuntimeMXBean.
+    private String getSystemProperty(String key) throws IOException, JfrStreamingException {
+        try {
+            final ObjectName runtime = new ObjectName(RUNTIME_OBJECT_NAME);
+            final TabularData properties = (TabularData) connection.mBeanServerConnection.getAttribute(runtime, "SystemProperties");
+            final CompositeData property = properties != null ? properties.get(new Object[]{key}) : null;
+            return property != null ? (String) property.get("value") : null;
+        } catch (MalformedObjectNameException e) {
+            // Not expected to happen. The name is a constant.
+            throw new JfrStreamingException(e.getMessage(), e);
+        } catch (InstanceNotFoundException e) {
+            // The JVM does not have a RuntimeMXBean registered, so its repository cannot be found.
+            return null;
+        } catch (JMException e) {
+            throw new JfrStreamingException(e.getMessage(), e);
+        }
+    }
+
+    private static long toNanos(Instant instant) {
+        return TimeUnit.SECONDS.toNanos(instant.getEpochSecond()) + instant.getNano();
+    }
+
+    // A complete chunk file in the repository.
+    private static final class Chunk {
+        final Path file;
+        final ChunkHeader header;
+
+        private Chunk(Path file, ChunkHeader header) {
+            this.file = file;
+            this.header = header;
+        }
+
+        // Read the header of a chunk file. Returns null if the file is not a complete chunk.
+        static Chunk read(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file)) {
+                final ByteBuffer buffer = ByteBuffer.allocate(ChunkHeader.SIZE);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, buffer.position()) < 0) {
+                        return null;
+                    }
+                }
+                final ChunkHeader header;
+                try {
+                    header = ChunkHeader.parse(buffer.array(), 0);
+                } catch (IOException notAChunk) {
+                    return null;
+                }
+                if ((header.getFeatures() >>> FILE_STATE_SHIFT) != 0 || header.getChunkSize() != channel.size()) {
+                    return null;
+                }
+                return new Chunk(file, header);
+            }
+        }
+
+        // Map the chunk file. The mapping stays valid after the channel is closed, and after the file is removed.
+        MappedByteBuffer map() throws IOException {
+            if (header.getChunkSize() > Integer.MAX_VALUE) {
+                throw new IOException("Chunk too large to map: " + file);
+            }
+            try (FileChannel channel = FileChannel.open(file)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, header.getChunkSize());
+            }
+        }
+    }
+}
@@ -5,6 +5,25 @@ import java.util.Map;
 
 class OpenDataUtils {
 
+    // Copied from newrelic-jfr-core
+    private static final String TYPE_NAME = "java.util.Map<java.lang.String, java.lang.String>";
+    private static final String[] ITEM_NAMES = new String[]{"key", "value"};
+
+    // The open types are immutable, so they are built once rather than on every call to makeOpenData.
+    private static final CompositeType ROW_TYPE;
+    private static final TabularType TABULAR_TYPE;
+
+    static {
+        try {
+            final OpenType<?>[] openTypes = new OpenType[]{SimpleType.STRING, SimpleType.STRING};
+            ROW_TYPE = new CompositeType(TYPE_NAME, TYPE_NAME, ITEM_NAMES, ITEM_NAMES, openTypes);
+            TABULAR_TYPE = new TabularType(TYPE_NAME, TYPE_NAME, ROW_TYPE, new String[]{"key"});
+        } catch (OpenDataException e) {
+            // Not expected to happen. The arguments are constants, so this is a bug in this class.
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private OpenDataUtils() {
     }
 
@@ -15,17 +34,10 @@ class OpenDataUtils {
      * @throws OpenDataException Can only be raised if there is a bug in this code.
      */
     static TabularData makeOpenData(final Map<String, String> options) throws OpenDataException {
-        // Copied from newrelic-jfr-core
-        final String typeName = "java.util.Map<java.lang.String, java.lang.String>";
-        final String[] itemNames = new String[]{"key", "value"};
-        final OpenType<?>[] openTypes = new OpenType[]{SimpleType.STRING, SimpleType.STRING};
-        final CompositeType rowType = new CompositeType(typeName, typeName, itemNames, itemNames, openTypes);
-        final TabularType tabularType = new TabularType(typeName, typeName, rowType, new String[]{"key"});
-        final TabularDataSupport table = new TabularDataSupport(tabularType);
-
+        final TabularDataSupport table = new TabularDataSupport(TABULAR_TYPE);
         for (Map.Entry<String, String> entry : options.entrySet()) {
             Object[] itemValues = {entry.getKey(), entry.getValue()};
-            CompositeData element = new CompositeDataSupport(rowType, itemNames, itemValues);
+            CompositeData element = new CompositeDataSupport(ROW_TYPE, ITEM_NAMES, itemValues);
             table.put(element);
         }
         return table;
@@ -0,0 +1,262 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Downloads a stopped recording over several {@code FlightRecorderMXBean} streams at once.
+ * <p>
+ * A single stream of a recording is read one {@code readStream} call at a time. For a large recording
+ * on a remote JVM, the download is bound by the round-trip time of these calls rather than by the
+ * bandwidth of the connection. A {@code ParallelDownloader} splits the time between the start and the
+ * stop of the recording into slices, and opens a stream for each slice at the same time. The slices are
+ * spread over the given connections, so the download can use several JMX connections to the same JVM.
+ * <p>
+ * A stream for an interval holds every chunk of the recording that overlaps the interval, so a chunk
+ * that spans the boundary between two slices is in the streams of both. The slices are written to the
+ * output in time order, and a chunk is skipped if it does not end after the last chunk that was written.
+ * The output is therefore the same sequence of chunks as a single stream of the whole recording.
+ * A slice in which the recording has no data is treated as empty.
+ * <p>
+ * The first slice is copied straight to the output while the other slices are downloaded to temporary
+ * files, which are deleted once they have been copied. A {@code ParallelDownloader} can be used for
+ * more than one download.
+ */
+public class ParallelDownloader {
+
+    private final List<FlightRecorderConnection> connections;
+    private final int slices;
+    private final long blockSize;
+
+    /**
+     * Create a {@code ParallelDownloader} that uses one connection and the default {@code blockSize}.
+     * @param connection The connection to the JVM that holds the recordings, not {@code null}.
+     * @param slices The number of streams to open for each recording, greater than zero.
+     * @throws IllegalArgumentException If {@code slices} is not positive.
+     * @throws NullPointerException If {@code connection} is {@code null}.
+     */
+    public ParallelDownloader(FlightRecorderConnection connection, int slices) {
+        this(Collections.singletonList(Objects.requireNonNull(connection, "connection may not be null")),
+                slices, JfrStream.getDefaultBlockSize());
+    }
+
+    /**
+     * Create a {@code ParallelDownloader} that spreads the streams of a download over the given connections.
+     * The connections must all be to the same JVM. Slice {@code i} is read through
+     * {@code connections.get(i % connections.size())}.
+     * @param connections The connections to the JVM that holds the recordings, not empty.
+     * @param slices The number of streams to open for each recording, greater than zero.
+     * @param blockSize The maximum number of bytes to read at a time from each stream.
+     * @throws IllegalArgumentException If {@code connections} is empty, or if {@code slices} is not positive.
+     * @throws NullPointerException If {@code connections} is {@code null} or holds a {@code null}.
+     */
+    public ParallelDownloader(List<FlightRecorderConnection> connections, int slices, long blockSize) {
+        Objects.requireNonNull(connections, "connections may not be null");
+        if (connections.isEmpty()) {
+            throw new IllegalArgumentException("connections may not be empty");
+        }
+        if (slices < 1) {
+            throw new IllegalArgumentException("slices: " + slices + " < 1");
+        }
+        for (FlightRecorderConnection connection : connections) {
+            Objects.requireNonNull(connection, "connections may not hold null");
+        }
+        this.connections = Collections.unmodifiableList(new ArrayList<>(connections));
+        this.slices = slices;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Download a recording to the given {@code OutputStream}. The recording must be stopped.
+     * The {@code OutputStream} is not closed.
+     * @param recording The recording to download.
+     * @param out Where to write the recording data.
+     * @return The number of bytes written to {@code out}.
+     * @throws IOException A communication problem occurred when talking to the MBean server,
+     * or the recording data could not be written.
+     * @throws IllegalStateException If the {@code Recording} has not been stopped.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     */
+    public long download(Recording recording, OutputStream out)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        Recording.State currentState = recording.getState();
+        if (currentState != Recording.State.STOPPED) {
+            throw new IllegalStateException("Recording state " + currentState + " not in [" + Recording.State.STOPPED + "]");
+        }
+        return download(recording.getId(), out);
+    }
+
+    /**
+     * Download the recording with the given id to the given {@code OutputStream}. The recording
+     * must be stopped. The {@code OutputStream} is not closed.
+     * @param id The id of the recording.
+     * @param out Where to write the recording data.
+     * @return The number of bytes written to {@code out}.
+     * @throws IOException A communication problem occurred when talking to the MBean server,
+     * or the recording data could not be written.
+     * @throws IllegalStateException If there is no recording with the id, or if it has not been stopped.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     */
+    public long download(long id, OutputStream out) throws IOException, IllegalStateException, JfrStreamingException {
+        Objects.requireNonNull(out, "out may not be null");
+        CompositeData info = connections.get(0).getRecordingInfo(id);
+        if (info == null) {
+            throw new IllegalStateException("No recording with id " + id);
+        }
+        Object state = info.get("state");
+        if (!Recording.State.STOPPED.name().equals(state)) {
+            throw new IllegalStateException("Recording state " + state + " not in [" + Recording.State.STOPPED + "]");
+        }
+        Instant[] bounds = sliceBounds(info);
+        int count = bounds.length - 1;
+
+        List<Path> tempFiles = new CopyOnWriteArrayList<>();
+        List<Future<Path>> downloads = new ArrayList<>(count);
+        Abort abort = new Abort();
+        try {
+            for (int slice = 1; slice < count; slice++) {
+                SliceTask task = new SliceTask(connectionFor(slice), id, bounds[slice], bounds[slice + 1], abort, tempFiles);
+                downloads.add(JfrExecutors.getExecutor().submit(task));
+            }
+
+            long written = 0L;
+            long lastEndNanos = Long.MIN_VALUE;
+            byte[] bytes = new byte[8192];
+            for (int slice = 0; slice < count; slice++) {
+                try (InputStream in = slice == 0 ? openSlice(connectionFor(0), id, bounds[0], bounds[1], blockSize) : openTempFile(downloads.get(slice - 1))) {
+                    if (in == null) continue;
+                    ChunkFilterInputStream filter = new ChunkFilterInputStream(in, lastEndNanos);
+                    int n;
+                    while ((n = filter.read(bytes, 0, bytes.length)) != -1) {
+                        out.write(bytes, 0, n);
+                        written += n;
+                    }
+                    lastEndNanos = filter.getLastCompleteEndNanos();
+                }
+            }
+            return written;
+        } finally {
+            abort.aborted = true;
+            for (Future<Path> download : downloads) {
+                try {
+                    download.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException ignored) {
+                }
+            }
+            for (Path tempFile : tempFiles) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    private FlightRecorderConnection connectionFor(int slice) {
+        return connections.get(slice % connections.size());
+    }
+
+    // Returns slices + 1 boundaries. The first and last are null, meaning the start and the end of the recording.
+    private Instant[] sliceBounds(CompositeData info) {
+        long startMillis = (Long) info.get("startTime");
+        long stopMillis = (Long) info.get("stopTime");
+        // Slices shorter than a millisecond would only repeat the same chunks.
+        int count = (int) Math.max(1L, Math.min(slices, stopMillis - startMillis));
+        Instant[] bounds = new Instant[count + 1];
+        for (int slice = 1; slice < count; slice++) {
+            bounds[slice] = Instant.ofEpochMilli(startMillis + (stopMillis - startMillis) * slice / count);
+        }
+        return bounds;
+    }
+
+    // Returns null if the recording has no data in the interval.
+    private static InputStream openSlice(FlightRecorderConnection connection, long id, Instant startTime, Instant endTime, long blockSize)
+            throws IOException, JfrStreamingException {
+        try {
+            return connection.getStream(id, startTime, endTime, blockSize);
+        } catch (JfrStreamingException e) {
+            if (FlightRecorderConnection.isNoDataAvailable(e)) return null;
+            throw e;
+        }
+    }
+
+    private static InputStream openTempFile(Future<Path> download) throws IOException, JfrStreamingException {
+        final Path path;
+        try {
+            path = download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a slice to download");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof JfrStreamingException) throw (JfrStreamingException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        }
+        return path != null ? Files.newInputStream(path) : null;
+    }
+
+    // Set when the download ends, so that the slices still being downloaded stop early.
+    private static final class Abort {
+        volatile boolean aborted = false;
+    }
+
+    /*
+     * Downloads one slice to a temporary file. Returns the path of the file, or null if the
+     * recording has no data in the slice. Stops early if the download is aborted.
+     */
+    private final class SliceTask implements Callable<Path> {
+
+        private final FlightRecorderConnection connection;
+        private final long id;
+        private final Instant startTime;
+        private final Instant endTime;
+        private final Abort abort;
+        private final List<Path> tempFiles;
+
+        SliceTask(FlightRecorderConnection connection, long id, Instant startTime, Instant endTime, Abort abort, List<Path> tempFiles) {
+            this.connection = connection;
+            this.id = id;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.abort = abort;
+            this.tempFiles = tempFiles;
+        }
+
+        @Override
+        public Path call() throws IOException, JfrStreamingException {
+            if (abort.aborted) return null;
+            try (InputStream in = openSlice(connection, id, startTime, endTime, blockSize)) {
+                if (in == null) return null;
+                Path path = Files.createTempFile("jfr-slice-", ".jfr");
+                tempFiles.add(path);
+                try (OutputStream out = Files.newOutputStream(path)) {
+                    byte[] bytes = new byte[8192];
+                    int n;
+                    while (!abort.aborted && (n = in.read(bytes, 0, bytes.length)) != -1) {
+                        out.write(bytes, 0, n);
+                    }
+                }
+                return path;
+            }
+        }
+    }
+}
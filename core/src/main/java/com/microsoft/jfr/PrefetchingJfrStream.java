@@ -0,0 +1,121 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link JfrStream} that reads blocks from {@code FlightRecorderMXBean#readStream(long)} on a
+ * background thread while the caller consumes the blocks that have already arrived. Calls to
+ * {@code readStream} for one stream have to be made one after the other, so the prefetch overlaps
+ * the round-trip for the next block with the processing of the current one. At most
+ * {@code prefetchDepth} blocks are held in the queue, which caps the memory used by the stream
+ * at roughly {@code (prefetchDepth + 2) * blockSize} bytes.
+ */
+class PrefetchingJfrStream extends JfrStream {
+
+    // Marks the end of the data in the queue.
+    private static final Object END_OF_STREAM = new Object();
+
+    // How long the background reader waits for room in the queue before checking whether the stream was closed.
+    private static final long OFFER_TIMEOUT_MILLIS = 100L;
+
+    private final JfrStream source;
+    // Holds byte[] blocks, followed by either END_OF_STREAM or the Throwable that ended the background reader.
+    private final BlockingQueue<Object> queue;
+    private final CountDownLatch readerDone = new CountDownLatch(1);
+    private volatile boolean stopped = false;
+    private boolean finished = false;
+
+    /* package scope */ PrefetchingJfrStream(JfrStream source, int prefetchDepth) {
+        this(source, prefetchDepth, JfrExecutors.getExecutor());
+    }
+
+    /* package scope */ PrefetchingJfrStream(JfrStream source, int prefetchDepth, Executor executor) {
+        super(source.connection, source.flightRecorder, source.streamid);
+        if (prefetchDepth < 1) {
+            throw new IllegalArgumentException("prefetchDepth: " + prefetchDepth + " < 1");
+        }
+        this.source = source;
+        this.queue = new ArrayBlockingQueue<>(prefetchDepth);
+        executor.execute(this::readAhead);
+    }
+
+    // Runs on the executor. Reads blocks from the source until the end of the stream, an error, or close().
+    private void readAhead() {
+        try {
+            while (!stopped) {
+                byte[] block = source.nextBlock();
+                if (block == null) {
+                    enqueue(END_OF_STREAM);
+                    return;
+                }
+                // An in-process FlightRecorderMXBean may return the same byte[] from every call to readStream,
+                // and a connection need not be an MBeanServer to reach it, for example through a proxy or
+                // forwarder. The copy is cheap next to the round-trip for the block.
+                enqueue(block.clone());
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                enqueue(e);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            readerDone.countDown();
+        }
+    }
+
+    private void enqueue(Object item) throws InterruptedException {
+        while (!stopped) {
+            if (queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) return;
+        }
+    }
+
+    @Override
+    /* package scope */ byte[] readBlock() throws IOException {
+        if (finished || stopped) return null;
+        final Object item;
+        try {
+            item = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for data");
+        }
+        if (item instanceof byte[]) {
+            return (byte[]) item;
+        }
+        finished = true;
+        if (item instanceof Throwable) {
+            Throwable t = (Throwable) item;
+            throw new IOException(t.getMessage(), t);
+        }
+        return null;
+    }
+
+    /**
+     * Stops the background reader, waits for any {@code readStream} call in flight to return,
+     * and then closes the underlying stream.
+     */
+    @Override
+    /* package scope */ void closeStream() throws IOException {
+        stopped = true;
+        queue.clear();
+        try {
+            readerDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queue.clear();
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import javax.management.MBeanServerConnection;
+
+/**
+ * Supplies a new connection to the MBean server of a JVM after the previous connection failed.
+ * A {@code Reconnector} is given to
+ * {@link FlightRecorderConnection#getResumableStream(long, java.time.Instant, java.time.Instant, long, Reconnector, int)}
+ * so that a stream can carry on over a new connection. The new connection must be to the same JVM.
+ */
+@FunctionalInterface
+public interface Reconnector {
+
+    /**
+     * Get a new connection to the MBean server. For a remote JVM, this typically means
+     * connecting a new {@code javax.management.remote.JMXConnector}.
+     * @param cause The exception that caused the previous connection to be abandoned.
+     * @return A connection to the MBean server of the same JVM, not {@code null}.
+     * @throws IOException If a new connection could not be made. The stream then fails with this exception.
+     */
+    MBeanServerConnection reconnect(IOException cause) throws IOException;
+}
@@ -2,11 +2,21 @@
 // Licensed under the MIT License.
 package com.microsoft.jfr;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.MessageFormat;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -74,6 +84,7 @@ public class Recording implements AutoCloseable {
     final private RecordingConfiguration recordingConfiguration;
 
     private volatile long id = -1;
+    private volatile Duration startLatency = null;
     private final AtomicReference<State> state;
 
     /**
@@ -113,13 +124,32 @@ public class Recording implements AutoCloseable {
         State oldState = state.getAndUpdate(s -> s == State.NEW || s == State.STOPPED ? State.RECORDING : s);
 
         if (oldState == State.NEW || oldState == State.STOPPED) {
+            final long previousId = id;
+            long start = System.nanoTime();
             id = connection.startRecording(recordingOptions, recordingConfiguration);
+            startLatency = Duration.ofNanos(System.nanoTime() - start);
+            connection.getRecordingTracker().track(this, id);
+            if (oldState == State.STOPPED) {
+                // Starting again makes a new recording in the JVM. The stopped one can no longer be reached.
+                closeQuietly(previousId);
+            }
         } else if (oldState == State.CLOSED) {
             throw new IllegalStateException(createIllegalStateExceptionMessage(oldState, State.NEW, State.RECORDING, State.STOPPED));
         }
         return id;
     }
 
+    /**
+     * Get how long the last call to {@link #start()} took to start the recording. This is dominated by
+     * the round-trips to the MBean server, so it shows whether the recording was started with a single
+     * call or had to fall back to several.
+     * @return The start latency, or {@code null} if the recording was never started.
+     * @see FlightRecorderConnection#startRecording(RecordingOptions, RecordingConfiguration)
+     */
+    public Duration getStartLatency() {
+        return startLatency;
+    }
+
     /**
      * Stop a recording.
      * @throws IOException A communication problem occurred when talking to the MBean server.
@@ -172,6 +202,7 @@ public class Recording implements AutoCloseable {
             Recording recordingClone = new Recording(this.connection, this.recordingOptions, this.recordingConfiguration);
             recordingClone.id = newId;
             recordingClone.state.set(stop ? State.STOPPED : currentState);
+            connection.getRecordingTracker().track(recordingClone, newId);
             return recordingClone;
         } else {
             throw new IllegalStateException(createIllegalStateExceptionMessage(currentState, State.RECORDING, State.STOPPED));
@@ -221,14 +252,415 @@ public class Recording implements AutoCloseable {
     }
 
     /**
-     * Get the current state of this {@code Recording}.
+     * Create a data stream for the specified interval using the given {@code blockSize} that reads
+     * up to {@code prefetchDepth} blocks ahead of the caller on a background thread. Reading ahead
+     * overlaps the round-trip to the MBean server with the processing of data by the caller, which
+     * increases throughput over a remote connection. The stream may contain some data outside the given range.
+     * @param startTime The start time for the stream, or {@code null} to get data from the start time of the recording.
+     * @param endTime The end time for the stream, or {@code null} to get data until the end of the recording.
+     * @param blockSize The maximum number of bytes to read at a time.
+     * @param prefetchDepth The maximum number of blocks to read ahead, or {@code 0} to not read ahead.
+     * @return An {@code InputStream}, or {@code null} if no data is available in the interval.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws IllegalStateException If the {@code Recording} has not been stopped.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     * @see FlightRecorderConnection#getStream(long, Instant, Instant, long, int)
+     */
+    public InputStream getStream(Instant startTime, Instant endTime, long blockSize, int prefetchDepth)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        // state transitions: remain in state
+        State currentState = state.get();
+        if (currentState == State.STOPPED) {
+            return connection.getStream(id, startTime, endTime, blockSize, prefetchDepth);
+        } else {
+            throw new IllegalStateException(createIllegalStateExceptionMessage(currentState, State.STOPPED));
+        }
+    }
+
+    /**
+     * Create a data stream for the specified interval using a {@code blockSize} chosen by the given
+     * {@link AdaptiveBlockSize}. The {@code AdaptiveBlockSize} measures the latency and throughput of
+     * the stream and uses the measurements to size the blocks of the next stream it is used with.
+     * The stream may contain some data outside the given range.
+     * @param startTime The start time for the stream, or {@code null} to get data from the start time of the recording.
+     * @param endTime The end time for the stream, or {@code null} to get data until the end of the recording.
+     * @param adaptiveBlockSize Chooses the maximum number of bytes to read at a time, not {@code null}.
+     * @return An {@code InputStream}, or {@code null} if no data is available in the interval.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws IllegalStateException If the {@code Recording} has not been stopped.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     * @throws NullPointerException If {@code adaptiveBlockSize} is {@code null}.
+     */
+    public InputStream getStream(Instant startTime, Instant endTime, AdaptiveBlockSize adaptiveBlockSize)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        // state transitions: remain in state
+        State currentState = state.get();
+        if (currentState == State.STOPPED) {
+            return connection.getStream(id, startTime, endTime, adaptiveBlockSize);
+        } else {
+            throw new IllegalStateException(createIllegalStateExceptionMessage(currentState, State.STOPPED));
+        }
+    }
+
+    /**
+     * Create a data stream for the specified interval that reads the chunk files of this recording from the
+     * disk repository of the JVM, if the JVM runs on the same host and this process can read its repository.
+     * The chunk files are mapped into memory, so the data is not copied through the MBean server. Otherwise,
+     * this method returns the same stream as {@link #getStream(Instant, Instant)}. Only a recording made with
+     * {@code disk=true} has chunk files. The stream may contain some data outside the given range.
+     * @param startTime The start time for the stream, or {@code null} to get data from the start time of the recording.
+     * @param endTime The end time for the stream, or {@code null} to get data until the end of the recording.
+     * @return An {@code InputStream} of the recording data.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws IllegalStateException If the {@code Recording} has not been stopped.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     * @see FlightRecorderConnection#getRepositoryStream(long, Instant, Instant)
+     */
+    public InputStream getRepositoryStream(Instant startTime, Instant endTime)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        // state transitions: remain in state
+        State currentState = state.get();
+        if (currentState == State.STOPPED) {
+            return connection.getRepositoryStream(id, startTime, endTime);
+        } else {
+            throw new IllegalStateException(createIllegalStateExceptionMessage(currentState, State.STOPPED));
+        }
+    }
+
+    /**
+     * Create a {@link JfrChunkReader} that splits the data stream for the specified interval into its chunks.
+     * Each chunk is returned as soon as its header arrives, and its bytes are read from the stream as the
+     * caller reads them, so the recording is never held in memory as a whole. The caller must close the
+     * {@code JfrChunkReader}. The stream may contain some chunks outside the given range.
+     * @param startTime The start time for the stream, or {@code null} to get data from the start time of the recording.
+     * @param endTime The end time for the stream, or {@code null} to get data until the end of the recording.
+     * @return A {@code JfrChunkReader} of the recording data.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws IllegalStateException If the {@code Recording} has not been stopped.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     */
+    public JfrChunkReader getChunkReader(Instant startTime, Instant endTime)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        final InputStream stream = getStream(startTime, endTime);
+        return new JfrChunkReader(stream != null ? stream : new ByteArrayInputStream(new byte[0]));
+    }
+
+    /**
+     * Read the data for the specified interval into a {@link SpillBuffer}, which can then be read any number
+     * of times, from any position. Up to {@code memoryLimit} bytes are held in memory outside the heap, and the
+     * rest in a temporary file, so a large recording does not fill the heap. The caller must close the
+     * {@code SpillBuffer}. The buffer may contain some data outside the given range.
+     * @param startTime The start time for the stream, or {@code null} to get data from the start time of the recording.
+     * @param endTime The end time for the stream, or {@code null} to get data until the end of the recording.
+     * @param memoryLimit The number of bytes to hold in memory, not negative.
+     * @return A {@code SpillBuffer} holding the recording data.
+     * @throws IOException A communication problem occurred when talking to the MBean server,
+     * or an error occurred writing the temporary file.
+     * @throws IllegalStateException If the {@code Recording} has not been stopped.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     * @throws IllegalArgumentException If {@code memoryLimit} is negative.
+     */
+    public SpillBuffer getSpillBuffer(Instant startTime, Instant endTime, long memoryLimit)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        final SpillBuffer spillBuffer = new SpillBuffer(memoryLimit);
+        try (InputStream stream = getStream(startTime, endTime)) {
+            if (stream != null) {
+                spillBuffer.transferFrom(stream);
+            }
+        } catch (Throwable t) {
+            try {
+                spillBuffer.close();
+            } catch (Throwable suppressed) {
+                t.addSuppressed(suppressed);
+            }
+            throw t;
+        }
+        return spillBuffer;
+    }
+
+    /**
+     * Create a data stream for the specified interval that survives the failure of the connection to the
+     * MBean server. When a read fails, the stream gets a new connection from {@code reconnector} and carries
+     * on from where it stopped, without a gap or a duplicated byte. The stream may contain some data outside
+     * the given range.
+     * @param startTime The start time for the stream, or {@code null} to get data from the start time of the recording.
+     * @param endTime The end time for the stream, or {@code null} to get data until the end of the recording.
+     * @param reconnector Supplies a new connection to the same JVM, not {@code null}.
+     * @param maxRetries The number of times to try a new connection before giving up, not negative.
+     * @return An {@code InputStream} of the recording data.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws IllegalStateException If the {@code Recording} has not been stopped.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     * @throws IllegalArgumentException If {@code maxRetries} is negative.
+     * @throws NullPointerException If {@code reconnector} is {@code null}.
+     * @see FlightRecorderConnection#getResumableStream(long, Instant, Instant, long, Reconnector, int)
+     */
+    public InputStream getResumableStream(Instant startTime, Instant endTime, Reconnector reconnector, int maxRetries)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        // state transitions: remain in state
+        State currentState = state.get();
+        if (currentState == State.STOPPED) {
+            return connection.getResumableStream(id, startTime, endTime, JfrStream.getDefaultBlockSize(), reconnector, maxRetries);
+        } else {
+            throw new IllegalStateException(createIllegalStateExceptionMessage(currentState, State.STOPPED));
+        }
+    }
+
+    /**
+     * Create a data stream that follows this recording while it is running. The stream polls the
+     * {@code FlightRecorderMXBean} every {@code pollInterval} for chunks that were written since the
+     * previous poll, and returns only those chunks. A read blocks until new data is available. The stream
+     * ends once the recording has been stopped and the rest of its data has been read, or when the
+     * recording is closed. Each poll reads the state of the recording in the JVM, so this includes a recording
+     * the JVM stops at the end of its {@code duration}, and one closed by another client.
+     * <p>
+     * Each poll clones the recording, which makes the JVM start a new chunk. A short {@code pollInterval}
+     * therefore gives more, smaller chunks.
+     * @param pollInterval The minimum time between polls, not {@code null} or negative.
+     * @return An {@code InputStream} of the recording data.
+     * @throws IllegalStateException If the {@code Recording} has not been started, or has been closed.
+     * @throws IllegalArgumentException If {@code pollInterval} is negative.
+     * @throws NullPointerException If {@code pollInterval} is {@code null}.
+     * @see RecordingCursor
+     */
+    public InputStream getTailStream(Duration pollInterval) throws IllegalStateException {
+        Objects.requireNonNull(pollInterval, "pollInterval may not be null");
+        if (pollInterval.isNegative()) {
+            throw new IllegalArgumentException("pollInterval: " + pollInterval + " is negative");
+        }
+        State currentState = state.get();
+        if (currentState == State.RECORDING || currentState == State.STOPPED) {
+            return new TailingStream(this, connection, pollInterval.toNanos());
+        } else {
+            throw new IllegalStateException(createIllegalStateExceptionMessage(currentState, State.RECORDING, State.STOPPED));
+        }
+    }
+
+    /**
+     * Write the recording data to a file. The file is created if it does not exist, and replaced if it does.
+     * Each block read from the {@code FlightRecorderMXBean} is written directly to a {@code FileChannel},
+     * and the data is forced to the storage device once, after the last block has been written.
+     * @param path The file to write, not {@code null}.
+     * @return The number of bytes written and the time taken.
+     * @throws IOException A communication problem occurred when talking to the MBean server,
+     * or an error occurred writing the file.
+     * @throws IllegalStateException If the {@code Recording} has not been stopped.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     * @throws NullPointerException If the {@code path} argument is null.
+     */
+    public TransferStatistics streamTo(Path path)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        Objects.requireNonNull(path, "path may not be null");
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long bytes = transferTo(channel);
+            channel.force(true);
+            return new TransferStatistics(bytes, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Write the recording data to a channel. Each block read from the {@code FlightRecorderMXBean}
+     * is written to the channel as is. The channel is not closed.
+     * @param channel The channel to write to, not {@code null}.
+     * @return The number of bytes written and the time taken.
+     * @throws IOException A communication problem occurred when talking to the MBean server,
+     * or an error occurred writing to the channel.
+     * @throws IllegalStateException If the {@code Recording} has not been stopped.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     * @throws NullPointerException If the {@code channel} argument is null.
+     */
+    public TransferStatistics streamTo(WritableByteChannel channel)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        Objects.requireNonNull(channel, "channel may not be null");
+        long start = System.nanoTime();
+        long bytes = transferTo(channel);
+        return new TransferStatistics(bytes, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    /**
+     * Write the data recorded so far to a file, without stopping this recording. The file is created if it
+     * does not exist, and replaced if it does. A running recording is cloned, the clone is stopped and
+     * streamed, and the clone is closed, even if the snapshot fails. A stopped recording is streamed as it is.
+     * @param path The file to write, not {@code null}.
+     * @return The number of bytes written and the time taken.
+     * @throws IOException A communication problem occurred when talking to the MBean server,
+     * or an error occurred writing the file.
+     * @throws IllegalStateException If the {@code Recording} has not been started, or has been closed.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     * @throws NullPointerException If the {@code path} argument is null.
+     * @see #snapshot(WritableByteChannel)
+     */
+    public TransferStatistics snapshot(Path path)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        Objects.requireNonNull(path, "path may not be null");
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long bytes = snapshotTo(channel);
+            channel.force(true);
+            return new TransferStatistics(bytes, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Write the data recorded so far to a channel, without stopping this recording. This does in one
+     * operation what would otherwise take a {@link #clone(boolean) clone}, a {@link #streamTo(WritableByteChannel) streamTo}
+     * of the clone and a {@link #close() close} of the clone. Once the stream of the clone is open, the stream
+     * holds on to the recording data, so the clone is closed on a background thread while the data is read.
+     * The clone is closed even if the snapshot fails, so it is not left behind in the JVM.
+     * A stopped recording is streamed as it is. The channel is not closed.
+     * @param sink The channel to write to, not {@code null}.
+     * @return The number of bytes written and the time taken.
+     * @throws IOException A communication problem occurred when talking to the MBean server,
+     * or an error occurred writing to the channel.
+     * @throws IllegalStateException If the {@code Recording} has not been started, or has been closed.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     * @throws NullPointerException If the {@code sink} argument is null.
+     */
+    public TransferStatistics snapshot(WritableByteChannel sink)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        Objects.requireNonNull(sink, "sink may not be null");
+        long start = System.nanoTime();
+        long bytes = snapshotTo(sink);
+        return new TransferStatistics(bytes, Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private long snapshotTo(WritableByteChannel channel)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        // state transitions: remain in state
+        State currentState = state.get();
+        if (currentState == State.STOPPED) {
+            return transferTo(channel);
+        } else if (currentState != State.RECORDING) {
+            throw new IllegalStateException(createIllegalStateExceptionMessage(currentState, State.RECORDING, State.STOPPED));
+        }
+
+        final long cloneId = connection.cloneRecording(id, true);
+        Future<Void> closing = null;
+        final long bytes;
+        try {
+            InputStream stream = connection.getStream(cloneId, null, null, JfrStream.getDefaultBlockSize());
+            if (stream == null) {
+                bytes = 0L;
+            } else {
+                try {
+                    // The open stream holds on to the chunks of the clone, so the clone can be closed
+                    // while the data is read rather than after the last read.
+                    closing = JfrExecutors.getExecutor().submit(() -> {
+                        connection.closeRecording(cloneId);
+                        return null;
+                    });
+                    bytes = transferTo(stream, channel);
+                } finally {
+                    stream.close();
+                }
+            }
+        } catch (Throwable t) {
+            try {
+                closeClone(cloneId, closing);
+            } catch (Throwable suppressed) {
+                t.addSuppressed(suppressed);
+            }
+            throw t;
+        }
+        closeClone(cloneId, closing);
+        return bytes;
+    }
+
+    // Close the clone made by a snapshot, or wait for it to be closed if that was started already.
+    private void closeClone(long cloneId, Future<Void> closing) throws IOException, JfrStreamingException {
+        if (closing == null) {
+            connection.closeRecording(cloneId);
+            return;
+        }
+        try {
+            closing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing snapshot of recording " + id);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof JfrStreamingException) {
+                throw (JfrStreamingException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private long transferTo(WritableByteChannel channel)
+            throws IOException, IllegalStateException, JfrStreamingException {
+        try (InputStream stream = getStream(null, null)) {
+            if (stream == null) {
+                return 0L;
+            }
+            return transferTo(stream, channel);
+        }
+    }
+
+    private static long transferTo(InputStream stream, WritableByteChannel channel) throws IOException {
+        if (stream instanceof JfrStream) {
+            return ((JfrStream) stream).transferTo(channel);
+        }
+        long transferred = 0L;
+        ByteBuffer buffer = ByteBuffer.allocate((int) JfrStream.getDefaultBlockSize());
+        int n;
+        while ((n = stream.read(buffer.array(), 0, buffer.capacity())) != -1) {
+            buffer.limit(n);
+            while (buffer.hasRemaining()) {
+                transferred += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+        return transferred;
+    }
+
+    /**
+     * Get the current state of this {@code Recording}. The state changes with the calls made through this
+     * {@code Recording}. A change made in the JVM, such as the recording stopping when it reaches its
+     * {@code duration}, is only seen once {@link FlightRecorderConnection#syncRecordingStates()} has run.
      * @return The current state of this {@code Recording}.
+     * @see FlightRecorderConnection#setRecordingStateSyncInterval(Duration)
      */
     public State getState() {
         return state.get();
     }
 
-    /** {@inheritDoc} */
+    /**
+     * Update the state of this {@code Recording} from the state of its recording in the JVM. Only the changes
+     * the JVM can make on its own are applied: from {@code RECORDING} to {@code STOPPED}, and from
+     * {@code RECORDING} or {@code STOPPED} to {@code CLOSED}.
+     * @param recordingId The id of the recording whose state was read.
+     * @param observed The state of the recording in the JVM.
+     * @return {@code true} if the state of this {@code Recording} was changed.
+     */
+    /* package scope */ boolean syncState(long recordingId, State observed) {
+        // state transitions: RECORDING -> STOPPED, RECORDING -> CLOSED, STOPPED -> CLOSED, otherwise remain in state
+        if (recordingId != id) {
+            return false;
+        }
+        State currentState = state.get();
+        if (observed == State.STOPPED && currentState == State.RECORDING) {
+            return state.compareAndSet(State.RECORDING, State.STOPPED);
+        } else if (observed == State.CLOSED && (currentState == State.RECORDING || currentState == State.STOPPED)) {
+            return state.compareAndSet(currentState, State.CLOSED);
+        }
+        return false;
+    }
+
+    /**
+     * Close this {@code Recording}, and close the recording in the JVM if this {@code Recording} was started.
+     * A running recording is stopped first. If the recording in the JVM cannot be closed, it is closed when
+     * this {@code Recording} has been garbage collected.
+     * @see FlightRecorderConnection
+     */
     @Override
     public void close() throws IOException {
         // state transitions:  any -> CLOSED
@@ -236,9 +668,20 @@ public class Recording implements AutoCloseable {
         if (oldState == State.RECORDING) {
             try {
                 connection.stopRecording(id);
-                connection.closeRecording(id);
             } catch (Throwable ignored) {
             }
         }
+        if (oldState == State.RECORDING || oldState == State.STOPPED) {
+            closeQuietly(id);
+        }
+    }
+
+    // Close a recording in the JVM. If that fails, the recording stays tracked and is closed by a later sweep.
+    private void closeQuietly(long recordingId) {
+        try {
+            connection.closeRecording(recordingId);
+            connection.getRecordingTracker().untrack(recordingId);
+        } catch (Throwable ignored) {
+        }
     }
 }
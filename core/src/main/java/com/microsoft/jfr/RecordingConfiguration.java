@@ -7,6 +7,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -51,6 +53,10 @@ public abstract class RecordingConfiguration {
             this.configurationName = configurationName;
         }
 
+        /* package scope */ String getConfigurationName() {
+            return configurationName;
+        }
+
         @Override
         public String toString() {
             return configurationName;
@@ -89,6 +95,10 @@ public abstract class RecordingConfiguration {
             invokeSetConfiguration(configuration, "setConfiguration", id, mBeanServerConnection, objectName);
         }
 
+        /* package scope */ String getConfiguration() {
+            return configuration;
+        }
+
         @Override
         public String toString() {
             return configuration;
@@ -102,25 +112,42 @@ public abstract class RecordingConfiguration {
 
         private final Map<String, String> configuration;
 
+        // The configuration as open data, or null until it is first needed.
+        private volatile TabularData openData;
+
         /**
-         * Sets a configuration from a Map
+         * Sets a configuration from a Map. The map is copied, so later changes to the
+         * map do not affect the configuration.
          * @param configuration A map defining the JFR events to register.
          *                      For example: {jdk.ObjectAllocationInNewTLAB#enabled=true, jdk.ObjectAllocationOutsideTLAB#enabled=true}
          */
         public MapConfiguration(Map<String, String> configuration) {
-            this.configuration = configuration;
+            this.configuration = Collections.unmodifiableMap(new LinkedHashMap<>(configuration));
+        }
+
+        // The configuration is immutable, so the TabularData is built once and reused.
+        private TabularData getOpenData() throws OpenDataException {
+            TabularData data = openData;
+            if (data == null) {
+                openData = data = OpenDataUtils.makeOpenData(configuration);
+            }
+            return data;
         }
 
         @Override
         void invokeSetConfiguration(long id, MBeanServerConnection mBeanServerConnection, ObjectName objectName) throws InstanceNotFoundException, MBeanException, ReflectionException, IOException, OpenDataException {
             if (!configuration.isEmpty()) {
-                TabularData configAsTabular = OpenDataUtils.makeOpenData(configuration);
+                TabularData configAsTabular = getOpenData();
                 Object[] args = new Object[]{id, configAsTabular};
                 String[] argTypes = new String[]{long.class.getName(), TabularData.class.getName()};
                 mBeanServerConnection.invoke(objectName, "setRecordingSettings", args, argTypes);
             }
         }
 
+        /* package scope */ Map<String, String> getConfiguration() {
+            return configuration;
+        }
+
         @Override
         public String toString() {
             return configuration.toString();
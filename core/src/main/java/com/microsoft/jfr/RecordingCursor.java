@@ -0,0 +1,177 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Objects;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Reads a recording a piece at a time, returning on each {@link #pull()} only the chunks that were
+ * completed since the previous pull. This suits a collector that periodically gathers the data of a
+ * long-running recording: each pull transfers the new data rather than the whole recording.
+ * <p>
+ * The position of the cursor is the end time of the last chunk it returned, in nanoseconds since the epoch.
+ * The position advances as each chunk is completely read from the stream returned by {@code pull}, so a chunk
+ * that was only partly read is returned again by the next pull. The position is a plain {@code long} that can
+ * be saved, and later given to {@link #RecordingCursor(FlightRecorderConnection, long, long)} to carry on from
+ * where a previous cursor stopped, for example after the collector restarts.
+ * <p>
+ * A running recording cannot be streamed directly, so pulling from a running recording clones it with
+ * {@code stop=true}, which makes the JVM finish the chunk it is writing. The clone is closed when the
+ * stream returned by {@code pull} is closed. A {@code RecordingCursor} is not thread-safe.
+ */
+public class RecordingCursor {
+
+    /** The position of a cursor that has not returned any data. */
+    public static final long BEGINNING = Long.MIN_VALUE;
+
+    private final FlightRecorderConnection connection;
+    private final long recordingId;
+    private long position;
+
+    /**
+     * Create a cursor positioned at the beginning of a recording.
+     * @param connection The connection to the JVM that holds the recording, not {@code null}.
+     * @param recordingId The id of the recording.
+     * @throws NullPointerException If {@code connection} is {@code null}.
+     */
+    public RecordingCursor(FlightRecorderConnection connection, long recordingId) {
+        this(connection, recordingId, BEGINNING);
+    }
+
+    /**
+     * Create a cursor at a given position in a recording.
+     * @param connection The connection to the JVM that holds the recording, not {@code null}.
+     * @param recordingId The id of the recording.
+     * @param position A value returned by {@link #getPosition()}, or {@link #BEGINNING}.
+     * @throws NullPointerException If {@code connection} is {@code null}.
+     */
+    public RecordingCursor(FlightRecorderConnection connection, long recordingId, long position) {
+        this.connection = Objects.requireNonNull(connection, "connection may not be null");
+        this.recordingId = recordingId;
+        this.position = position;
+    }
+
+    /**
+     * Get the id of the recording this cursor reads.
+     * @return The recording id.
+     */
+    public long getRecordingId() {
+        return recordingId;
+    }
+
+    /**
+     * Get the position of this cursor.
+     * @return The end time of the last chunk that was completely read, in nanoseconds since
+     * the epoch, or {@link #BEGINNING} if no chunk has been read.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Get the chunks of the recording that end after the position of this cursor. The stream is empty
+     * if there are none, or if the recording has not been started. The stream must be closed, so that
+     * the clone of a running recording is closed.
+     * @return An {@code InputStream} of the new recording data.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws IllegalStateException If there is no recording with the id of this cursor.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     */
+    public InputStream pull() throws IOException, IllegalStateException, JfrStreamingException {
+        CompositeData info = connection.getRecordingInfo(recordingId);
+        if (info == null) {
+            throw new IllegalStateException("No recording with id " + recordingId);
+        }
+        String state = (String) info.get("state");
+        if ("RUNNING".equals(state)) {
+            return pull(true);
+        } else if ("STOPPED".equals(state)) {
+            return pull(false);
+        }
+        return new PullStream(new ByteArrayInputStream(new byte[0]), -1L);
+    }
+
+    /**
+     * Get the chunks of the recording that end after the position of this cursor.
+     * @param running Whether the recording is running, in which case it is cloned.
+     * @return An {@code InputStream} of the new recording data.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     */
+    /* package scope */ InputStream pull(boolean running) throws IOException, JfrStreamingException {
+        long cloneId = running ? connection.cloneRecording(recordingId, true) : -1L;
+        try {
+            Instant startTime = position == BEGINNING ? null : Instant.ofEpochSecond(0L, position);
+            InputStream stream = connection.getStream(running ? cloneId : recordingId, startTime, null, JfrStream.getDefaultBlockSize());
+            return new PullStream(stream, cloneId);
+        } catch (JfrStreamingException e) {
+            // If the clone could not be closed, the failure is reported even when there is no data.
+            if (closeClone(cloneId, e) && FlightRecorderConnection.isNoDataAvailable(e)) {
+                return new PullStream(new ByteArrayInputStream(new byte[0]), -1L);
+            }
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            closeClone(cloneId, e);
+            throw e;
+        }
+    }
+
+    // Close the clone of a running recording after a failure, without hiding the failure.
+    // Returns false if closing the clone failed, in which case that is suppressed by the failure.
+    private boolean closeClone(long cloneId, Exception failure) {
+        if (cloneId == -1L) return true;
+        try {
+            connection.closeRecording(cloneId);
+            return true;
+        } catch (IOException | JfrStreamingException | RuntimeException e) {
+            failure.addSuppressed(e);
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingCursor[recordingId=" + recordingId + ", position=" + position + "]";
+    }
+
+    // Passes through the chunks after the position of the cursor, and moves the cursor as each chunk is read.
+    private final class PullStream extends ChunkFilterInputStream {
+
+        private final long cloneId;
+        private boolean closed = false;
+
+        PullStream(InputStream in, long cloneId) {
+            super(in, position);
+            this.cloneId = cloneId;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            position = Math.max(position, getLastCompleteEndNanos());
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                super.close();
+            } finally {
+                if (cloneId != -1L) {
+                    try {
+                        connection.closeRecording(cloneId);
+                    } catch (JfrStreamingException e) {
+                        throw new IOException(e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+}
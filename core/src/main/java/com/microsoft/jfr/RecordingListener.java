@@ -0,0 +1,26 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+/**
+ * Receives the changes in state of the recordings of a JVM, as they are reported by the notifications of
+ * the {@code FlightRecorderMXBean}. A {@code RecordingListener} is added with
+ * {@link FlightRecorderConnection#addRecordingListener(RecordingListener)}. It is told about every
+ * recording of the JVM, including recordings that were not created through this library.
+ */
+@FunctionalInterface
+public interface RecordingListener {
+
+    /**
+     * Called when a recording of the JVM is started, stopped or closed. Calls to the listeners of one
+     * {@code FlightRecorderConnection} are made one at a time, in the order the changes were reported,
+     * on a thread of this library. A listener should return quickly, and must not wait for another call
+     * to the MBean server that is made through the same connection.
+     * @param id The id of the recording.
+     * @param name The name of the recording.
+     * @param state {@link Recording.State#RECORDING} when the recording starts,
+     *              {@link Recording.State#STOPPED} when it stops, and {@link Recording.State#CLOSED}
+     *              when it is closed.
+     */
+    void recordingStateChanged(long id, String name, Recording.State state);
+}
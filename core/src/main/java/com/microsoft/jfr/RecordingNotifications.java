@@ -0,0 +1,206 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.AttributeChangeNotification;
+import javax.management.InstanceNotFoundException;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * The one {@code NotificationListener} that a {@link FlightRecorderConnection} registers with the
+ * {@code FlightRecorderMXBean}. The {@code FlightRecorderMXBean} sends an {@code AttributeChangeNotification}
+ * for the {@code Recordings} attribute each time a recording changes state, and the new value of the
+ * attribute holds the state of every recording. Each notification is compared with the states from the
+ * previous one, and the changes are applied to the {@code Recording} objects of the connection and passed
+ * on to the {@link RecordingListener}s. A recording that was in the previous notification and is missing
+ * from this one has been closed. Notifications from one MBean are delivered in order, so a recording that
+ * has not been seen in a notification yet is not taken to be closed.
+ */
+final class RecordingNotifications implements NotificationListener {
+
+    private static final String RECORDINGS = "Recordings";
+
+    // A change in state of a recording, to be passed on to the listeners.
+    private static final class Change {
+        final long id;
+        final String name;
+        final Recording.State state;
+
+        Change(long id, String name, Recording.State state) {
+            this.id = id;
+            this.name = name;
+            this.state = state;
+        }
+    }
+
+    private final FlightRecorderConnection connection;
+    private final RecordingTracker tracker;
+    private final List<RecordingListener> listeners = new CopyOnWriteArrayList<>();
+    // Listeners are called one at a time, off the thread that delivers the notification.
+    private final CallQueue dispatch = new CallQueue(JfrExecutors.getExecutor());
+    private final Object registration = new Object();
+    // The last known state and name of each recording. Guarded by this.
+    private final Map<Long, Recording.State> states = new HashMap<>();
+    private final Map<Long, String> names = new HashMap<>();
+    // Guarded by registration.
+    private boolean registered = false;
+
+    /* package scope */ RecordingNotifications(FlightRecorderConnection connection, RecordingTracker tracker) {
+        this.connection = connection;
+        this.tracker = tracker;
+    }
+
+    /**
+     * Add a listener, and register with the {@code FlightRecorderMXBean} if this is the first listener.
+     * @param listener The listener to add.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     */
+    /* package scope */ void addListener(RecordingListener listener) throws IOException, JfrStreamingException {
+        synchronized (registration) {
+            listeners.add(listener);
+            if (registered) {
+                return;
+            }
+            try {
+                connection.mBeanServerConnection.addNotificationListener(connection.objectName, this, null, null);
+            } catch (InstanceNotFoundException e) {
+                listeners.remove(listener);
+                throw new JfrStreamingException(e.getMessage(), e);
+            } catch (IOException | RuntimeException e) {
+                listeners.remove(listener);
+                throw e;
+            }
+            registered = true;
+        }
+        // Read the states after registering, so that no change falls between the read and the first notification.
+        final CompositeData[] recordings = connection.getRecordings();
+        synchronized (this) {
+            for (CompositeData recording : recordings) {
+                final Recording.State state = toState(recording);
+                if (state != null && state != Recording.State.CLOSED) {
+                    final long id = (Long) recording.get("id");
+                    if (states.putIfAbsent(id, state) == null) {
+                        names.put(id, (String) recording.get("name"));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a listener, and unregister from the {@code FlightRecorderMXBean} if this was the last listener.
+     * @param listener The listener to remove.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     */
+    /* package scope */ void removeListener(RecordingListener listener) throws IOException, JfrStreamingException {
+        synchronized (registration) {
+            if (!listeners.remove(listener) || !listeners.isEmpty() || !registered) {
+                return;
+            }
+            registered = false;
+            synchronized (this) {
+                states.clear();
+                names.clear();
+            }
+            try {
+                connection.mBeanServerConnection.removeNotificationListener(connection.objectName, this);
+            } catch (InstanceNotFoundException | ListenerNotFoundException e) {
+                throw new JfrStreamingException(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!(notification instanceof AttributeChangeNotification)) {
+            return;
+        }
+        final AttributeChangeNotification attributeChange = (AttributeChangeNotification) notification;
+        if (!RECORDINGS.equals(attributeChange.getAttributeName())
+                || !(attributeChange.getNewValue() instanceof CompositeData[])) {
+            return;
+        }
+
+        final List<Change> changes = diff((CompositeData[]) attributeChange.getNewValue());
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (Change change : changes) {
+            tracker.applyState(change.id, change.state);
+        }
+        dispatch.submit(() -> {
+            for (Change change : changes) {
+                for (RecordingListener listener : listeners) {
+                    try {
+                        listener.recordingStateChanged(change.id, change.name, change.state);
+                    } catch (RuntimeException ignored) {
+                        // One listener should not keep the others from being told.
+                    }
+                }
+            }
+            return null;
+        }, null);
+    }
+
+    // Compare the states in a notification with the last known states, and remember the new states.
+    private synchronized List<Change> diff(CompositeData[] recordings) {
+        final List<Change> changes = new ArrayList<>();
+        final Set<Long> present = new HashSet<>();
+        for (CompositeData recording : recordings) {
+            if (recording == null) {
+                continue;
+            }
+            final long id = (Long) recording.get("id");
+            final String name = (String) recording.get("name");
+            final Recording.State state = toState(recording);
+            present.add(id);
+            if (state == null) {
+                continue;
+            }
+            final Recording.State previous = state == Recording.State.CLOSED ? states.remove(id) : states.put(id, state);
+            if (state == Recording.State.CLOSED) {
+                names.remove(id);
+            } else {
+                names.put(id, name);
+            }
+            if (previous != state && !(previous == null && state == Recording.State.CLOSED)) {
+                changes.add(new Change(id, name, state));
+            }
+        }
+        for (Iterator<Map.Entry<Long, Recording.State>> it = states.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<Long, Recording.State> entry = it.next();
+            if (!present.contains(entry.getKey())) {
+                changes.add(new Change(entry.getKey(), names.remove(entry.getKey()), Recording.State.CLOSED));
+                it.remove();
+            }
+        }
+        return changes;
+    }
+
+    // Map the state of a jdk.management.jfr.RecordingInfo to a Recording.State. NEW and DELAYED are not reported.
+    /* package scope */ static Recording.State toState(CompositeData recording) {
+        final Object state = recording.get("state");
+        if ("RUNNING".equals(state)) {
+            return Recording.State.RECORDING;
+        } else if ("STOPPED".equals(state)) {
+            return Recording.State.STOPPED;
+        } else if ("CLOSED".equals(state)) {
+            return Recording.State.CLOSED;
+        }
+        return null;
+    }
+}
@@ -9,6 +9,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
 
 /**
  * Options for the recording that control maximum recording size, age and duration,
@@ -349,11 +351,29 @@ public class RecordingOptions {
         return recordingOptions;
     }
 
+    /**
+     * Get the recording options as the {@code TabularData} argument of
+     * {@code FlightRecorderMXBean#setRecordingOptions}. A {@code RecordingOptions} is immutable,
+     * so the {@code TabularData} is built on first use and reused after that.
+     * @return The recording options as open data.
+     * @throws OpenDataException Can only be raised if there is a bug in this code.
+     */
+    /* package scope */ TabularData getOpenData() throws OpenDataException {
+        TabularData data = openData;
+        if (data == null) {
+            openData = data = OpenDataUtils.makeOpenData(recordingOptions);
+        }
+        return data;
+    }
+
     // The recording options. The keys are names of recording options
     // according to FlightRecorderMXBean.  The value is a valid value for
     // the option. Options that take on default values should be absent.
     private final Map<String,String> recordingOptions;
 
+    // The recording options as open data, or null until getOpenData is first called.
+    private volatile TabularData openData;
+
     // format for FlightRecorderMXBean maxAge and duration recording options
     private static final Pattern durationPattern = Pattern.compile("([-+]?\\d+)\\s*(\\w*)");
 
@@ -0,0 +1,218 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Tracks the recordings that {@link Recording} objects of one {@link FlightRecorderConnection} have
+ * created in the JVM. A recording stays tracked until it has been closed in the JVM. If a {@code Recording}
+ * is garbage collected while one of its recordings is still tracked, the next sweep closes that recording,
+ * so that the JVM does not keep its memory and repository files for as long as the JVM runs.
+ * <p>
+ * The tracker also brings the state of its {@code Recording} objects up to date with the JVM, reading the
+ * state of all recordings with one call to the MBean server. See {@link #syncStates()}.
+ * <p>
+ * Sweeps run every {@code jfr.recording.sweep.interval} milliseconds, 60000 by default, on the executor
+ * of this library. A value of 0 turns off the periodic sweep. The periodic sweep and the periodic sync hold
+ * the tracker weakly, so they do not keep a {@code FlightRecorderConnection} that is no longer used from
+ * being garbage collected.
+ */
+final class RecordingTracker {
+
+    private static final long SWEEP_INTERVAL_MILLIS = Long.getLong("jfr.recording.sweep.interval", 60_000L);
+
+    // A recording in the JVM, and the Recording that created it. The Recording is held weakly.
+    private static final class RecordingReference extends WeakReference<Recording> {
+        final long id;
+
+        RecordingReference(Recording recording, long id, ReferenceQueue<Recording> queue) {
+            super(recording, queue);
+            this.id = id;
+        }
+    }
+
+    // Runs on the scheduler and hands the work to the executor, since it makes calls to the MBean server.
+    private static final class PeriodicTask implements Runnable {
+        private final WeakReference<RecordingTracker> tracker;
+        private final Consumer<RecordingTracker> work;
+        private volatile ScheduledFuture<?> future;
+
+        PeriodicTask(RecordingTracker tracker, Consumer<RecordingTracker> work) {
+            this.tracker = new WeakReference<>(tracker);
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            final RecordingTracker recordingTracker = tracker.get();
+            if (recordingTracker == null) {
+                cancel();
+                return;
+            }
+            JfrExecutors.getExecutor().execute(() -> work.accept(recordingTracker));
+        }
+
+        void cancel() {
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private final FlightRecorderConnection connection;
+    private final ReferenceQueue<Recording> queue = new ReferenceQueue<>();
+    private final Map<Long, RecordingReference> tracked = new ConcurrentHashMap<>();
+    private volatile boolean sweeping = false;
+    private PeriodicTask syncTask = null;
+
+    /* package scope */ RecordingTracker(FlightRecorderConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Track a recording that was created in the JVM for the given {@code Recording}.
+     * @param recording The {@code Recording} that created the recording.
+     * @param id The id of the recording in the JVM.
+     */
+    /* package scope */ void track(Recording recording, long id) {
+        tracked.put(id, new RecordingReference(recording, id, queue));
+        if (!sweeping && SWEEP_INTERVAL_MILLIS > 0) {
+            startSweeping();
+        }
+    }
+
+    /**
+     * Stop tracking a recording, once it has been closed in the JVM.
+     * @param id The id of the recording in the JVM.
+     */
+    /* package scope */ void untrack(long id) {
+        RecordingReference reference = tracked.remove(id);
+        if (reference != null) {
+            reference.clear();
+        }
+    }
+
+    /**
+     * Get the ids of the recordings that are tracked.
+     * @return The ids of the recordings that have not been closed.
+     */
+    /* package scope */ Set<Long> getTracked() {
+        return Collections.unmodifiableSet(new HashSet<>(tracked.keySet()));
+    }
+
+    /**
+     * Close the tracked recordings whose {@code Recording} has been garbage collected. A recording that
+     * cannot be closed, for example because the connection to the MBean server is down, is no longer tracked.
+     * @return The number of recordings that were closed.
+     */
+    /* package scope */ int sweep() {
+        int closed = 0;
+        Reference<? extends Recording> reference;
+        while ((reference = queue.poll()) != null) {
+            final RecordingReference recordingReference = (RecordingReference) reference;
+            if (tracked.remove(recordingReference.id, recordingReference)) {
+                try {
+                    connection.closeRecording(recordingReference.id);
+                    closed++;
+                } catch (Exception ignored) {
+                    // The recording may have been closed by someone else, or the JVM may be gone.
+                }
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Update the state of each {@code Recording} whose recording is tracked from the state of its recording
+     * in the JVM, which is read with one call to the MBean server. A recording that the JVM no longer has is
+     * no longer tracked.
+     * @throws IOException A communication problem occurred when talking to the MBean server.
+     * @throws JfrStreamingException Wraps a {@code javax.management.JMException}.
+     */
+    /* package scope */ void syncStates() throws IOException, JfrStreamingException {
+        // Only recordings that were tracked before the read are synced, since a recording started
+        // after the read would be missing from it.
+        final List<RecordingReference> references = new ArrayList<>(tracked.values());
+        if (references.isEmpty()) {
+            return;
+        }
+        final Map<Long, Recording.State> states = new HashMap<>();
+        for (CompositeData recording : connection.getRecordings()) {
+            if (recording != null) {
+                states.put((Long) recording.get("id"), RecordingNotifications.toState(recording));
+            }
+        }
+        for (RecordingReference reference : references) {
+            // A recording the JVM no longer has was closed.
+            applyState(reference.id, states.containsKey(reference.id) ? states.get(reference.id) : Recording.State.CLOSED);
+        }
+    }
+
+    /**
+     * Update the state of the {@code Recording} of a tracked recording from the state of the recording in the JVM.
+     * A recording that was closed in the JVM is no longer tracked.
+     * @param id The id of the recording in the JVM.
+     * @param state The state of the recording in the JVM, or {@code null} if it is not one a {@code Recording} can take.
+     */
+    /* package scope */ void applyState(long id, Recording.State state) {
+        final RecordingReference reference = tracked.get(id);
+        final Recording recording = reference != null ? reference.get() : null;
+        if (recording == null || state == null) {
+            return;
+        }
+        if (recording.syncState(id, state) && state == Recording.State.CLOSED) {
+            untrack(id);
+        }
+    }
+
+    /**
+     * Call {@link #syncStates()} periodically on the executor of this library.
+     * @param intervalNanos The time between syncs, or {@code 0} to stop syncing.
+     */
+    /* package scope */ synchronized void syncEvery(long intervalNanos) {
+        if (syncTask != null) {
+            syncTask.cancel();
+            syncTask = null;
+        }
+        if (intervalNanos > 0) {
+            syncTask = schedule(intervalNanos, tracker -> {
+                try {
+                    tracker.syncStates();
+                } catch (IOException | JfrStreamingException ignored) {
+                    // Try again at the next interval.
+                }
+            });
+        }
+    }
+
+    private synchronized void startSweeping() {
+        if (sweeping) {
+            return;
+        }
+        sweeping = true;
+        schedule(TimeUnit.MILLISECONDS.toNanos(SWEEP_INTERVAL_MILLIS), RecordingTracker::sweep);
+    }
+
+    private PeriodicTask schedule(long intervalNanos, Consumer<RecordingTracker> work) {
+        final PeriodicTask task = new PeriodicTask(this, work);
+        task.future = JfrExecutors.getScheduler()
+                .scheduleWithFixedDelay(task, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        return task;
+    }
+}
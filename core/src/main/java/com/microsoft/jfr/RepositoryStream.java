@@ -0,0 +1,123 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * An {@code InputStream} over the chunk files of a recording that were mapped from the disk repository
+ * of the JVM. The chunks are read in order, straight from the mapped memory. Closing the stream drops the
+ * mappings, which are released when they are garbage collected.
+ *
+ * @see LocalRepository
+ */
+final class RepositoryStream extends InputStream {
+
+    private List<ByteBuffer> chunks;
+    private int index = 0;
+
+    /* package scope */ RepositoryStream(List<ByteBuffer> chunks) {
+        this.chunks = chunks;
+    }
+
+    // The chunk being read, or null at the end of the stream.
+    private ByteBuffer current() throws IOException {
+        if (chunks == null) {
+            throw new IOException("Stream closed");
+        }
+        while (index < chunks.size()) {
+            final ByteBuffer chunk = chunks.get(index);
+            if (chunk.hasRemaining()) {
+                return chunk;
+            }
+            // Drop the mapping of a chunk once it has been read.
+            chunks.set(index++, null);
+        }
+        return null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final ByteBuffer chunk = current();
+        return chunk != null ? chunk.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        final ByteBuffer chunk = current();
+        if (chunk == null) {
+            return -1;
+        }
+        final int n = Math.min(len, chunk.remaining());
+        chunk.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0L;
+        ByteBuffer chunk;
+        while (skipped < n && (chunk = current()) != null) {
+            final int step = (int) Math.min(n - skipped, chunk.remaining());
+            chunk.position(chunk.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        final ByteBuffer chunk = current();
+        return chunk != null ? chunk.remaining() : 0;
+    }
+
+    /**
+     * Reads all remaining bytes from this stream and writes them to the given channel. Each mapped chunk
+     * is written to the channel as is, without being copied into an intermediate buffer.
+     * @param channel The channel to write to, not {@code null}.
+     * @return The number of bytes transferred.
+     * @throws IOException An error occurred writing to {@code channel}.
+     */
+    public long transferTo(WritableByteChannel channel) throws IOException {
+        long transferred = 0L;
+        ByteBuffer chunk;
+        while ((chunk = current()) != null) {
+            transferred += channel.write(chunk);
+        }
+        return transferred;
+    }
+
+    /**
+     * Reads all remaining bytes from this stream and writes them to the given output stream.
+     * On Java 9 and higher, this method overrides {@code InputStream#transferTo}.
+     * @param out The output stream, not {@code null}.
+     * @return The number of bytes transferred.
+     * @throws IOException An error occurred writing to {@code out}.
+     */
+    public long transferTo(OutputStream out) throws IOException {
+        final byte[] buffer = new byte[(int) Math.min(JfrStream.getDefaultBlockSize(), Integer.MAX_VALUE)];
+        long transferred = 0L;
+        int n;
+        while ((n = read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, n);
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    @Override
+    public void close() {
+        chunks = null;
+    }
+}
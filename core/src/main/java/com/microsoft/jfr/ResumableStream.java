@@ -0,0 +1,151 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Instant;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+
+/**
+ * A recording stream that survives the failure of the connection to the MBean server.
+ * <p>
+ * The stream keeps track of the end time of the last chunk it returned completely, and of how many
+ * bytes of the current chunk it has returned. When a read fails with an {@code IOException}, the stream
+ * asks the {@link Reconnector} for a new connection and opens the recording again, starting at the end
+ * of the last complete chunk. The bytes of the current chunk that were already returned are skipped, so
+ * the caller sees the data continue without a gap or a duplicated byte. A stream gives up after
+ * {@code maxRetries} consecutive failures, and rethrows the last exception.
+ */
+class ResumableStream extends InputStream {
+
+    private final long id;
+    private final Instant startTime;
+    private final Instant endTime;
+    private final long blockSize;
+    private final Reconnector reconnector;
+    private final int maxRetries;
+
+    private ChunkFilterInputStream current;
+    // The number of bytes returned by this stream.
+    private long position = 0L;
+    // The number of failures since the last successful read.
+    private int failures = 0;
+    private boolean closed = false;
+
+    /* package scope */ ResumableStream(FlightRecorderConnection connection, long id, Instant startTime, Instant endTime,
+                                        long blockSize, Reconnector reconnector, int maxRetries)
+            throws IOException, JfrStreamingException {
+        this.id = id;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.blockSize = blockSize;
+        this.reconnector = reconnector;
+        this.maxRetries = maxRetries;
+        this.current = new ChunkFilterInputStream(connection.getStream(id, startTime, endTime, blockSize), Long.MIN_VALUE);
+    }
+
+    /**
+     * Get the number of bytes that have been read from this stream.
+     * @return The offset of the next byte in the recording data.
+     */
+    /* package scope */ long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + b.length);
+        }
+        if (closed) return -1;
+        if (len == 0) return 0;
+        while (true) {
+            try {
+                int n = current.read(b, off, len);
+                failures = 0;
+                if (n > 0) position += n;
+                return n;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                resume(e);
+            }
+        }
+    }
+
+    // Open the recording again on a new connection, and skip to where the failed stream stopped.
+    private void resume(IOException cause) throws IOException {
+        long lastEndNanos = current.getLastCompleteEndNanos();
+        ChunkHeader partialChunk = current.getCurrentChunk();
+        long partialBytes = current.getChunkPosition();
+        while (true) {
+            if (++failures > maxRetries) {
+                throw cause;
+            }
+            try {
+                current.close();
+            } catch (IOException ignored) {
+                // The old connection is not expected to work.
+            }
+            try {
+                reopen(cause, lastEndNanos, partialChunk, partialBytes);
+                return;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                e.addSuppressed(cause);
+                cause = e;
+            }
+        }
+    }
+
+    private void reopen(IOException cause, long lastEndNanos, ChunkHeader partialChunk, long partialBytes) throws IOException {
+        MBeanServerConnection mBeanServerConnection = reconnector.reconnect(cause);
+        try {
+            FlightRecorderConnection connection = FlightRecorderConnection.connect(mBeanServerConnection);
+            Instant resumeTime = lastEndNanos == Long.MIN_VALUE ? startTime : Instant.ofEpochSecond(0L, lastEndNanos);
+            current = new ChunkFilterInputStream(connection.getStream(id, resumeTime, endTime, blockSize), lastEndNanos);
+        } catch (InstanceNotFoundException | JfrStreamingException e) {
+            throw new IOException("Could not resume stream at offset " + position + ": " + e.getMessage(), e);
+        }
+
+        if (partialBytes > 0L) {
+            byte[] skipped = new byte[(int) Math.min(partialBytes, 8192L)];
+            long remaining = partialBytes;
+            while (remaining > 0L) {
+                int n = current.read(skipped, 0, (int) Math.min(skipped.length, remaining));
+                if (n < 0) {
+                    throw new EOFException("Recording data ended while resuming at offset " + position);
+                }
+                remaining -= n;
+            }
+            ChunkHeader chunk = current.getCurrentChunk();
+            if (chunk == null || chunk.getStartNanos() != partialChunk.getStartNanos()
+                    || chunk.getChunkSize() != partialChunk.getChunkSize()) {
+                throw new IOException("Recording data changed while resuming at offset " + position);
+            }
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return closed ? 0 : current.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        current.close();
+    }
+}
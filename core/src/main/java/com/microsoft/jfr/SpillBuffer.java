@@ -0,0 +1,427 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds recording data so that it can be read more than once, and from any position, without keeping
+ * it all in the heap. The first {@code memoryLimit} bytes written are kept in direct {@code ByteBuffer}s,
+ * outside the heap. The rest is written to a temporary file, which is deleted when the buffer is closed.
+ * However large the recording, the heap holds only the bookkeeping of the buffer.
+ * <p>
+ * Memory is taken in segments of {@link #SEGMENT_SIZE} bytes, so a {@code memoryLimit} that is not a multiple
+ * of {@code SEGMENT_SIZE} is rounded down. Segments come from a pool shared by all {@code SpillBuffer}s, and
+ * go back to the pool when the buffer is closed and no read is in progress. The pool keeps up to
+ * {@code jfr.spill.pool.size} bytes, 16 MiB by default.
+ * <p>
+ * Data is added with {@link #write(ByteBuffer)} or {@link #transferFrom(InputStream)}, which are not
+ * thread-safe. Once written, the data can be read by any number of threads at a time, each through its own
+ * {@link #newInputStream()} or {@link #newChannel()}, or with {@link #read(long, ByteBuffer)}.
+ * <pre>{@code
+ * try (SpillBuffer buffer = recording.getSpillBuffer(null, null, 64 * 1024 * 1024)) {
+ *     parse(buffer.newInputStream());
+ *     upload(buffer.newChannel());
+ * }
+ * }</pre>
+ */
+public final class SpillBuffer implements WritableByteChannel {
+
+    /** The size of the segments of memory that hold the data, in bytes. */
+    public static final int SEGMENT_SIZE = 64 * 1024;
+
+    private static final long POOL_SIZE = Long.getLong("jfr.spill.pool.size", 16L * 1024 * 1024);
+
+    // Direct buffers of SEGMENT_SIZE bytes that are not in use.
+    private static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private final long memoryCapacity;
+    private final Path directory;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private FileChannel file = null;
+    private volatile long size = 0L;
+    private volatile boolean closed = false;
+
+    // The number of reads in progress. The pool hands released segments to other buffers, so the segments
+    // of a closed buffer are released by whichever of close and the last read finishes later.
+    private final AtomicInteger readers = new AtomicInteger();
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * Create a {@code SpillBuffer} that writes the data beyond {@code memoryLimit} bytes to a temporary
+     * file in the default temporary-file directory.
+     * @param memoryLimit The number of bytes to hold in memory, not negative.
+     * @throws IllegalArgumentException If {@code memoryLimit} is negative.
+     */
+    public SpillBuffer(long memoryLimit) {
+        this(memoryLimit, null);
+    }
+
+    /**
+     * Create a {@code SpillBuffer} that writes the data beyond {@code memoryLimit} bytes to a temporary
+     * file in the given directory.
+     * @param memoryLimit The number of bytes to hold in memory, not negative.
+     * @param directory The directory for the temporary file, or {@code null} for the default temporary-file directory.
+     * @throws IllegalArgumentException If {@code memoryLimit} is negative.
+     */
+    public SpillBuffer(long memoryLimit, Path directory) {
+        if (memoryLimit < 0) {
+            throw new IllegalArgumentException("memoryLimit: " + memoryLimit + " < 0");
+        }
+        this.memoryCapacity = memoryLimit - memoryLimit % SEGMENT_SIZE;
+        this.directory = directory;
+    }
+
+    /**
+     * Get the number of bytes written to this buffer.
+     * @return The size of the data.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Get the number of bytes held in memory. The rest of the data is in the temporary file.
+     * @return The number of bytes of the data held in memory.
+     */
+    public long getMemorySize() {
+        return Math.min(size, memoryCapacity);
+    }
+
+    /**
+     * Append the remaining bytes of {@code src} to this buffer.
+     * @param src The bytes to append.
+     * @return The number of bytes appended, which is all of them.
+     * @throws IOException An error occurred writing the temporary file, or this buffer is closed.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        int written = 0;
+        while (src.hasRemaining()) {
+            final long position = size;
+            final int n;
+            if (position < memoryCapacity) {
+                final int index = (int) (position / SEGMENT_SIZE);
+                final int offset = (int) (position % SEGMENT_SIZE);
+                if (index == segments.size()) {
+                    segments.add(acquire());
+                }
+                n = Math.min(src.remaining(), SEGMENT_SIZE - offset);
+                final ByteBuffer from = src.duplicate();
+                from.limit(from.position() + n);
+                final ByteBuffer to = segments.get(index).duplicate();
+                to.position(offset);
+                to.put(from);
+                src.position(src.position() + n);
+            } else {
+                n = spillFile().write(src, position - memoryCapacity);
+            }
+            size = position + n;
+            written += n;
+        }
+        return written;
+    }
+
+    /**
+     * Append the rest of an {@code InputStream} to this buffer. The stream is not closed. A stream returned by
+     * {@link Recording#getStream(Instant, Instant)} or {@link Recording#getRepositoryStream(Instant, Instant)}
+     * writes its blocks straight into this buffer.
+     * @param in The stream to read, not {@code null}.
+     * @return The number of bytes appended.
+     * @throws IOException An error occurred reading {@code in} or writing the temporary file, or this buffer is closed.
+     */
+    public long transferFrom(InputStream in) throws IOException {
+        if (in instanceof JfrStream) {
+            return ((JfrStream) in).transferTo(this);
+        } else if (in instanceof RepositoryStream) {
+            return ((RepositoryStream) in).transferTo(this);
+        }
+        final byte[] block = new byte[(int) Math.min(JfrStream.getDefaultBlockSize(), SEGMENT_SIZE)];
+        long transferred = 0L;
+        int n;
+        while ((n = in.read(block, 0, block.length)) != -1) {
+            write(ByteBuffer.wrap(block, 0, n));
+            transferred += n;
+        }
+        return transferred;
+    }
+
+    /**
+     * Read bytes of this buffer, starting at {@code position}, into {@code dst}.
+     * @param position The position in this buffer of the first byte to read.
+     * @param dst The buffer to read into.
+     * @return The number of bytes read, or {@code -1} if {@code position} is at or beyond the end of the data.
+     * @throws IOException An error occurred reading the temporary file, or this buffer is closed.
+     * @throws IllegalArgumentException If {@code position} is negative.
+     */
+    public int read(long position, ByteBuffer dst) throws IOException {
+        readers.incrementAndGet();
+        try {
+            ensureOpen();
+            if (position < 0) {
+                throw new IllegalArgumentException("position: " + position + " < 0");
+            }
+            final long end = size;
+            if (position >= end) {
+                return -1;
+            }
+            int read = 0;
+            while (dst.hasRemaining() && position < end) {
+                final int n;
+                if (position < memoryCapacity) {
+                    final int offset = (int) (position % SEGMENT_SIZE);
+                    n = (int) Math.min(Math.min(dst.remaining(), SEGMENT_SIZE - offset), end - position);
+                    final ByteBuffer from = segments.get((int) (position / SEGMENT_SIZE)).duplicate();
+                    from.limit(offset + n);
+                    from.position(offset);
+                    dst.put(from);
+                } else {
+                    n = file.read(dst, position - memoryCapacity);
+                    if (n < 0) {
+                        break;
+                    }
+                }
+                position += n;
+                read += n;
+            }
+            return read;
+        } finally {
+            if (readers.decrementAndGet() == 0 && closed) {
+                releaseSegments();
+            }
+        }
+    }
+
+    /**
+     * Get a new {@code InputStream} that reads this buffer from the start. Each stream has its own position.
+     * Closing the stream does not close this buffer.
+     * @return An {@code InputStream} of the data in this buffer.
+     */
+    public InputStream newInputStream() {
+        return new SpillInputStream();
+    }
+
+    /**
+     * Get a new read-only {@code SeekableByteChannel} over this buffer, positioned at the start. Each channel
+     * has its own position. Closing the channel does not close this buffer.
+     * @return A {@code SeekableByteChannel} of the data in this buffer.
+     */
+    public SeekableByteChannel newChannel() {
+        return new SpillChannel();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Return the memory of this buffer to the pool, and delete the temporary file. Reads that start after this
+     * method is called throw {@code ClosedChannelException}. Reads already in progress may complete, or may throw
+     * if they reach the temporary file, and the memory goes back to the pool when the last of them returns.
+     * @throws IOException An error occurred deleting the temporary file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (readers.get() == 0) {
+            releaseSegments();
+        }
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    private void releaseSegments() {
+        if (released.compareAndSet(false, true)) {
+            segments.forEach(SpillBuffer::release);
+            segments.clear();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    private FileChannel spillFile() throws IOException {
+        if (file == null) {
+            final Path path = directory != null
+                    ? Files.createTempFile(directory, "jfr-spill", ".tmp")
+                    : Files.createTempFile("jfr-spill", ".tmp");
+            try {
+                file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(path);
+                throw e;
+            }
+        }
+        return file;
+    }
+
+    private static ByteBuffer acquire() {
+        final ByteBuffer segment = POOL.poll();
+        if (segment == null) {
+            return ByteBuffer.allocateDirect(SEGMENT_SIZE);
+        }
+        POOLED.decrementAndGet();
+        return segment;
+    }
+
+    private static void release(ByteBuffer segment) {
+        int pooled;
+        do {
+            pooled = POOLED.get();
+            if ((pooled + 1L) * SEGMENT_SIZE > POOL_SIZE) {
+                // The pool is full. The segment is freed when it is garbage collected.
+                return;
+            }
+        } while (!POOLED.compareAndSet(pooled, pooled + 1));
+        segment.clear();
+        POOL.offer(segment);
+    }
+
+    // The number of segments in the pool, for testing.
+    /* package scope */ static int getPooledSegments() {
+        return POOLED.get();
+    }
+
+    // An InputStream with its own position in the buffer.
+    private final class SpillInputStream extends InputStream {
+        private long position = 0L;
+        private long mark = 0L;
+        private final byte[] one = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return 0;
+            }
+            final int n = SpillBuffer.this.read(position, ByteBuffer.wrap(b, off, len));
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            final long skipped = Math.max(0L, Math.min(n, size - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0L, size - position));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readlimit) {
+            mark = position;
+        }
+
+        @Override
+        public void reset() {
+            position = mark;
+        }
+    }
+
+    // A read-only SeekableByteChannel with its own position in the buffer.
+    private final class SpillChannel implements SeekableByteChannel {
+        private long position = 0L;
+        private boolean open = true;
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ensureChannelOpen();
+            final int n = SpillBuffer.this.read(position, dst);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            ensureChannelOpen();
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) throws IOException {
+            ensureChannelOpen();
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("position: " + newPosition + " < 0");
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            ensureChannelOpen();
+            return size;
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open && !closed;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        private void ensureChannelOpen() throws IOException {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Follows a recording that is still running, in the manner of {@code tail -f}.
+ * <p>
+ * Each poll pulls the chunks that were completed since the previous poll from a {@link RecordingCursor}.
+ * The {@code FlightRecorderMXBean} can only stream a stopped recording, so the cursor clones the running
+ * recording with {@code stop=true}, which makes the JVM finish the chunk it is writing.
+ * <p>
+ * Polls are at least {@code pollInterval} apart. Reading blocks until a poll returns new data. Each poll reads
+ * the state of the recording in the JVM, so a recording the JVM stops on its own, at the end of its
+ * {@code duration}, or that is closed elsewhere, ends the stream too. The stream ends after the first poll
+ * that finds the recording is no longer running, which reads whatever the recording still holds beyond the
+ * last chunk, or nothing if the recording was closed.
+ */
+class TailingStream extends InputStream {
+
+    private final Recording recording;
+    private final FlightRecorderConnection connection;
+    private final RecordingCursor cursor;
+    private final long pollIntervalNanos;
+
+    // The data of the current poll, or null between polls.
+    private InputStream current = null;
+    private long nextPollNanos;
+    private boolean lastPoll = false;
+    private boolean finished = false;
+    private boolean closed = false;
+
+    /* package scope */ TailingStream(Recording recording, FlightRecorderConnection connection, long pollIntervalNanos) {
+        this.recording = recording;
+        this.connection = connection;
+        this.cursor = new RecordingCursor(connection, recording.getId());
+        this.pollIntervalNanos = pollIntervalNanos;
+        this.nextPollNanos = System.nanoTime();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + b.length);
+        }
+        if (len == 0) return 0;
+        while (!closed && !finished) {
+            if (current != null) {
+                int n = current.read(b, off, len);
+                if (n != -1) return n;
+                endPoll();
+                if (lastPoll) finished = true;
+            } else {
+                awaitNextPoll();
+                poll();
+            }
+        }
+        return -1;
+    }
+
+    private void awaitNextPoll() throws IOException {
+        long delay = nextPollNanos - System.nanoTime();
+        if (delay > 0L) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the next poll");
+            }
+        }
+        nextPollNanos = System.nanoTime() + pollIntervalNanos;
+    }
+
+    private void poll() throws IOException {
+        try {
+            syncState();
+            Recording.State state = recording.getState();
+            if (state != Recording.State.RECORDING && state != Recording.State.STOPPED) {
+                finished = true;
+                return;
+            }
+            lastPoll = state == Recording.State.STOPPED;
+            current = pull();
+        } catch (JfrStreamingException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    // The recording may be closed between reading its state and pulling from it. That ends the stream
+    // rather than failing it.
+    private InputStream pull() throws IOException, JfrStreamingException {
+        try {
+            return cursor.pull(!lastPoll);
+        } catch (IOException | JfrStreamingException | RuntimeException e) {
+            try {
+                syncState();
+            } catch (IOException | JfrStreamingException | RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+                throw e;
+            }
+            if (recording.getState() != Recording.State.CLOSED) {
+                throw e;
+            }
+            finished = true;
+            return null;
+        }
+    }
+
+    // Bring the state of the Recording up to date with the recording in the JVM, which may have stopped
+    // at the end of its duration, or been closed by another client.
+    private void syncState() throws IOException, JfrStreamingException {
+        Recording.State state = recording.getState();
+        if (state != Recording.State.RECORDING && state != Recording.State.STOPPED) {
+            return;
+        }
+        final CompositeData info = connection.getRecordingInfo(recording.getId());
+        connection.getRecordingTracker().applyState(recording.getId(),
+                info != null ? RecordingNotifications.toState(info) : Recording.State.CLOSED);
+    }
+
+    // Close the stream of the current poll, which closes the clone of the recording.
+    private void endPoll() throws IOException {
+        if (current != null) {
+            try {
+                current.close();
+            } finally {
+                current = null;
+            }
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current != null ? current.available() : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        endPoll();
+    }
+}
@@ -0,0 +1,51 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.time.Duration;
+
+/**
+ * The outcome of copying recording data to a local destination, such as by
+ * {@link Recording#streamTo(java.nio.file.Path)}.
+ */
+public final class TransferStatistics {
+
+    private final long bytes;
+    private final Duration elapsed;
+
+    /* package scope */ TransferStatistics(long bytes, Duration elapsed) {
+        this.bytes = bytes;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * Get the number of bytes that were written.
+     * @return The number of bytes written.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Get the time taken by the transfer, from opening the stream until the data was written.
+     * @return The elapsed time of the transfer.
+     */
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * Get the average throughput of the transfer.
+     * @return The number of bytes written per second, or {@code 0} if no time elapsed.
+     */
+    public double getBytesPerSecond() {
+        long nanos = elapsed.toNanos();
+        return nanos > 0L ? bytes * 1e9d / nanos : 0d;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d bytes in %d ms (%.1f MB/s)",
+                bytes, elapsed.toMillis(), getBytesPerSecond() / (1024d * 1024d));
+    }
+}
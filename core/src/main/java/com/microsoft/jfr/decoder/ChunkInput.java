@@ -0,0 +1,184 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr.decoder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The bytes of one chunk, and a position in them. The array is kept from one chunk to the next, and only
+ * grows when a chunk is larger than any before it. Integers are either LEB128-style variable length, if
+ * the chunk header has the compressed integers flag set, or fixed size and big-endian.
+ */
+final class ChunkInput {
+
+    // String encodings.
+    static final byte STRING_NULL = 0;
+    static final byte STRING_EMPTY = 1;
+    static final byte STRING_CONSTANT_POOL = 2;
+    static final byte STRING_UTF8 = 3;
+    static final byte STRING_CHAR_ARRAY = 4;
+    static final byte STRING_LATIN1 = 5;
+
+    private byte[] bytes = new byte[0];
+    private int limit = 0;
+    private boolean compressedIntegers = true;
+
+    /** The position of the next byte to read. */
+    int position = 0;
+
+    /**
+     * Read a chunk into this input.
+     * @param in The bytes of the chunk.
+     * @param size The size of the chunk.
+     * @param compressedIntegers Whether integers in the chunk are variable length.
+     * @throws IOException An error occurred reading {@code in}, or it ended before {@code size} bytes.
+     */
+    void load(InputStream in, long size, boolean compressedIntegers) throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Chunk too large to decode: " + size + " bytes");
+        }
+        if (bytes.length < size) {
+            bytes = new byte[(int) size];
+        }
+        int total = 0;
+        while (total < size) {
+            int n = in.read(bytes, total, (int) size - total);
+            if (n < 0) {
+                throw new EOFException("Truncated chunk: " + (size - total) + " bytes missing");
+            }
+            total += n;
+        }
+        this.limit = (int) size;
+        this.compressedIntegers = compressedIntegers;
+        this.position = 0;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    byte readByte() throws IOException {
+        if (position >= limit) {
+            throw new EOFException("Read past the end of the chunk at " + position);
+        }
+        return bytes[position++];
+    }
+
+    boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    short readShort() throws IOException {
+        return compressedIntegers ? (short) readVarLong() : (short) readFixed(2);
+    }
+
+    char readChar() throws IOException {
+        return compressedIntegers ? (char) readVarLong() : (char) readFixed(2);
+    }
+
+    int readInt() throws IOException {
+        return compressedIntegers ? (int) readVarLong() : (int) readFixed(4);
+    }
+
+    long readLong() throws IOException {
+        return compressedIntegers ? readVarLong() : readFixed(8);
+    }
+
+    float readFloat() throws IOException {
+        return Float.intBitsToFloat((int) readFixed(4));
+    }
+
+    double readDouble() throws IOException {
+        return Double.longBitsToDouble(readFixed(8));
+    }
+
+    // Up to eight bytes of seven bits each, least significant first, and a ninth byte of eight bits.
+    private long readVarLong() throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 56; shift += 7) {
+            final byte b = readByte();
+            value |= (b & 0x7FL) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        return value | (readByte() & 0xFFL) << 56;
+    }
+
+    private long readFixed(int size) throws IOException {
+        if (position + size > limit) {
+            throw new EOFException("Read past the end of the chunk at " + position);
+        }
+        long value = 0L;
+        for (int n = 0; n < size; n++) {
+            value = (value << 8) | (bytes[position++] & 0xFFL);
+        }
+        return value;
+    }
+
+    void skip(int n) throws IOException {
+        if (position + n > limit) {
+            throw new EOFException("Read past the end of the chunk at " + position);
+        }
+        position += n;
+    }
+
+    /**
+     * Read a string that is not a constant pool reference.
+     * @param encoding The encoding byte, which has already been read.
+     * @return The string, which is {@code null} for {@link #STRING_NULL}.
+     * @throws IOException The encoding is not known, or the string runs past the end of the chunk.
+     */
+    String readString(byte encoding) throws IOException {
+        switch (encoding) {
+            case STRING_NULL:
+                return null;
+            case STRING_EMPTY:
+                return "";
+            case STRING_UTF8:
+            case STRING_LATIN1: {
+                final int length = readInt();
+                skip(length);
+                return new String(bytes, position - length, length,
+                        encoding == STRING_UTF8 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+            }
+            case STRING_CHAR_ARRAY: {
+                final int length = readInt();
+                final char[] chars = new char[length];
+                for (int n = 0; n < length; n++) {
+                    chars[n] = readChar();
+                }
+                return new String(chars);
+            }
+            default:
+                throw new IOException("Unknown string encoding " + encoding + " at " + (position - 1));
+        }
+    }
+
+    /**
+     * Skip a string that is not a constant pool reference.
+     * @param encoding The encoding byte, which has already been read.
+     * @throws IOException The encoding is not known, or the string runs past the end of the chunk.
+     */
+    void skipString(byte encoding) throws IOException {
+        switch (encoding) {
+            case STRING_NULL:
+            case STRING_EMPTY:
+                return;
+            case STRING_UTF8:
+            case STRING_LATIN1:
+                skip(readInt());
+                return;
+            case STRING_CHAR_ARRAY:
+                for (int n = readInt(); n > 0; n--) {
+                    readChar();
+                }
+                return;
+            default:
+                throw new IOException("Unknown string encoding " + encoding + " at " + (position - 1));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr.decoder;
+
+import java.io.IOException;
+
+/**
+ * The constants of one type in a chunk. A constant is kept as the offset in the chunk of its value,
+ * which is decoded when a cursor reads it. Strings are decoded the first time they are read, and kept,
+ * so reading the same string constant again does not allocate.
+ */
+final class ConstantPool {
+
+    private final LongIntMap offsets = new LongIntMap();
+    private String[] strings = null;
+
+    /**
+     * Add a constant, unless the pool already has one with the same key. Constant pools are read from
+     * the last one in the chunk to the first, so the constant that is kept is the latest one.
+     * @param key The key of the constant.
+     * @param offset The offset in the chunk of the value of the constant.
+     */
+    void add(long key, int offset) {
+        if (offsets.get(key) == LongIntMap.MISSING) {
+            offsets.put(key, offset);
+            strings = null;
+        }
+    }
+
+    /**
+     * Get the offset of the value of a constant.
+     * @param key The key of the constant.
+     * @return The offset in the chunk of the value, or {@link LongIntMap#MISSING} if there is no such constant.
+     */
+    int offsetOf(long key) {
+        return offsets.get(key);
+    }
+
+    /**
+     * Get a string constant.
+     * @param key The key of the constant.
+     * @param input The chunk.
+     * @return The string, or {@code null} if there is no such constant.
+     * @throws IOException The constant is not a valid string.
+     */
+    String getString(long key, ChunkInput input) throws IOException {
+        final int slot = offsets.slotOf(key);
+        if (slot == LongIntMap.MISSING) {
+            return null;
+        }
+        if (strings == null) {
+            strings = new String[offsets.capacity()];
+        }
+        String string = strings[slot];
+        if (string == null) {
+            final int position = input.position;
+            input.position = offsets.valueAt(slot);
+            final byte encoding = input.readByte();
+            if (encoding == ChunkInput.STRING_CONSTANT_POOL) {
+                throw new IOException("String constant " + key + " refers to another constant");
+            }
+            string = input.readString(encoding);
+            input.position = position;
+            strings[slot] = string;
+        }
+        return string;
+    }
+}
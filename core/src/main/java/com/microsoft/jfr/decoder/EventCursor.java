@@ -0,0 +1,82 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr.decoder;
+
+import java.io.IOException;
+
+/**
+ * A view of the event that is being visited. The {@link JfrEventDecoder} passes the same
+ * {@code EventCursor} to {@link EventVisitor#visit(EventCursor)} for every event, pointed at the next
+ * event each time, so the cursor, and anything read through it, must not be kept after {@code visit}
+ * returns. Copy out the values that are needed instead. Timestamps are in ticks, the unit of the clock
+ * the JVM recorded with, which is converted to nanoseconds with the tick rate of the chunk.
+ */
+public final class EventCursor extends ValueCursor {
+
+    private long chunkStartNanos = 0L;
+    private long chunkStartTicks = 0L;
+    private long ticksPerSecond = 1_000_000_000L;
+
+    /* package scope */ EventCursor() {
+    }
+
+    /* package scope */ void setChunk(long chunkStartNanos, long chunkStartTicks, long ticksPerSecond) {
+        this.chunkStartNanos = chunkStartNanos;
+        this.chunkStartTicks = chunkStartTicks;
+        this.ticksPerSecond = ticksPerSecond > 0 ? ticksPerSecond : 1_000_000_000L;
+    }
+
+    /**
+     * Get the type of the event.
+     * @return The event type.
+     */
+    public JfrType getEventType() {
+        return getType();
+    }
+
+    /**
+     * Get the time the event started, or the time of an instant event.
+     * @return The value of the {@code startTime} field, in ticks.
+     * @throws IOException The value runs past the end of the chunk.
+     */
+    public long getStartTicks() throws IOException {
+        final int field = getType().getStartTimeField();
+        return field >= 0 ? getLong(field) : chunkStartTicks;
+    }
+
+    /**
+     * Get the duration of the event.
+     * @return The value of the {@code duration} field, in ticks, or 0 if the event does not have one.
+     * @throws IOException The value runs past the end of the chunk.
+     */
+    public long getDurationTicks() throws IOException {
+        final int field = getType().getDurationField();
+        return field >= 0 ? getLong(field) : 0L;
+    }
+
+    /**
+     * Get the time the event started.
+     * @return The start of the event, in nanoseconds since the epoch.
+     * @throws IOException The value runs past the end of the chunk.
+     */
+    public long getStartNanos() throws IOException {
+        return chunkStartNanos + ticksToNanos(getStartTicks() - chunkStartTicks);
+    }
+
+    /**
+     * Get the duration of the event.
+     * @return The duration of the event, in nanoseconds.
+     * @throws IOException The value runs past the end of the chunk.
+     */
+    public long getDurationNanos() throws IOException {
+        return ticksToNanos(getDurationTicks());
+    }
+
+    // Split into seconds and the remainder so that the multiplication does not overflow.
+    private long ticksToNanos(long ticks) {
+        if (ticksPerSecond == 1_000_000_000L) {
+            return ticks;
+        }
+        return ticks / ticksPerSecond * 1_000_000_000L + ticks % ticksPerSecond * 1_000_000_000L / ticksPerSecond;
+    }
+}
@@ -0,0 +1,20 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr.decoder;
+
+import java.io.IOException;
+
+/**
+ * Receives the events decoded by a {@link JfrEventDecoder}, in the order they are in the recording.
+ */
+@FunctionalInterface
+public interface EventVisitor {
+
+    /**
+     * Visit an event. The cursor is only valid until this method returns.
+     * @param event A cursor pointed at the event.
+     * @throws IOException The event could not be read. Decoding stops, and the exception is thrown
+     * from {@link JfrEventDecoder#decode(java.io.InputStream, EventVisitor)}.
+     */
+    void visit(EventCursor event) throws IOException;
+}
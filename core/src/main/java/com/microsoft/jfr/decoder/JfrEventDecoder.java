@@ -0,0 +1,330 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr.decoder;
+
+import com.microsoft.jfr.JfrChunk;
+import com.microsoft.jfr.JfrChunkReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Decodes the events of a Java Flight Recording as the recording is streamed, without writing it to a
+ * file first. The recording is read one chunk at a time. The metadata and constant pools of a chunk are
+ * decoded once, when the chunk is read, and then each event in the chunk is passed to an
+ * {@link EventVisitor} through the same {@link EventCursor}. Fields are decoded from the bytes of the
+ * chunk when the visitor reads them, so an event costs no allocation unless the visitor reads a string
+ * that is not in a constant pool.
+ * <pre>{@code
+ * JfrEventDecoder decoder = new JfrEventDecoder();
+ * try (InputStream stream = recording.getStream(null, null)) {
+ *     decoder.decode(stream, event -> {
+ *         if ("jdk.ThreadSleep".equals(event.getEventType().getName())) {
+ *             sleeping += event.getDurationNanos();
+ *         }
+ *     });
+ * }
+ * }</pre>
+ * A decoder created with a list of event types only visits events of those types. The list is matched
+ * against the metadata of each chunk, and an event of another type is skipped by its size, without
+ * reading its fields.
+ * <pre>{@code
+ * JfrEventDecoder decoder = new JfrEventDecoder(Arrays.asList("jdk.ExecutionSample", "jdk.GarbageCollection"));
+ * }</pre>
+ * The decoder holds one chunk in memory at a time, and keeps its buffer for the next chunk. Recordings
+ * with file format version 2, which is written by JDK 11 and later and by JDK 8u272 and later, are
+ * supported. A {@code JfrEventDecoder} is not thread-safe, but can be reused.
+ */
+public final class JfrEventDecoder {
+
+    private static final int SUPPORTED_MAJOR_VERSION = 2;
+    // The size of the chunk header, which is where the first event starts.
+    private static final int CHUNK_HEADER_SIZE = 68;
+    private static final long METADATA_TYPE_ID = 0L;
+    private static final long CONSTANT_POOL_TYPE_ID = 1L;
+    private static final int COMPRESSED_INTEGERS = 1;
+
+    private final ChunkInput input = new ChunkInput();
+    private final EventCursor cursor = new EventCursor();
+    // The types of the current chunk, and the index in the list of each type id.
+    private final List<JfrType> typeList = new ArrayList<>();
+    private final LongIntMap typeIndexes = new LongIntMap();
+    // The names of the event types to visit, or null to visit all events.
+    private final Set<String> eventTypes;
+    // Whether to visit the events of each type of the current chunk, by index in typeList.
+    private boolean[] accepted = new boolean[0];
+
+    /**
+     * Create a decoder that visits all events.
+     */
+    public JfrEventDecoder() {
+        this.eventTypes = null;
+    }
+
+    /**
+     * Create a decoder that only visits events of the given types. Events of other types are skipped
+     * without being decoded. A name that is not the name of an event type in the recording matches
+     * no events.
+     * @param eventTypes The names of the event types to visit, for example {@code jdk.ExecutionSample}.
+     * @throws NullPointerException If {@code eventTypes} is {@code null}.
+     */
+    public JfrEventDecoder(Collection<String> eventTypes) {
+        Objects.requireNonNull(eventTypes, "eventTypes may not be null");
+        this.eventTypes = Collections.unmodifiableSet(new HashSet<>(eventTypes));
+    }
+
+    /**
+     * Decode all of the events in a stream of recording data. The stream is read to the end, but is
+     * not closed.
+     * @param in The recording data, for example from
+     * {@link com.microsoft.jfr.Recording#getStream(java.time.Instant, java.time.Instant)}.
+     * @param visitor The visitor to pass the events to.
+     * @throws IOException An error occurred reading the stream, or the data is not a Java Flight
+     * Recording in a supported format, or the visitor threw an {@code IOException}.
+     */
+    public void decode(InputStream in, EventVisitor visitor) throws IOException {
+        Objects.requireNonNull(in, "in may not be null");
+        Objects.requireNonNull(visitor, "visitor may not be null");
+        // Not closed, since that would close the caller's stream.
+        final JfrChunkReader reader = new JfrChunkReader(in);
+        JfrChunk chunk;
+        while ((chunk = reader.next()) != null) {
+            decode(chunk, visitor);
+        }
+    }
+
+    /**
+     * Decode the events of one chunk.
+     * @param chunk The chunk, which has not been read from yet.
+     * @param visitor The visitor to pass the events to.
+     * @throws IOException An error occurred reading the chunk, or the chunk is not in a supported
+     * format, or the visitor threw an {@code IOException}.
+     */
+    public void decode(JfrChunk chunk, EventVisitor visitor) throws IOException {
+        Objects.requireNonNull(chunk, "chunk may not be null");
+        Objects.requireNonNull(visitor, "visitor may not be null");
+        if (chunk.getMajorVersion() != SUPPORTED_MAJOR_VERSION) {
+            throw new IOException("Unsupported JFR file format version "
+                    + chunk.getMajorVersion() + "." + chunk.getMinorVersion());
+        }
+        input.load(chunk.getInputStream(), chunk.getSize(), (chunk.getFeatures() & COMPRESSED_INTEGERS) != 0);
+        readMetadata(checkOffset(chunk.getMetadataOffset()));
+        readConstantPools(checkOffset(chunk.getConstantPoolOffset()));
+        cursor.setChunk(chunk.getStartNanos(), chunk.getStartTicks(), chunk.getTicksPerSecond());
+
+        int position = CHUNK_HEADER_SIZE;
+        while (position < input.limit()) {
+            input.position = position;
+            final int size = input.readInt();
+            if (size <= 0) {
+                throw new IOException("Invalid event size " + size + " at " + position);
+            }
+            final long typeId = input.readLong();
+            if (typeId != METADATA_TYPE_ID && typeId != CONSTANT_POOL_TYPE_ID) {
+                final int index = typeIndexes.get(typeId);
+                if (index == LongIntMap.MISSING) {
+                    throw new IOException("Unknown event type " + typeId + " at " + position);
+                }
+                if (accepted[index]) {
+                    cursor.reset(input, typeList.get(index), input.position);
+                    visitor.visit(cursor);
+                }
+            }
+            position += size;
+        }
+    }
+
+    /**
+     * Get the types declared in the metadata of the chunk that is being decoded, or that was decoded last.
+     * @return The types, in the order they are declared.
+     */
+    public List<JfrType> getTypes() {
+        return Collections.unmodifiableList(typeList);
+    }
+
+    private JfrType typeOf(long typeId) {
+        final int index = typeIndexes.get(typeId);
+        return index != LongIntMap.MISSING ? typeList.get(index) : null;
+    }
+
+    private int checkOffset(long offset) throws IOException {
+        if (offset < CHUNK_HEADER_SIZE || offset >= input.limit()) {
+            throw new IOException("Invalid offset " + offset + " in chunk of " + input.limit() + " bytes");
+        }
+        return (int) offset;
+    }
+
+    // The metadata event is a table of strings, then a tree of elements, each with a name, attributes,
+    // and child elements, whose names and attribute values are indexes into the string table. The types
+    // are the "class" elements under the "metadata" element.
+    private void readMetadata(int offset) throws IOException {
+        input.position = offset;
+        input.readInt(); // size
+        if (input.readLong() != METADATA_TYPE_ID) {
+            throw new IOException("No metadata at " + offset);
+        }
+        input.readLong(); // start time
+        input.readLong(); // duration
+        input.readLong(); // metadata id
+        final String[] strings = new String[input.readInt()];
+        for (int n = 0; n < strings.length; n++) {
+            strings[n] = input.readString(input.readByte());
+        }
+        final Element root = readElement(strings);
+
+        typeList.clear();
+        typeIndexes.clear();
+        for (Element metadata : root.children) {
+            if (!"metadata".equals(metadata.name)) continue;
+            for (Element element : metadata.children) {
+                if ("class".equals(element.name)) {
+                    final JfrType type = newType(element);
+                    typeIndexes.put(type.getId(), typeList.size());
+                    typeList.add(type);
+                }
+            }
+        }
+        for (JfrType type : typeList) {
+            final long[] fieldTypeIds = type.getFieldTypeIds();
+            for (int field = 0; field < fieldTypeIds.length; field++) {
+                final JfrType fieldType = typeOf(fieldTypeIds[field]);
+                if (fieldType == null) {
+                    throw new IOException("Unknown type " + fieldTypeIds[field]
+                            + " of " + type.getName() + "." + type.getFieldName(field));
+                }
+                type.setFieldType(field, fieldType);
+            }
+        }
+        if (accepted.length < typeList.size()) {
+            accepted = new boolean[typeList.size()];
+        }
+        for (int index = 0; index < typeList.size(); index++) {
+            accepted[index] = eventTypes == null || eventTypes.contains(typeList.get(index).getName());
+        }
+    }
+
+    private static JfrType newType(Element element) throws IOException {
+        final List<Element> fields = new ArrayList<>();
+        for (Element child : element.children) {
+            if ("field".equals(child.name)) {
+                fields.add(child);
+            }
+        }
+        final String[] fieldNames = new String[fields.size()];
+        final long[] fieldTypeIds = new long[fields.size()];
+        final boolean[] fieldConstantPool = new boolean[fields.size()];
+        final boolean[] fieldArray = new boolean[fields.size()];
+        for (int field = 0; field < fieldNames.length; field++) {
+            final Element child = fields.get(field);
+            fieldNames[field] = child.attribute("name");
+            fieldTypeIds[field] = parseId(child.attribute("class"));
+            fieldConstantPool[field] = "true".equals(child.attributes.get("constantPool"));
+            final String dimension = child.attributes.get("dimension");
+            fieldArray[field] = dimension != null && !"0".equals(dimension);
+            if (dimension != null && !"0".equals(dimension) && !"1".equals(dimension)) {
+                throw new IOException("Unsupported array dimension " + dimension + " of " + fieldNames[field]);
+            }
+        }
+        return new JfrType(parseId(element.attribute("id")), element.attribute("name"),
+                element.attributes.get("superType"), fieldNames, fieldTypeIds, fieldConstantPool, fieldArray);
+    }
+
+    private static long parseId(String id) throws IOException {
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid type id " + id, e);
+        }
+    }
+
+    private Element readElement(String[] strings) throws IOException {
+        final Element element = new Element(string(strings, input.readInt()));
+        for (int n = input.readInt(); n > 0; n--) {
+            final String key = string(strings, input.readInt());
+            element.attributes.put(key, string(strings, input.readInt()));
+        }
+        for (int n = input.readInt(); n > 0; n--) {
+            element.children.add(readElement(strings));
+        }
+        return element;
+    }
+
+    private static String string(String[] strings, int index) throws IOException {
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Invalid metadata string index " + index);
+        }
+        return strings[index];
+    }
+
+    // The constant pool events form a chain from the last one in the chunk back to the first, each
+    // holding the offset of the one before it. A constant pool is recorded by the offset of each value,
+    // which is decoded when it is read.
+    private void readConstantPools(int offset) throws IOException {
+        for (JfrType type : typeList) {
+            type.constantPool = null;
+        }
+        int position = offset;
+        while (true) {
+            input.position = position;
+            input.readInt(); // size
+            if (input.readLong() != CONSTANT_POOL_TYPE_ID) {
+                throw new IOException("No constant pool at " + position);
+            }
+            input.readLong(); // start time
+            input.readLong(); // duration
+            final long delta = input.readLong();
+            input.readBoolean(); // flush
+            for (int pools = input.readInt(); pools > 0; pools--) {
+                final long typeId = input.readLong();
+                final JfrType type = typeOf(typeId);
+                if (type == null) {
+                    throw new IOException("Constant pool of unknown type " + typeId + " at " + input.position);
+                }
+                if (type.constantPool == null) {
+                    type.constantPool = new ConstantPool();
+                }
+                for (int constants = input.readInt(); constants > 0; constants--) {
+                    final long key = input.readLong();
+                    type.constantPool.add(key, input.position);
+                    ValueCursor.skipValue(input, type);
+                }
+            }
+            if (delta == 0) {
+                return;
+            }
+            final long previous = position + delta;
+            if (previous < CHUNK_HEADER_SIZE || previous >= input.limit()) {
+                throw new IOException("Invalid constant pool offset " + previous);
+            }
+            position = (int) previous;
+        }
+    }
+
+    // An element of the metadata tree.
+    private static final class Element {
+        final String name;
+        final Map<String, String> attributes = new HashMap<>();
+        final List<Element> children = new ArrayList<>();
+
+        Element(String name) {
+            this.name = name;
+        }
+
+        String attribute(String key) throws IOException {
+            final String value = attributes.get(key);
+            if (value == null) {
+                throw new IOException("Metadata element " + name + " has no " + key + " attribute");
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr.decoder;
+
+import java.util.Arrays;
+
+/**
+ * A type declared in the metadata of a chunk, such as an event type like {@code jdk.ThreadSleep}, or a
+ * type that event fields refer to, like {@code java.lang.Thread}. The type ids, and the index of a
+ * field in a type, are only valid for the chunk the type was read from; a visitor that looks up field
+ * indexes by name should do so again when {@link EventCursor#getEventType()} returns a different
+ * {@code JfrType} instance.
+ */
+public final class JfrType {
+
+    // How the value of a type is encoded.
+    /* package scope */ enum Kind { BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE, STRING, STRUCT }
+
+    private static final String EVENT_SUPER_TYPE = "jdk.jfr.Event";
+
+    private final long id;
+    private final String name;
+    private final String superType;
+    private final Kind kind;
+    private final String[] fieldNames;
+    private final long[] fieldTypeIds;
+    private final boolean[] fieldConstantPool;
+    private final boolean[] fieldArray;
+    // Resolved from fieldTypeIds once all of the types of the chunk are known.
+    private final JfrType[] fieldTypes;
+    private final int startTimeField;
+    private final int durationField;
+
+    // The constant pool of values of this type, or null if the chunk has none.
+    /* package scope */ ConstantPool constantPool = null;
+
+    /* package scope */ JfrType(long id, String name, String superType,
+                                String[] fieldNames, long[] fieldTypeIds,
+                                boolean[] fieldConstantPool, boolean[] fieldArray) {
+        this.id = id;
+        this.name = name;
+        this.superType = superType;
+        this.kind = kindOf(name, fieldNames.length);
+        this.fieldNames = fieldNames;
+        this.fieldTypeIds = fieldTypeIds;
+        this.fieldConstantPool = fieldConstantPool;
+        this.fieldArray = fieldArray;
+        this.fieldTypes = new JfrType[fieldNames.length];
+        this.startTimeField = getFieldIndex("startTime");
+        this.durationField = getFieldIndex("duration");
+    }
+
+    private static Kind kindOf(String name, int fieldCount) {
+        if (fieldCount > 0) {
+            return Kind.STRUCT;
+        }
+        switch (name) {
+            case "boolean": return Kind.BOOLEAN;
+            case "byte": return Kind.BYTE;
+            case "short": return Kind.SHORT;
+            case "char": return Kind.CHAR;
+            case "int": return Kind.INT;
+            case "long": return Kind.LONG;
+            case "float": return Kind.FLOAT;
+            case "double": return Kind.DOUBLE;
+            case "java.lang.String": return Kind.STRING;
+            default: return Kind.STRUCT;
+        }
+    }
+
+    /* package scope */ long[] getFieldTypeIds() {
+        return fieldTypeIds;
+    }
+
+    /* package scope */ void setFieldType(int field, JfrType type) {
+        fieldTypes[field] = type;
+    }
+
+    /* package scope */ Kind getKind() {
+        return kind;
+    }
+
+    /* package scope */ int getStartTimeField() {
+        return startTimeField;
+    }
+
+    /* package scope */ int getDurationField() {
+        return durationField;
+    }
+
+    /**
+     * Get the id of the type in the chunk, which is the type id at the start of each event of this type.
+     * @return The type id.
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Get the name of the type, for example {@code jdk.ThreadSleep} or {@code java.lang.Thread}.
+     * @return The name of the type.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the name of the super type, which is {@code jdk.jfr.Event} for event types.
+     * @return The name of the super type, or {@code null} if the type does not have one.
+     */
+    public String getSuperType() {
+        return superType;
+    }
+
+    /**
+     * Get whether this is an event type.
+     * @return {@code true} if the super type is {@code jdk.jfr.Event}.
+     */
+    public boolean isEvent() {
+        return EVENT_SUPER_TYPE.equals(superType);
+    }
+
+    /**
+     * Get the number of fields of the type. Primitive types and {@code java.lang.String} have none.
+     * @return The number of fields.
+     */
+    public int getFieldCount() {
+        return fieldNames.length;
+    }
+
+    /**
+     * Get the name of a field.
+     * @param field The index of the field.
+     * @return The name of the field.
+     * @throws IndexOutOfBoundsException If {@code field} is not the index of a field.
+     */
+    public String getFieldName(int field) {
+        return fieldNames[field];
+    }
+
+    /**
+     * Get the type of a field. For an array field, this is the type of the elements.
+     * @param field The index of the field.
+     * @return The type of the field.
+     * @throws IndexOutOfBoundsException If {@code field} is not the index of a field.
+     */
+    public JfrType getFieldType(int field) {
+        return fieldTypes[field];
+    }
+
+    /**
+     * Get the index of a field.
+     * @param fieldName The name of the field, for example {@code eventThread}.
+     * @return The index of the field, or -1 if the type does not have a field of that name.
+     */
+    public int getFieldIndex(String fieldName) {
+        for (int field = 0; field < fieldNames.length; field++) {
+            if (fieldNames[field].equals(fieldName)) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get whether the value of a field is a key into the constant pool of the field's type, rather than
+     * the value itself. This makes no difference to how the field is read through a {@link ValueCursor}.
+     * @param field The index of the field.
+     * @return {@code true} if the field holds constant pool keys.
+     * @throws IndexOutOfBoundsException If {@code field} is not the index of a field.
+     */
+    public boolean isConstantPool(int field) {
+        return fieldConstantPool[field];
+    }
+
+    /**
+     * Get whether a field is an array.
+     * @param field The index of the field.
+     * @return {@code true} if the field is an array.
+     * @throws IndexOutOfBoundsException If {@code field} is not the index of a field.
+     */
+    public boolean isArray(int field) {
+        return fieldArray[field];
+    }
+
+    @Override
+    public String toString() {
+        return "JfrType[id=" + id + ", name=" + name + ", fields=" + Arrays.toString(fieldNames) + "]";
+    }
+}
@@ -0,0 +1,129 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr.decoder;
+
+import java.util.Arrays;
+
+/**
+ * A map from {@code long} to {@code int} that does not box, with open addressing and linear probing.
+ * Lookups do not allocate. Used for the type ids of a chunk and the keys of its constant pools.
+ */
+final class LongIntMap {
+
+    /** The value returned by {@link #get(long)} for a key that is not in the map. */
+    static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size = 0;
+
+    LongIntMap() {
+        this(16);
+    }
+
+    LongIntMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Get the slot of a key.
+     * @param key The key.
+     * @return The slot of the key, or {@link #MISSING} if the key is not in the map.
+     */
+    int slotOf(long key) {
+        final int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; used[slot]; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Get the value for a key.
+     * @param key The key.
+     * @return The value, or {@link #MISSING} if the key is not in the map.
+     */
+    int get(long key) {
+        final int slot = slotOf(key);
+        return slot != MISSING ? values[slot] : MISSING;
+    }
+
+    /**
+     * Get the value in a slot.
+     * @param slot A slot returned by {@link #slotOf(long)}.
+     * @return The value in the slot.
+     */
+    int valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Get the number of slots, which is the bound of the values returned by {@link #slotOf(long)}.
+     * @return The capacity of the map.
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Add a key, or replace its value. Adding may move keys to other slots.
+     * @param key The key.
+     * @param value The value, not negative.
+     */
+    void put(long key, int value) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+
+    void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys;
+        final int[] oldValues = values;
+        final boolean[] oldUsed = used;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        size = 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldUsed[slot]) {
+                put(oldKeys[slot], oldValues[slot]);
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,368 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr.decoder;
+
+import java.io.IOException;
+
+/**
+ * A view of one value of a struct type in a chunk, such as an event, a thread, or a stack frame. A
+ * cursor does not copy the value; the accessors decode the fields from the bytes of the chunk when
+ * they are called, so reading a field of a primitive type does not allocate. A cursor is reused: it
+ * can be pointed at another value with {@link #getObject(int, ValueCursor)} or
+ * {@link #getArrayElement(int, int, ValueCursor)}, which is how a visitor walks from an event to the
+ * values it refers to without creating objects.
+ * <pre>{@code
+ * ValueCursor thread = new ValueCursor();
+ * decoder.decode(stream, event -> {
+ *     int field = event.getEventType().getFieldIndex("eventThread");
+ *     if (field >= 0 && event.getObject(field, thread)) {
+ *         count(thread.getString(thread.getType().getFieldIndex("javaName")));
+ *     }
+ * });
+ * }</pre>
+ * The value a cursor points at is only valid until the decoder moves on to the next chunk. Fields are
+ * addressed by index, see {@link JfrType#getFieldIndex(String)}. A cursor is not thread-safe.
+ */
+public class ValueCursor {
+
+    private ChunkInput input = null;
+    private JfrType type = null;
+    // The offsets in the chunk of the fields of the value; the first resolvedFields are known.
+    private int[] fieldOffsets = new int[16];
+    private int resolvedFields = 0;
+    // The last array element that was looked up, so that iterating over an array is not quadratic.
+    private int arrayField = -1;
+    private int arrayIndex = 0;
+    private int arrayElementOffset = 0;
+
+    /**
+     * Create a cursor that does not point at a value. Pass it to {@link #getObject(int, ValueCursor)}
+     * or {@link #getArrayElement(int, int, ValueCursor)} to point it at one.
+     */
+    public ValueCursor() {
+    }
+
+    /* package scope */ void reset(ChunkInput input, JfrType type, int offset) {
+        this.input = input;
+        this.type = type;
+        final int fieldCount = Math.max(1, type.getFieldCount());
+        if (fieldOffsets.length < fieldCount) {
+            fieldOffsets = new int[Math.max(fieldCount, fieldOffsets.length * 2)];
+        }
+        fieldOffsets[0] = offset;
+        resolvedFields = 1;
+        arrayField = -1;
+    }
+
+    /**
+     * Get the type of the value.
+     * @return The type of the value, or {@code null} if the cursor does not point at a value.
+     */
+    public JfrType getType() {
+        return type;
+    }
+
+    /**
+     * Get the value of a field of type {@code byte}, {@code short}, {@code char}, {@code int} or {@code long}.
+     * @param field The index of the field.
+     * @return The value of the field.
+     * @throws IOException The value runs past the end of the chunk.
+     * @throws IllegalArgumentException If the field is not of an integer type.
+     */
+    public long getLong(int field) throws IOException {
+        final JfrType.Kind kind = seekPrimitive(field);
+        switch (kind) {
+            case BYTE: return input.readByte();
+            case SHORT: return input.readShort();
+            case CHAR: return input.readChar();
+            case INT: return input.readInt();
+            case LONG: return input.readLong();
+            default: throw notA(field, "an integer");
+        }
+    }
+
+    /**
+     * Get the value of a field of type {@code byte}, {@code short}, {@code char} or {@code int}.
+     * A {@code long} field is truncated.
+     * @param field The index of the field.
+     * @return The value of the field.
+     * @throws IOException The value runs past the end of the chunk.
+     * @throws IllegalArgumentException If the field is not of an integer type.
+     */
+    public int getInt(int field) throws IOException {
+        return (int) getLong(field);
+    }
+
+    /**
+     * Get the value of a field of type {@code boolean}.
+     * @param field The index of the field.
+     * @return The value of the field.
+     * @throws IOException The value runs past the end of the chunk.
+     * @throws IllegalArgumentException If the field is not a {@code boolean}.
+     */
+    public boolean getBoolean(int field) throws IOException {
+        if (seekPrimitive(field) != JfrType.Kind.BOOLEAN) {
+            throw notA(field, "a boolean");
+        }
+        return input.readBoolean();
+    }
+
+    /**
+     * Get the value of a field of type {@code float} or {@code double}.
+     * @param field The index of the field.
+     * @return The value of the field.
+     * @throws IOException The value runs past the end of the chunk.
+     * @throws IllegalArgumentException If the field is not of a floating point type.
+     */
+    public double getDouble(int field) throws IOException {
+        final JfrType.Kind kind = seekPrimitive(field);
+        switch (kind) {
+            case FLOAT: return input.readFloat();
+            case DOUBLE: return input.readDouble();
+            default: throw notA(field, "a float or double");
+        }
+    }
+
+    /**
+     * Get the value of a field of type {@code float}.
+     * @param field The index of the field.
+     * @return The value of the field.
+     * @throws IOException The value runs past the end of the chunk.
+     * @throws IllegalArgumentException If the field is not a {@code float}.
+     */
+    public float getFloat(int field) throws IOException {
+        if (seekPrimitive(field) != JfrType.Kind.FLOAT) {
+            throw notA(field, "a float");
+        }
+        return input.readFloat();
+    }
+
+    /**
+     * Get the value of a field of type {@code java.lang.String}. A string from a constant pool is
+     * decoded once per chunk, and the same instance is returned each time it is read. Other strings
+     * are decoded each time they are read.
+     * @param field The index of the field.
+     * @return The value of the field, which may be {@code null}.
+     * @throws IOException The value is not a valid string.
+     * @throws IllegalArgumentException If the field is not a {@code java.lang.String}.
+     */
+    public String getString(int field) throws IOException {
+        checkField(field);
+        final JfrType fieldType = type.getFieldType(field);
+        if (fieldType.getKind() != JfrType.Kind.STRING || type.isArray(field)) {
+            throw notA(field, "a string");
+        }
+        input.position = offsetOf(field);
+        if (type.isConstantPool(field)) {
+            return constantString(fieldType, input.readLong());
+        }
+        final byte encoding = input.readByte();
+        if (encoding == ChunkInput.STRING_CONSTANT_POOL) {
+            return constantString(fieldType, input.readLong());
+        }
+        return input.readString(encoding);
+    }
+
+    private String constantString(JfrType stringType, long key) throws IOException {
+        final ConstantPool pool = stringType.constantPool;
+        return pool != null ? pool.getString(key, input) : null;
+    }
+
+    /**
+     * Get the constant pool key of a field. Values that have the same key in a chunk are the same
+     * value, so the key can stand for the value, for example to count events by thread without reading
+     * the thread.
+     * @param field The index of the field.
+     * @return The key of the value of the field.
+     * @throws IOException The value runs past the end of the chunk.
+     * @throws IllegalArgumentException If the field does not hold constant pool keys, or is an array.
+     */
+    public long getConstantKey(int field) throws IOException {
+        checkField(field);
+        if (!type.isConstantPool(field) || type.isArray(field)) {
+            throw notA(field, "a constant pool reference");
+        }
+        input.position = offsetOf(field);
+        return input.readLong();
+    }
+
+    /**
+     * Point a cursor at the value of a field of a struct type.
+     * @param field The index of the field.
+     * @param target The cursor to point at the value. This may be this cursor.
+     * @return {@code true} if {@code target} now points at the value, or {@code false} if the value is
+     * {@code null}, in which case {@code target} is unchanged.
+     * @throws IOException The value runs past the end of the chunk.
+     * @throws IllegalArgumentException If the field is not of a struct type, or is an array.
+     */
+    public boolean getObject(int field, ValueCursor target) throws IOException {
+        checkField(field);
+        final JfrType fieldType = type.getFieldType(field);
+        if (fieldType.getKind() != JfrType.Kind.STRUCT || type.isArray(field)) {
+            throw notA(field, "a struct");
+        }
+        final int offset = offsetOf(field);
+        return point(target, fieldType, type.isConstantPool(field), offset);
+    }
+
+    /**
+     * Get the length of an array field.
+     * @param field The index of the field.
+     * @return The number of elements in the array.
+     * @throws IOException The value runs past the end of the chunk.
+     * @throws IllegalArgumentException If the field is not an array.
+     */
+    public int getArrayLength(int field) throws IOException {
+        checkField(field);
+        if (!type.isArray(field)) {
+            throw notA(field, "an array");
+        }
+        input.position = offsetOf(field);
+        return input.readInt();
+    }
+
+    /**
+     * Point a cursor at an element of an array field of a struct type. Getting the elements in order
+     * takes time in proportion to the length of the array.
+     * @param field The index of the field.
+     * @param index The index of the element.
+     * @param target The cursor to point at the element. This may be this cursor.
+     * @return {@code true} if {@code target} now points at the element, or {@code false} if the element
+     * is {@code null}, in which case {@code target} is unchanged.
+     * @throws IOException The value runs past the end of the chunk.
+     * @throws IllegalArgumentException If the field is not an array of a struct type.
+     * @throws IndexOutOfBoundsException If {@code index} is not the index of an element.
+     */
+    public boolean getArrayElement(int field, int index, ValueCursor target) throws IOException {
+        final int length = getArrayLength(field);
+        final JfrType elementType = type.getFieldType(field);
+        if (elementType.getKind() != JfrType.Kind.STRUCT) {
+            throw notA(field, "an array of structs");
+        }
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length);
+        }
+        final boolean constantPool = type.isConstantPool(field);
+        int skip = index;
+        if (arrayField == field && arrayIndex <= index) {
+            input.position = arrayElementOffset;
+            skip = index - arrayIndex;
+        }
+        for (; skip > 0; skip--) {
+            skipElement(input, elementType, constantPool);
+        }
+        arrayField = field;
+        arrayIndex = index;
+        arrayElementOffset = input.position;
+        return point(target, elementType, constantPool, arrayElementOffset);
+    }
+
+    private boolean point(ValueCursor target, JfrType valueType, boolean constantPool, int offset) throws IOException {
+        if (constantPool) {
+            input.position = offset;
+            final long key = input.readLong();
+            final ConstantPool pool = valueType.constantPool;
+            final int constantOffset = pool != null ? pool.offsetOf(key) : LongIntMap.MISSING;
+            if (constantOffset == LongIntMap.MISSING) {
+                return false;
+            }
+            target.reset(input, valueType, constantOffset);
+        } else {
+            target.reset(input, valueType, offset);
+        }
+        return true;
+    }
+
+    private JfrType.Kind seekPrimitive(int field) throws IOException {
+        checkField(field);
+        if (type.isConstantPool(field) || type.isArray(field)) {
+            throw notA(field, "a primitive");
+        }
+        input.position = offsetOf(field);
+        return type.getFieldType(field).getKind();
+    }
+
+    private void checkField(int field) {
+        if (type == null) {
+            throw new IllegalStateException("The cursor does not point at a value");
+        }
+        if (field < 0 || field >= type.getFieldCount()) {
+            throw new IndexOutOfBoundsException("field: " + field + ", type: " + type.getName());
+        }
+    }
+
+    private IllegalArgumentException notA(int field, String what) {
+        return new IllegalArgumentException(type.getName() + "." + type.getFieldName(field)
+                + " is not " + what + ": " + type.getFieldType(field).getName());
+    }
+
+    // The offset of a field is found by skipping over the fields before it, the first time it is needed.
+    private int offsetOf(int field) throws IOException {
+        while (resolvedFields <= field) {
+            input.position = fieldOffsets[resolvedFields - 1];
+            skipField(input, type, resolvedFields - 1);
+            fieldOffsets[resolvedFields++] = input.position;
+        }
+        return fieldOffsets[field];
+    }
+
+    /* package scope */ static void skipField(ChunkInput input, JfrType type, int field) throws IOException {
+        final JfrType fieldType = type.getFieldType(field);
+        final boolean constantPool = type.isConstantPool(field);
+        if (type.isArray(field)) {
+            for (int n = input.readInt(); n > 0; n--) {
+                skipElement(input, fieldType, constantPool);
+            }
+        } else {
+            skipElement(input, fieldType, constantPool);
+        }
+    }
+
+    private static void skipElement(ChunkInput input, JfrType type, boolean constantPool) throws IOException {
+        if (constantPool) {
+            input.readLong();
+        } else {
+            skipValue(input, type);
+        }
+    }
+
+    /* package scope */ static void skipValue(ChunkInput input, JfrType type) throws IOException {
+        switch (type.getKind()) {
+            case BOOLEAN:
+            case BYTE:
+                input.skip(1);
+                return;
+            case SHORT:
+                input.readShort();
+                return;
+            case CHAR:
+                input.readChar();
+                return;
+            case INT:
+                input.readInt();
+                return;
+            case LONG:
+                input.readLong();
+                return;
+            case FLOAT:
+                input.skip(4);
+                return;
+            case DOUBLE:
+                input.skip(8);
+                return;
+            case STRING: {
+                final byte encoding = input.readByte();
+                if (encoding == ChunkInput.STRING_CONSTANT_POOL) {
+                    input.readLong();
+                } else {
+                    input.skipString(encoding);
+                }
+                return;
+            }
+            default:
+                for (int field = 0; field < type.getFieldCount(); field++) {
+                    skipField(input, type, field);
+                }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+/**
+ * This package provides a decoder for the events of a Java Flight Recording that reads the recording
+ * as it is streamed from {@link com.microsoft.jfr.Recording#getStream(java.time.Instant, java.time.Instant)}.
+ * Unlike {@code jdk.jfr.consumer}, which needs JDK 11 and a file, the decoder runs on JDK 8 and does
+ * not create an object per event: events are read through the reusable cursors of
+ * {@link com.microsoft.jfr.decoder.JfrEventDecoder}.
+ */
+package com.microsoft.jfr.decoder;
@@ -0,0 +1,33 @@
+// Copyright (c) Microsoft Corporation.
+// Licensed under the MIT License.
+package com.microsoft.jfr;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the executor for {@link JfrExecutors}. This is the JDK 21 version, which runs each task
+ * on a new virtual thread. A blocked call to the MBean server then holds a virtual thread rather than
+ * a platform thread, so thousands of concurrent streams do not need thousands of platform threads.
+ * Setting the system property {@code jfr.executor.virtual} to {@code false} selects the pool of
+ * platform threads used on Java 8.
+ */
+final class JfrThreads {
+
+    private JfrThreads() {}
+
+    /**
+     * Create the executor for background work.
+     * @param platformThreadFactory The factory for platform threads, used if virtual threads are disabled.
+     * @return An executor that starts a virtual thread for each task, or a cached pool of platform threads.
+     */
+    static ExecutorService newExecutor(ThreadFactory platformThreadFactory) {
+        if (Boolean.parseBoolean(System.getProperty("jfr.executor.virtual", "true"))) {
+            // Virtual threads are always daemon threads.
+            ThreadFactory virtualThreadFactory = Thread.ofVirtual().name("jfr-streaming-virtual-", 1).factory();
+            return Executors.newThreadPerTaskExecutor(virtualThreadFactory);
+        }
+        return Executors.newCachedThreadPool(platformThreadFactory);
+    }
+}
@@ -0,0 +1,103 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class AdaptiveBlockSizeTest {
+
+    private static final long MIN_BLOCK_SIZE = 4096L;
+    private static final long MAX_BLOCK_SIZE = 16L * 1024L * 1024L;
+
+    // Feed the AdaptiveBlockSize with the latencies of a connection that has a fixed
+    // cost per call and a fixed cost per byte, as if reading streams of streamLength bytes.
+    private static long simulate(AdaptiveBlockSize adaptiveBlockSize, long fixedNanos, double nanosPerByte, long streamLength) {
+        long blockSize = adaptiveBlockSize.getBlockSize();
+        for (int stream = 0; stream < 20; stream++) {
+            blockSize = adaptiveBlockSize.nextBlockSize();
+            for (long remaining = streamLength; remaining > 0; remaining -= blockSize) {
+                long bytes = Math.min(blockSize, remaining);
+                adaptiveBlockSize.record(bytes, fixedNanos + (long) (nanosPerByte * bytes));
+            }
+            // the last call to readStream returns null
+            adaptiveBlockSize.record(0, fixedNanos);
+        }
+        return blockSize;
+    }
+
+    @DataProvider(name = "connections")
+    public static Object[][] connections() {
+        return new Object[][]{
+                // fixed nanos, nanos per byte, expected block size
+                {20_000L, 1d, 180_000L},        // local: 20 us per call, 1 GB/s
+                {2_000_000L, 10d, 1_800_000L},  // LAN: 2 ms per call, 100 MB/s
+                {100_000_000L, 100d, 9_000_000L},     // WAN: 100 ms per call, 10 MB/s
+                {100_000_000L, 10d, MAX_BLOCK_SIZE},  // WAN: 100 ms per call, 100 MB/s
+                {1_000L, 100d, MIN_BLOCK_SIZE},  // very cheap calls, slow transfer
+        };
+    }
+
+    @Test(dataProvider = "connections")
+    public void assertBlockSizeConverges(long fixedNanos, double nanosPerByte, long expected) {
+        AdaptiveBlockSize adaptiveBlockSize = new AdaptiveBlockSize(MIN_BLOCK_SIZE, MAX_BLOCK_SIZE);
+        long blockSize = simulate(adaptiveBlockSize, fixedNanos, nanosPerByte, 64L * 1024L * 1024L);
+        assertEquals(blockSize, expected, 0.05d * expected);
+    }
+
+    @Test
+    public void assertBlockSizeStaysInBounds() {
+        AdaptiveBlockSize adaptiveBlockSize = new AdaptiveBlockSize(MIN_BLOCK_SIZE, 2 * MIN_BLOCK_SIZE);
+        assertTrue(adaptiveBlockSize.getBlockSize() <= 2 * MIN_BLOCK_SIZE);
+        long blockSize = simulate(adaptiveBlockSize, 100_000_000L, 100d, 1024L * 1024L);
+        assertEquals(blockSize, 2 * MIN_BLOCK_SIZE);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertMinBlockSizeMustBePositive() {
+        new AdaptiveBlockSize(0L, MAX_BLOCK_SIZE);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertMaxBlockSizeMustNotBeLessThanMin() {
+        new AdaptiveBlockSize(MAX_BLOCK_SIZE, MIN_BLOCK_SIZE);
+    }
+
+    @Test
+    public void assertAdaptiveStreamReadsRecording() {
+        FlightRecorderConnection flightRecorderConnection = RecordingTest.getFlightRecorderConnection();
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().disk("true").build();
+        try (Recording recording = flightRecorderConnection.newRecording(recordingOptions, null)) {
+            recording.start();
+            Instant then = Instant.now().plusSeconds(1);
+            while (Instant.now().compareTo(then) < 0) {
+                RecordingTest.fib(Short.MAX_VALUE); // do something
+            }
+            recording.stop();
+
+            AdaptiveBlockSize adaptiveBlockSize = new AdaptiveBlockSize(MIN_BLOCK_SIZE, MAX_BLOCK_SIZE);
+            byte[] expected = null;
+            for (int i = 0; i < 3; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (InputStream inputStream = recording.getStream(null, null, adaptiveBlockSize)) {
+                    byte[] bytes = new byte[8192];
+                    int n;
+                    while ((n = inputStream.read(bytes, 0, bytes.length)) != -1) out.write(bytes, 0, n);
+                }
+                if (expected == null) expected = out.toByteArray();
+                else assertEquals(out.toByteArray(), expected);
+                long blockSize = adaptiveBlockSize.getBlockSize();
+                assertTrue(MIN_BLOCK_SIZE <= blockSize && blockSize <= MAX_BLOCK_SIZE, adaptiveBlockSize.toString());
+            }
+        } catch (IOException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+}
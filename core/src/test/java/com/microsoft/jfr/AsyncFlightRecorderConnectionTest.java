@@ -0,0 +1,162 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class AsyncFlightRecorderConnectionTest {
+
+    private ExecutorService executor;
+
+    @BeforeClass
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private AsyncFlightRecorderConnection connect(Duration latency, Duration timeout) throws Exception {
+        LatencyInjectingConnection slow = new LatencyInjectingConnection.Builder(ManagementFactory.getPlatformMBeanServer())
+                .latency(latency)
+                .build();
+        return new AsyncFlightRecorderConnection(FlightRecorderConnection.connect(slow.getConnection()), executor, timeout);
+    }
+
+    @Test
+    public void assertRecordingLifecycle() throws Exception {
+        AsyncFlightRecorderConnection connection = connect(Duration.ZERO, Duration.ofSeconds(30));
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().disk("true").build();
+        AsyncRecording recording = connection.newRecording(recordingOptions, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        Path path = Files.createTempFile("async", ".jfr");
+        try {
+            // Each call is queued without waiting for the previous one.
+            CompletableFuture<Long> id = recording.start();
+            CompletableFuture<Void> stopped = recording.stop();
+            CompletableFuture<TransferStatistics> transferred = recording.streamTo(path);
+            CompletableFuture<Void> closed = recording.close();
+
+            closed.get(30, TimeUnit.SECONDS);
+            assertEquals(id.get().longValue(), recording.getRecording().getId());
+            assertTrue(stopped.isDone());
+            assertEquals(transferred.get().getBytes(), Files.size(path));
+            assertTrue(Files.size(path) > 0);
+            assertEquals(recording.getRecording().getState(), Recording.State.CLOSED);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void assertCallsRunInOrder() throws Exception {
+        AsyncFlightRecorderConnection connection = connect(Duration.ZERO, null);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> expected = new ArrayList<>();
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int n = 0; n < 100; n++) {
+            final int call = n;
+            expected.add(call);
+            futures.add(connection.submit(() -> {
+                order.add(call);
+                return call;
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        assertEquals(order, expected);
+    }
+
+    @Test
+    public void assertExceptionCompletesFuture() throws Exception {
+        AsyncFlightRecorderConnection connection = connect(Duration.ZERO, null);
+        AsyncRecording recording = connection.newRecording(null, null);
+        Path path = Files.createTempFile("async", ".jfr");
+        try {
+            // A recording that has not been started cannot be streamed.
+            recording.streamTo(path).get(30, TimeUnit.SECONDS);
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException, e.getCause().toString());
+        } finally {
+            Files.deleteIfExists(path);
+        }
+        // Later calls are not affected.
+        assertEquals(connection.submit(() -> "ok").get(30, TimeUnit.SECONDS), "ok");
+    }
+
+    @Test
+    public void assertCallTimesOut() throws Exception {
+        AsyncFlightRecorderConnection connection = connect(Duration.ofMillis(500), Duration.ofMillis(50));
+        AsyncRecording recording = connection.newRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        try {
+            recording.start().get(30, TimeUnit.SECONDS);
+            fail("expected TimeoutException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException, e.getCause().toString());
+        }
+        // The start ran to completion, so the recording can still be stopped and closed.
+        connection.submit(() -> {
+            recording.getRecording().stop();
+            return null;
+        }, null).get(30, TimeUnit.SECONDS);
+        assertEquals(recording.getRecording().getState(), Recording.State.STOPPED);
+        connection.submit(() -> {
+            recording.getRecording().close();
+            return null;
+        }, null).get(30, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void assertCancelledCallDoesNotRun() throws Exception {
+        AsyncFlightRecorderConnection connection = connect(Duration.ZERO, null);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CompletableFuture<Void> first = connection.submit(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return null;
+        });
+        AtomicBoolean ran = new AtomicBoolean();
+        CompletableFuture<Void> second = connection.submit(() -> {
+            ran.set(true);
+            return null;
+        });
+        CompletableFuture<String> third = connection.submit(() -> "third");
+
+        assertTrue(second.cancel(false));
+        blocked.countDown();
+        first.get(30, TimeUnit.SECONDS);
+        assertEquals(third.get(30, TimeUnit.SECONDS), "third");
+        assertFalse(ran.get());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertNegativeTimeoutThrows() throws Exception {
+        connect(Duration.ZERO, Duration.ofMillis(-1));
+    }
+}
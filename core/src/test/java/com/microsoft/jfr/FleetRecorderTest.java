@@ -0,0 +1,152 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+public class FleetRecorderTest {
+
+    private static final Duration LATENCY = Duration.ofMillis(100);
+
+    private static FleetRecorder.ConnectionSupplier slow(Duration latency) {
+        return () -> new LatencyInjectingConnection.Builder(ManagementFactory.getPlatformMBeanServer())
+                .latency(latency)
+                .build()
+                .getConnection();
+    }
+
+    private static void deleteAll(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void assertOperationsFanOutToAllTargets() throws Exception {
+        final int targets = 8;
+        FleetRecorder.Builder builder = new FleetRecorder.Builder()
+                .recordingOptions(new RecordingOptions.Builder().disk("true").build())
+                .recordingConfiguration(RecordingConfiguration.DEFAULT_CONFIGURATION)
+                .parallelism(targets)
+                .timeout(Duration.ofSeconds(30));
+        for (int n = 0; n < targets; n++) {
+            builder.target("jvm-" + n, slow(LATENCY));
+        }
+        FleetRecorder fleet = builder.build();
+        Path directory = Files.createTempDirectory("fleet");
+        try {
+            FleetResult<Long> started = fleet.start().get(30, TimeUnit.SECONDS);
+            assertTrue(started.isComplete(), started.toString());
+            assertEquals(started.getSucceeded().size(), targets);
+            // Each target connects and starts in two round-trips. Serially, that would be 2 * targets round-trips.
+            assertTrue(started.getElapsed().compareTo(LATENCY.multipliedBy(targets)) < 0, started.toString());
+
+            Instant then = Instant.now().plusMillis(500);
+            while (Instant.now().compareTo(then) < 0) {
+                RecordingTest.fib(Short.MAX_VALUE); // do something
+            }
+
+            FleetResult<TransferStatistics> snapshots = fleet.snapshot(directory).get(30, TimeUnit.SECONDS);
+            assertTrue(snapshots.isComplete(), snapshots.toString());
+            for (String name : fleet.getTargets()) {
+                Path path = directory.resolve(name + ".jfr");
+                assertEquals(Files.size(path), snapshots.getSucceeded().get(name).getBytes());
+                assertTrue(Files.size(path) > 0);
+                assertEquals(fleet.getRecording(name).getState(), Recording.State.RECORDING);
+            }
+
+            FleetResult<Void> stopped = fleet.stop().get(30, TimeUnit.SECONDS);
+            assertTrue(stopped.isComplete(), stopped.toString());
+
+            FleetResult<TransferStatistics> streamed = fleet.stream(directory).get(30, TimeUnit.SECONDS);
+            assertTrue(streamed.isComplete(), streamed.toString());
+        } finally {
+            FleetResult<Void> closed = fleet.close().get(30, TimeUnit.SECONDS);
+            assertTrue(closed.isComplete(), closed.toString());
+            deleteAll(directory);
+        }
+        for (String name : fleet.getTargets()) {
+            assertEquals(fleet.getRecording(name).getState(), Recording.State.CLOSED);
+        }
+    }
+
+    @Test
+    public void assertFailuresArePartial() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        FleetRecorder fleet = new FleetRecorder.Builder()
+                .target("good", slow(Duration.ZERO))
+                .target("unreachable", () -> {
+                    throw new IOException("connection refused");
+                })
+                .target("hung", () -> {
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return ManagementFactory.getPlatformMBeanServer();
+                })
+                .recordingConfiguration(RecordingConfiguration.DEFAULT_CONFIGURATION)
+                .timeout(Duration.ofSeconds(5))
+                .build();
+        try {
+            FleetResult<Long> started = fleet.start().get(30, TimeUnit.SECONDS);
+            assertFalse(started.isComplete());
+            assertEquals(started.getSucceeded().keySet(), Collections.singleton("good"), started.toString());
+            assertTrue(started.getFailed().get("unreachable") instanceof IOException, started.toString());
+            assertTrue(started.getFailed().get("hung") instanceof TimeoutException, started.toString());
+            assertNotNull(fleet.getRecording("good"));
+        } finally {
+            // The hung target starts its recording once it connects, so it is stopped and closed too.
+            blocked.countDown();
+            fleet.stop().get(30, TimeUnit.SECONDS);
+            fleet.close().get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void assertParallelismIsBounded() throws Exception {
+        final int targets = 6;
+        FleetRecorder.Builder builder = new FleetRecorder.Builder()
+                .recordingConfiguration(RecordingConfiguration.DEFAULT_CONFIGURATION)
+                .parallelism(1);
+        for (int n = 0; n < targets; n++) {
+            builder.target("jvm-" + n, slow(LATENCY));
+        }
+        FleetRecorder fleet = builder.build();
+        try {
+            FleetResult<Long> started = fleet.start().get(30, TimeUnit.SECONDS);
+            assertTrue(started.isComplete(), started.toString());
+            // With one call at a time, the two round-trips of each target are made one after another.
+            assertTrue(started.getElapsed().compareTo(LATENCY.multipliedBy(2L * targets)) >= 0, started.toString());
+        } finally {
+            fleet.stop().get(30, TimeUnit.SECONDS);
+            fleet.close().get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertDuplicateTargetThrows() {
+        new FleetRecorder.Builder()
+                .target("jvm", slow(Duration.ZERO))
+                .target("jvm", slow(Duration.ZERO));
+    }
+}
@@ -0,0 +1,113 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class JfrChunkReaderTest {
+
+    FlightRecorderConnection flightRecorderConnection = null;
+    Recording recording = null;
+    byte[] expected = null;
+
+    @BeforeClass
+    public void setup() {
+        flightRecorderConnection = RecordingTest.getFlightRecorderConnection();
+        try {
+            recording = RecordingTest.recordChunks(flightRecorderConnection, RecordingConfiguration.DEFAULT_CONFIGURATION,
+                    3, RecordingTest.busyFor(100));
+            expected = RecordingTest.readAll(recording.getStream(null, null));
+        } catch (IOException | JfrStreamingException e) {
+            fail("Could not create recording", e);
+        }
+    }
+
+    @AfterClass
+    public void tearDown() {
+        RecordingTest.closeQuietly(recording);
+    }
+
+    @Test
+    public void assertChunksConcatenateToRecording() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<JfrChunk> chunks = new ArrayList<>();
+        try (JfrChunkReader reader = recording.getChunkReader(null, null)) {
+            JfrChunk chunk;
+            while ((chunk = reader.next()) != null) {
+                assertEquals(chunk.getOffset(), out.size());
+                byte[] bytes = RecordingTest.readAll(chunk.getInputStream());
+                assertEquals(bytes.length, chunk.getSize());
+                ChunkHeader header = ChunkHeader.parse(bytes, 0);
+                assertEquals(chunk.getStartNanos(), header.getStartNanos());
+                assertEquals(chunk.getMetadataOffset(), header.getMetadataOffset());
+                out.write(bytes);
+                chunks.add(chunk);
+            }
+        }
+        assertTrue(chunks.size() > 1, "recording should have more than one chunk");
+        assertEquals(out.toByteArray(), expected);
+        for (int n = 1; n < chunks.size(); n++) {
+            assertTrue(chunks.get(n).getStartNanos() >= chunks.get(n - 1).getStartNanos(), chunks.toString());
+        }
+    }
+
+    @Test
+    public void assertUnreadChunksAreSkipped() throws Exception {
+        List<Long> sizes = new ArrayList<>();
+        byte[] last = null;
+        try (JfrChunkReader reader = new JfrChunkReader(new ByteArrayInputStream(expected))) {
+            JfrChunk chunk;
+            while ((chunk = reader.next()) != null) {
+                sizes.add(chunk.getSize());
+                // Read part of each chunk, and all of the last one.
+                InputStream in = chunk.getInputStream();
+                assertEquals(in.read(new byte[ChunkHeader.SIZE + 10]), ChunkHeader.SIZE);
+                last = RecordingTest.readAll(in);
+            }
+        }
+        long total = sizes.stream().mapToLong(Long::longValue).sum();
+        assertEquals(total, expected.length);
+        long lastSize = sizes.get(sizes.size() - 1);
+        assertEquals(last, Arrays.copyOfRange(expected, (int) (total - lastSize + ChunkHeader.SIZE), expected.length));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void assertPreviousChunkIsNotReadable() throws Exception {
+        try (JfrChunkReader reader = new JfrChunkReader(new ByteArrayInputStream(expected))) {
+            JfrChunk first = reader.next();
+            reader.next();
+            first.getInputStream().read();
+        }
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void assertTruncatedChunkThrows() throws Exception {
+        byte[] truncated = Arrays.copyOf(expected, expected.length - 1);
+        try (JfrChunkReader reader = new JfrChunkReader(new ByteArrayInputStream(truncated))) {
+            while (reader.next() != null) {
+                // skip every chunk
+            }
+        }
+    }
+
+    @Test
+    public void assertEmptyStreamHasNoChunks() throws Exception {
+        try (JfrChunkReader reader = new JfrChunkReader(new ByteArrayInputStream(new byte[0]))) {
+            assertNull(reader.next());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertTrue;
+
+public class JfrExecutorsTest {
+
+    // Let the threads of the cached pool exit now. Idle, they would stay for a minute, and every chunk
+    // that a later test records would begin and end with a thread dump of them.
+    @AfterClass
+    public void releaseIdleThreads() throws Exception {
+        ExecutorService executor = JfrExecutors.getExecutor();
+        if (!(executor instanceof ThreadPoolExecutor)) {
+            return;
+        }
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        long keepAlive = pool.getKeepAliveTime(TimeUnit.NANOSECONDS);
+        pool.setKeepAliveTime(1, TimeUnit.MILLISECONDS);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (pool.getPoolSize() > pool.getActiveCount() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            pool.setKeepAliveTime(keepAlive, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Tasks block on the MBean server, so the executor must not make a blocked task wait for a thread.
+    @Test
+    public void assertBlockedTasksDoNotHoldUpOtherTasks() throws Exception {
+        final int tasks = 200;
+        ExecutorService executor = JfrExecutors.getExecutor();
+        CountDownLatch started = new CountDownLatch(tasks);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int n = 0; n < tasks; n++) {
+                futures.add(executor.submit(() -> {
+                    started.countDown();
+                    release.await();
+                    return null;
+                }));
+            }
+            assertTrue(started.await(30, TimeUnit.SECONDS), "all tasks should run concurrently");
+        } finally {
+            release.countDown();
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void assertThreadsDoNotKeepTheJvmAlive() throws Exception {
+        Thread thread = JfrExecutors.getExecutor().submit(Thread::currentThread).get(30, TimeUnit.SECONDS);
+        assertTrue(thread.isDaemon());
+        assertTrue(thread.getName().startsWith("jfr-streaming-"), thread.getName());
+    }
+}
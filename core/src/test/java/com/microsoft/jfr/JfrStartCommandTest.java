@@ -0,0 +1,177 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class JfrStartCommandTest {
+
+    @DataProvider(name="expressible")
+    public static Object[][] expressible() {
+        return new Object[][] {
+                {
+                        new RecordingOptions.Builder().build(),
+                        new String[]{"settings=default", "disk=false", "maxsize=0", "dumponexit=false"}
+                },
+                {
+                        new RecordingOptions.Builder().name("test").maxAge("30 s").disk("true").build(),
+                        new String[]{"settings=default", "name=test", "maxage=30s", "disk=true", "maxsize=0", "dumponexit=false"}
+                },
+                {
+                        new RecordingOptions.Builder().maxSize("1048576").duration("2 h").dumpOnExit("true").destination("temp.jfr").build(),
+                        new String[]{"settings=default", "filename=temp.jfr", "disk=false", "duration=2h", "maxsize=1048576", "dumponexit=true"}
+                },
+        };
+    }
+
+    @Test(dataProvider = "expressible")
+    public void assertArgumentsAreFormed(RecordingOptions recordingOptions, String[] expected) {
+        String[] actual = JfrStartCommand.formArguments(recordingOptions, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        // The order of the options is not significant.
+        Arrays.sort(actual);
+        Arrays.sort(expected);
+        assertEquals(actual, expected);
+    }
+
+    @DataProvider(name="inexpressible")
+    public static Object[][] inexpressible() {
+        return new Object[][] {
+                {new RecordingOptions.Builder().build(), null},
+                {new RecordingOptions.Builder().build(), new RecordingConfiguration.MapConfiguration(Collections.emptyMap())},
+                {new RecordingOptions.Builder().name("two words").build(), RecordingConfiguration.PROFILE_CONFIGURATION},
+                {new RecordingOptions.Builder().name("42").build(), RecordingConfiguration.PROFILE_CONFIGURATION},
+                {new RecordingOptions.Builder().destination("/tmp/a b.jfr").build(), RecordingConfiguration.PROFILE_CONFIGURATION},
+        };
+    }
+
+    @Test(dataProvider = "inexpressible")
+    public void assertInexpressibleRequestHasNoArguments(RecordingOptions recordingOptions, RecordingConfiguration recordingConfiguration) {
+        assertNull(JfrStartCommand.formArguments(recordingOptions, recordingConfiguration));
+    }
+
+    @DataProvider(name="results")
+    public static Object[][] results() {
+        return new Object[][] {
+                {"Started recording 2.\n\nUse jcmd 1234 JFR.dump name=2 filename=FILEPATH to copy recording data to file.\n", 2L},
+                {"Started recording 3. No limit specified, using maxsize=250MB as default.\n", 3L},
+                {"Could not start recording, duration must be at least 1 second.\n", -1L},
+                {"Name of recording can't be numeric\n", -1L},
+                {null, -1L},
+        };
+    }
+
+    @Test(dataProvider = "results")
+    public void assertRecordingIdIsParsed(String result, long expected) {
+        assertEquals(JfrStartCommand.parseRecordingId(result), expected);
+    }
+
+    @Test
+    public void assertStartPathCanBeChosenPerConnection() throws Exception {
+        LatencyInjectingConnection counting = new LatencyInjectingConnection.Builder(ManagementFactory.getPlatformMBeanServer()).build();
+        FlightRecorderConnection flightRecorderConnection = FlightRecorderConnection.connect(counting.getConnection());
+
+        flightRecorderConnection.setUseDiagnosticCommand(true);
+        counting.resetCounts();
+        long id = flightRecorderConnection.startRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        long diagnosticCommandRoundTrips = counting.getRoundTrips();
+        flightRecorderConnection.closeRecording(id);
+
+        flightRecorderConnection.setUseDiagnosticCommand(false);
+        counting.resetCounts();
+        id = flightRecorderConnection.startRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        long mxBeanRoundTrips = counting.getRoundTrips();
+        flightRecorderConnection.closeRecording(id);
+
+        // jfrStart is one call; the FlightRecorderMXBean needs newRecording, the configuration and startRecording.
+        assertEquals(diagnosticCommandRoundTrips, 1L);
+        assertTrue(mxBeanRoundTrips >= 3L, "round-trips: " + mxBeanRoundTrips);
+    }
+
+    private static Set<Long> getRecordingIds() throws Exception {
+        ObjectName objectName = new ObjectName("jdk.management.jfr:type=FlightRecorder");
+        CompositeData[] recordings = (CompositeData[]) ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "Recordings");
+        Set<Long> ids = new HashSet<>();
+        for (CompositeData recording : recordings) {
+            ids.add((Long) recording.get("id"));
+        }
+        return ids;
+    }
+
+    // A connection to the platform MBean server on which jfrStart returns what the given function makes of the
+    // arguments and of the platform's jfrStart, which it may or may not call.
+    private static MBeanServerConnection rewriteJfrStart(Function<Object[], Object> jfrStart) {
+        MBeanServer platform = ManagementFactory.getPlatformMBeanServer();
+        return (MBeanServerConnection) Proxy.newProxyInstance(
+                MBeanServerConnection.class.getClassLoader(),
+                new Class<?>[] {MBeanServerConnection.class},
+                (proxy, method, args) -> {
+                    if ("invoke".equals(method.getName()) && JfrStartCommand.OPERATION.equals(args[1])) {
+                        return jfrStart.apply(args);
+                    }
+                    try {
+                        return method.invoke(platform, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private static Object platformJfrStart(Object[] args) {
+        try {
+            return ManagementFactory.getPlatformMBeanServer().invoke((ObjectName) args[0], (String) args[1], (Object[]) args[2], (String[]) args[3]);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void assertUnrecognizedReportOfStartedRecordingDoesNotStartAnother() throws Exception {
+        FlightRecorderConnection flightRecorderConnection = FlightRecorderConnection.connect(
+                rewriteJfrStart(args -> ((String) platformJfrStart(args)).replace("Started recording", "Recording started:")));
+        flightRecorderConnection.setUseDiagnosticCommand(true);
+        Set<Long> before = getRecordingIds();
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().name("vendor-output").build();
+        long id = flightRecorderConnection.startRecording(recordingOptions, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        try {
+            Set<Long> started = getRecordingIds();
+            started.removeAll(before);
+            assertEquals(started, Collections.singleton(id));
+            assertEquals(flightRecorderConnection.getRecordingInfo(id).get("name"), "vendor-output");
+        } finally {
+            flightRecorderConnection.closeRecording(id);
+        }
+    }
+
+    @Test
+    public void assertRejectedRequestFallsBackToFlightRecorderMXBean() throws Exception {
+        FlightRecorderConnection flightRecorderConnection = FlightRecorderConnection.connect(
+                rewriteJfrStart(args -> "Could not start recording, duration must be at least 1 second.\n"));
+        flightRecorderConnection.setUseDiagnosticCommand(true);
+        Set<Long> before = getRecordingIds();
+        long id = flightRecorderConnection.startRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        try {
+            Set<Long> started = getRecordingIds();
+            started.removeAll(before);
+            assertEquals(started, Collections.singleton(id));
+            assertEquals(flightRecorderConnection.getRecordingInfo(id).get("state"), "RUNNING");
+        } finally {
+            flightRecorderConnection.closeRecording(id);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.management.InstanceNotFoundException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class JfrStreamTest {
+
+    // Small enough that a one second recording spans many readStream blocks.
+    private static final long BLOCK_SIZE = 4096L;
+
+    FlightRecorderConnection flightRecorderConnection = null;
+    Recording recording = null;
+
+    @BeforeClass
+    public void setup() {
+        flightRecorderConnection = RecordingTest.getFlightRecorderConnection();
+        try {
+            RecordingOptions recordingOptions = new RecordingOptions.Builder().disk("true").build();
+            recording = flightRecorderConnection.newRecording(recordingOptions, RecordingConfiguration.PROFILE_CONFIGURATION);
+            recording.start();
+            Instant then = Instant.now().plusSeconds(1);
+            while (Instant.now().compareTo(then) < 0) {
+                RecordingTest.fib(Short.MAX_VALUE); // do something
+            }
+            recording.stop();
+        } catch (IOException | JfrStreamingException e) {
+            fail("Could not create recording", e);
+        }
+    }
+
+    @AfterClass
+    public void tearDown() {
+        RecordingTest.closeQuietly(recording);
+    }
+
+    private byte[] readByteAtATime() throws IOException, JfrStreamingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream inputStream = recording.getStream(null, null, BLOCK_SIZE)) {
+            int c;
+            while ((c = inputStream.read()) != -1) out.write(c);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] readBulk() throws IOException, JfrStreamingException {
+        return RecordingTest.readAll(recording.getStream(null, null, BLOCK_SIZE));
+    }
+
+    @Test
+    public void assertBulkReadEqualsByteAtATimeRead() {
+        try {
+            byte[] expected = readByteAtATime();
+            assertTrue(expected.length > BLOCK_SIZE, "recording should span more than one block");
+            assertEquals(readBulk(), expected);
+        } catch (IOException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test
+    public void assertTransferToEqualsByteAtATimeRead() {
+        try {
+            byte[] expected = readByteAtATime();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (JfrStream inputStream = (JfrStream) recording.getStream(null, null, BLOCK_SIZE)) {
+                assertEquals(inputStream.transferTo(out), expected.length);
+            }
+            assertEquals(out.toByteArray(), expected);
+        } catch (IOException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test
+    public void assertSkipAndAvailableStayWithinBlock() {
+        try {
+            byte[] expected = readByteAtATime();
+            try (InputStream inputStream = recording.getStream(null, null, BLOCK_SIZE)) {
+                assertEquals(inputStream.available(), 0);
+                int first = inputStream.read();
+                assertEquals(first, expected[0] & 0xFF);
+                int available = inputStream.available();
+                assertTrue(available > 0 && available < BLOCK_SIZE);
+                assertEquals(inputStream.skip(Long.MAX_VALUE), available);
+                assertEquals(inputStream.available(), 0);
+                int next = inputStream.read();
+                assertEquals(next, expected[1 + available] & 0xFF);
+            }
+        } catch (IOException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test
+    public void assertPrefetchedReadEqualsByteAtATimeRead() {
+        try {
+            byte[] expected = readByteAtATime();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream inputStream = recording.getStream(null, null, BLOCK_SIZE, 2)) {
+                assertTrue(inputStream instanceof PrefetchingJfrStream);
+                byte[] bytes = new byte[1000];
+                int n;
+                while ((n = inputStream.read(bytes, 0, bytes.length)) != -1) out.write(bytes, 0, n);
+            }
+            assertEquals(out.toByteArray(), expected);
+        } catch (IOException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    // The in-process FlightRecorderMXBean reuses the array it returns from readStream, also when it is
+    // reached through a connection that is not the MBeanServer itself.
+    @Test
+    public void assertPrefetchedReadThroughWrappedLocalConnectionEqualsByteAtATimeRead() {
+        try {
+            byte[] expected = readByteAtATime();
+            LatencyInjectingConnection wrapped = new LatencyInjectingConnection.Builder(ManagementFactory.getPlatformMBeanServer()).build();
+            FlightRecorderConnection connection = FlightRecorderConnection.connect(wrapped.getConnection());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream inputStream = connection.getStream(recording.getId(), null, null, BLOCK_SIZE, 8)) {
+                assertTrue(inputStream instanceof PrefetchingJfrStream);
+                byte[] bytes = new byte[1000];
+                int n;
+                while ((n = inputStream.read(bytes, 0, bytes.length)) != -1) out.write(bytes, 0, n);
+            }
+            assertEquals(out.toByteArray(), expected);
+        } catch (IOException | InstanceNotFoundException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void assertPrefetchedStreamClosesBeforeEndOfData() {
+        try {
+            InputStream inputStream = recording.getStream(null, null, BLOCK_SIZE, 1);
+            assertTrue(inputStream.read() != -1);
+            // the background reader is now blocked on a full queue
+            inputStream.close();
+            assertEquals(inputStream.read(), -1);
+        } catch (IOException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test
+    public void assertStreamToPathEqualsByteAtATimeRead() {
+        Path path = null;
+        try {
+            byte[] expected = readByteAtATime();
+            path = Files.createTempFile("recording-", ".jfr");
+            TransferStatistics statistics = recording.streamTo(path);
+            assertEquals(statistics.getBytes(), expected.length);
+            assertTrue(statistics.getBytesPerSecond() > 0d);
+            assertEquals(Files.readAllBytes(path), expected);
+        } catch (IOException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        } finally {
+            if (path != null) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @Test
+    public void assertStreamToChannelEqualsByteAtATimeRead() {
+        try {
+            byte[] expected = readByteAtATime();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            TransferStatistics statistics = recording.streamTo(Channels.newChannel(out));
+            assertEquals(statistics.getBytes(), expected.length);
+            assertEquals(out.toByteArray(), expected);
+        } catch (IOException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertNegativePrefetchDepthThrows() throws IOException, JfrStreamingException {
+        recording.getStream(null, null, BLOCK_SIZE, -1);
+    }
+
+    @Test
+    public void assertBulkReadReturnsOneBlockPerRoundTrip() {
+        try {
+            byte[] expected = readByteAtATime();
+            LatencyInjectingConnection wrapped = new LatencyInjectingConnection.Builder(ManagementFactory.getPlatformMBeanServer()).build();
+            FlightRecorderConnection connection = FlightRecorderConnection.connect(wrapped.getConnection());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long reads = 0;
+            long readStreamCalls;
+            try (InputStream inputStream = connection.getStream(recording.getId(), null, null, BLOCK_SIZE)) {
+                // The stream is open, so every round-trip from here on is a readStream call.
+                wrapped.resetCounts();
+                // The buffer holds two blocks, but a read copies no more than what is left of the current block.
+                byte[] bytes = new byte[(int) (2 * BLOCK_SIZE)];
+                int n;
+                while ((n = inputStream.read(bytes, 0, bytes.length)) != -1) {
+                    assertTrue(n > 0 && n <= BLOCK_SIZE, "read returned " + n + " bytes");
+                    out.write(bytes, 0, n);
+                    reads++;
+                }
+                readStreamCalls = wrapped.getRoundTrips();
+            }
+            assertEquals(out.toByteArray(), expected);
+            // The last readStream call returns null at the end of the stream.
+            assertEquals(reads, readStreamCalls - 1);
+        } catch (IOException | InstanceNotFoundException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+// Run by failsafe on JDK 21 against the packaged multi-release jar, see the java21 profile in core/pom.xml.
+public class JfrThreadsIT {
+
+    @Test
+    public void assertJdk21ClassesAreLoadedFromTheJar() {
+        String location = JfrThreads.class.getResource("JfrThreads.class").toString();
+        assertTrue(location.startsWith("jar:") && location.contains("META-INF/versions/21"), location);
+    }
+
+    @Test
+    public void assertTasksRunOnVirtualThreads() throws Exception {
+        Method isVirtual = Thread.class.getMethod("isVirtual");
+        Thread thread = JfrExecutors.getExecutor().submit(Thread::currentThread).get(30, TimeUnit.SECONDS);
+        assertTrue((Boolean) isVirtual.invoke(thread), thread.toString());
+        assertTrue(thread.getName().startsWith("jfr-streaming-virtual-"), thread.getName());
+    }
+
+    @Test
+    public void assertPlatformThreadsWhenVirtualThreadsAreDisabled() throws Exception {
+        String previous = System.getProperty("jfr.executor.virtual");
+        System.setProperty("jfr.executor.virtual", "false");
+        ExecutorService executor = JfrThreads.newExecutor(Thread::new);
+        try {
+            Thread thread = executor.submit(Thread::currentThread).get(30, TimeUnit.SECONDS);
+            assertFalse((Boolean) Thread.class.getMethod("isVirtual").invoke(thread), thread.toString());
+        } finally {
+            executor.shutdown();
+            if (previous == null) {
+                System.clearProperty("jfr.executor.virtual");
+            } else {
+                System.setProperty("jfr.executor.virtual", previous);
+            }
+        }
+    }
+}
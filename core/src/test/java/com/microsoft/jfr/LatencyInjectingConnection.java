@@ -0,0 +1,216 @@
+package com.microsoft.jfr;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServerConnection;
+
+/**
+ * Decorates an {@code MBeanServerConnection} to behave like a connection to a remote JVM. Every call
+ * is delayed by a fixed latency plus a random jitter, and a {@code byte[]} result, such as the payload of
+ * {@code readStream}, is further delayed by its size divided by the bandwidth. The decorator also counts
+ * the round-trips and the payload bytes, so that a test can assert how many calls an operation makes.
+ * <p>
+ * The decorator is used by the tests and, through the test jar, by the benchmarks. Use {@link Builder}
+ * to create one.
+ * <pre>{@code
+ * LatencyInjectingConnection slow = new LatencyInjectingConnection.Builder(ManagementFactory.getPlatformMBeanServer())
+ *         .latency(Duration.ofMillis(20))
+ *         .jitter(Duration.ofMillis(5))
+ *         .bandwidth(10_000_000L)
+ *         .build();
+ * FlightRecorderConnection connection = FlightRecorderConnection.connect(slow.getConnection());
+ * }</pre>
+ */
+public final class LatencyInjectingConnection implements InvocationHandler {
+
+    /**
+     * Builder for a {@link LatencyInjectingConnection}. By default, no delay is added.
+     */
+    public static class Builder {
+
+        private final MBeanServerConnection delegate;
+        private long latencyNanos = 0L;
+        private long jitterNanos = 0L;
+        private long bytesPerSecond = 0L;
+        private long seed = 0L;
+
+        /**
+         * Constructor for a {@code Builder}.
+         * @param delegate The connection that calls are passed on to, not {@code null}.
+         */
+        public Builder(MBeanServerConnection delegate) {
+            this.delegate = Objects.requireNonNull(delegate);
+        }
+
+        /**
+         * Set the delay that is added to every call.
+         * @param latency The delay for a round-trip.
+         * @return {@code this}
+         * @throws IllegalArgumentException The {@code latency} is negative.
+         */
+        public Builder latency(Duration latency) {
+            this.latencyNanos = nonNegative("latency", latency);
+            return this;
+        }
+
+        /**
+         * Set the maximum random delay that is added to every call, on top of the latency.
+         * The random delay is uniformly distributed between zero and {@code jitter}.
+         * @param jitter The maximum random delay.
+         * @return {@code this}
+         * @throws IllegalArgumentException The {@code jitter} is negative.
+         */
+        public Builder jitter(Duration jitter) {
+            this.jitterNanos = nonNegative("jitter", jitter);
+            return this;
+        }
+
+        /**
+         * Set the rate at which {@code byte[]} results are transferred. The default, {@code 0},
+         * is no limit.
+         * @param bytesPerSecond The bandwidth in bytes per second, or {@code 0} for no limit.
+         * @return {@code this}
+         * @throws IllegalArgumentException The {@code bytesPerSecond} is negative.
+         */
+        public Builder bandwidth(long bytesPerSecond) {
+            if (bytesPerSecond < 0L) {
+                throw new IllegalArgumentException("bandwidth: " + bytesPerSecond + " < 0");
+            }
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Set the seed for the jitter, so that a run can be repeated.
+         * @param seed The seed of the random jitter.
+         * @return {@code this}
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Construct a {@code LatencyInjectingConnection} from this builder.
+         * @return A {@code LatencyInjectingConnection}, never {@code null}.
+         */
+        public LatencyInjectingConnection build() {
+            return new LatencyInjectingConnection(this);
+        }
+
+        private static long nonNegative(String name, Duration duration) {
+            if (duration.isNegative()) {
+                throw new IllegalArgumentException(name + ": " + duration + " < 0");
+            }
+            return duration.toNanos();
+        }
+    }
+
+    private final MBeanServerConnection delegate;
+    private final MBeanServerConnection connection;
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final long bytesPerSecond;
+    private final Random random;
+
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong payloadBytes = new AtomicLong();
+
+    private LatencyInjectingConnection(Builder builder) {
+        this.delegate = builder.delegate;
+        this.latencyNanos = builder.latencyNanos;
+        this.jitterNanos = builder.jitterNanos;
+        this.bytesPerSecond = builder.bytesPerSecond;
+        this.random = new Random(builder.seed);
+        this.connection = (MBeanServerConnection) Proxy.newProxyInstance(
+                LatencyInjectingConnection.class.getClassLoader(),
+                new Class<?>[]{MBeanServerConnection.class},
+                this);
+    }
+
+    /**
+     * Get the decorated connection.
+     * @return An {@code MBeanServerConnection} that delays calls to the delegate.
+     */
+    public MBeanServerConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Get the number of calls made through the decorated connection.
+     * @return The number of round-trips.
+     */
+    public long getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    /**
+     * Get the number of bytes returned as {@code byte[]} results through the decorated connection.
+     * @return The number of payload bytes.
+     */
+    public long getPayloadBytes() {
+        return payloadBytes.get();
+    }
+
+    /**
+     * Reset the round-trip and payload byte counts to zero.
+     */
+    public void resetCounts() {
+        roundTrips.set(0L);
+        payloadBytes.set(0L);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(this, args);
+        }
+
+        roundTrips.incrementAndGet();
+        long delayNanos = latencyNanos;
+        if (jitterNanos > 0L) {
+            synchronized (random) {
+                delayNanos += (long) (random.nextDouble() * jitterNanos);
+            }
+        }
+
+        final Object result;
+        try {
+            result = method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            sleep(delayNanos);
+            throw e.getCause();
+        }
+
+        if (result instanceof byte[]) {
+            int length = ((byte[]) result).length;
+            payloadBytes.addAndGet(length);
+            if (bytesPerSecond > 0L) {
+                delayNanos += TimeUnit.SECONDS.toNanos(length) / bytesPerSecond;
+            }
+        }
+        sleep(delayNanos);
+        return result;
+    }
+
+    private static void sleep(long nanos) throws IOException {
+        if (nanos <= 0L) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while injecting latency");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import javax.management.InstanceNotFoundException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class LatencyInjectingConnectionTest {
+
+    private static final Duration LATENCY = Duration.ofMillis(200);
+
+    private static LatencyInjectingConnection.Builder builder() {
+        return new LatencyInjectingConnection.Builder(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    private static FlightRecorderConnection connect(LatencyInjectingConnection slow)
+            throws IOException, InstanceNotFoundException, JfrStreamingException {
+        FlightRecorderConnection connection = FlightRecorderConnection.connect(slow.getConnection());
+        slow.resetCounts();
+        return connection;
+    }
+
+    @Test
+    public void assertLatencyIsInjectedPerRoundTrip() throws Exception {
+        LatencyInjectingConnection slow = builder().latency(LATENCY).build();
+        FlightRecorderConnection connection = connect(slow);
+        long start = System.nanoTime();
+        connection.getRecordingInfo(Long.MAX_VALUE);
+        connection.getRecordingInfo(Long.MAX_VALUE);
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        assertEquals(slow.getRoundTrips(), 2L);
+        assertTrue(elapsed.compareTo(LATENCY.multipliedBy(2)) >= 0, elapsed.toString());
+    }
+
+    // A predefined configuration can be started with a single jfrStart call.
+    @Test
+    public void assertPredefinedConfigurationStartsInOneRoundTrip() throws Exception {
+        LatencyInjectingConnection slow = builder().latency(LATENCY).build();
+        FlightRecorderConnection connection = connect(slow);
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().name("test").build();
+        Recording recording = connection.newRecording(recordingOptions, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        try {
+            recording.start();
+            assertEquals(slow.getRoundTrips(), 1L);
+            assertTrue(recording.getStartLatency().compareTo(LATENCY) >= 0, recording.getStartLatency().toString());
+        } finally {
+            recording.close();
+        }
+    }
+
+    // The configuration and options are set concurrently, so the four calls take three round-trip times.
+    @Test
+    public void assertMapConfigurationStartsInThreeRoundTripTimes() throws Exception {
+        LatencyInjectingConnection slow = builder().latency(LATENCY).build();
+        FlightRecorderConnection connection = connect(slow);
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().name("test").build();
+        RecordingConfiguration recordingConfiguration =
+                new RecordingConfiguration.MapConfiguration(Collections.singletonMap("jdk.CPULoad#enabled", "true"));
+        Recording recording = connection.newRecording(recordingOptions, recordingConfiguration);
+        try {
+            recording.start();
+            assertEquals(slow.getRoundTrips(), 4L);
+            Duration startLatency = recording.getStartLatency();
+            assertTrue(startLatency.compareTo(LATENCY.multipliedBy(3)) >= 0, startLatency.toString());
+            assertTrue(startLatency.compareTo(LATENCY.multipliedBy(4)) < 0, startLatency.toString());
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test
+    public void assertBandwidthLimitsStreamPayload() throws Exception {
+        final long bytesPerSecond = 1_000_000L;
+        LatencyInjectingConnection slow = builder().bandwidth(bytesPerSecond).build();
+        FlightRecorderConnection connection = connect(slow);
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().disk("true").build();
+        Recording recording = connection.newRecording(recordingOptions, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        try {
+            recording.start();
+            Instant then = Instant.now().plusMillis(500);
+            while (Instant.now().compareTo(then) < 0) {
+                RecordingTest.fib(Short.MAX_VALUE); // do something
+            }
+            recording.stop();
+            slow.resetCounts();
+
+            long length = 0L;
+            long start = System.nanoTime();
+            try (InputStream inputStream = recording.getStream(null, null)) {
+                byte[] bytes = new byte[8192];
+                int n;
+                while ((n = inputStream.read(bytes, 0, bytes.length)) != -1) length += n;
+            }
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+            assertEquals(slow.getPayloadBytes(), length);
+            Duration expected = Duration.ofNanos(length * 1_000_000_000L / bytesPerSecond);
+            assertTrue(elapsed.compareTo(expected) >= 0, elapsed + " < " + expected);
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertNegativeLatencyThrows() {
+        builder().latency(Duration.ofMillis(-1));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertNegativeBandwidthThrows() {
+        builder().bandwidth(-1L);
+    }
+}
@@ -0,0 +1,97 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.Test;
+
+import javax.management.MBeanException;
+import javax.management.RuntimeMBeanException;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class LocalFlightRecorderConnectionTest {
+
+    @Test
+    public void assertPlatformMBeanServerIsCalledDirectly() throws Exception {
+        FlightRecorderConnection connection = FlightRecorderConnection.connect(ManagementFactory.getPlatformMBeanServer());
+        boolean direct = Boolean.parseBoolean(System.getProperty("jfr.connection.direct", "true"));
+        assertEquals(connection instanceof LocalFlightRecorderConnection, direct, connection.getClass().getName());
+    }
+
+    @Test
+    public void assertOtherConnectionsAreNotCalledDirectly() throws Exception {
+        LatencyInjectingConnection slow = new LatencyInjectingConnection.Builder(ManagementFactory.getPlatformMBeanServer()).build();
+        FlightRecorderConnection connection = FlightRecorderConnection.connect(slow.getConnection());
+        assertFalse(connection instanceof LocalFlightRecorderConnection, connection.getClass().getName());
+    }
+
+    @Test
+    public void assertRecordingLifecycle() throws Exception {
+        FlightRecorderConnection connection = FlightRecorderConnection.connect(ManagementFactory.getPlatformMBeanServer());
+        Map<String, String> settings = new HashMap<>();
+        settings.put("jdk.ThreadSleep#enabled", "true");
+        settings.put("jdk.ThreadSleep#threshold", "0 ms");
+        Recording recording = connection.newRecording(
+                new RecordingOptions.Builder().name("local").disk("true").build(),
+                new RecordingConfiguration.MapConfiguration(settings));
+        try {
+            long id = recording.start();
+            assertEquals(connection.getRecordingInfo(id).get("name"), "local");
+            Thread.sleep(10);
+
+            long cloneId = connection.cloneRecording(id, true);
+            try {
+                assertEquals(connection.getRecordingInfo(cloneId).get("state"), "STOPPED");
+                assertTrue(read(connection.getStream(cloneId, null, null, 0L)) > 0);
+            } finally {
+                connection.closeRecording(cloneId);
+            }
+
+            recording.stop();
+            assertEquals(connection.getRecordingInfo(id).get("state"), "STOPPED");
+            assertTrue(read(recording.getStream(null, null)) > 0);
+        } finally {
+            recording.close();
+        }
+        assertEquals(recording.getState(), Recording.State.CLOSED);
+    }
+
+    @Test
+    public void assertExceptionsAreWrappedAsByMBeanServer() throws Exception {
+        FlightRecorderConnection connection = FlightRecorderConnection.connect(ManagementFactory.getPlatformMBeanServer());
+        try {
+            connection.stopRecording(Long.MAX_VALUE);
+            fail("expected an exception for an unknown recording");
+        } catch (RuntimeMBeanException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException, String.valueOf(e.getCause()));
+        }
+
+        long id = connection.startRecording(new RecordingOptions.Builder().build(), RecordingConfiguration.DEFAULT_CONFIGURATION);
+        try {
+            connection.dumpRecording(id, "/nonexistent/directory/local.jfr");
+            fail("expected an exception for a bad path");
+        } catch (JfrStreamingException e) {
+            assertTrue(e.getCause() instanceof MBeanException, String.valueOf(e.getCause()));
+        } finally {
+            connection.stopRecording(id);
+            connection.closeRecording(id);
+        }
+    }
+
+    private static long read(InputStream inputStream) throws Exception {
+        try (InputStream in = inputStream; ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.size();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.microsoft.jfr;
+
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.channels.Channels;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class LocalRepositoryTest {
+
+    private static Recording startRecording(FlightRecorderConnection connection) throws Exception {
+        Recording recording = connection.newRecording(
+                new RecordingOptions.Builder().disk("true").build(),
+                RecordingConfiguration.DEFAULT_CONFIGURATION);
+        recording.start();
+        Instant then = Instant.now().plusMillis(200);
+        while (Instant.now().compareTo(then) < 0) {
+            RecordingTest.fib(Short.MAX_VALUE); // do something
+        }
+        return recording;
+    }
+
+    // The JVM names its repository in jdk.jfr.repository on JDK 14 and later. Before that, there is nothing to map.
+    private static void requireRepository() {
+        if (System.getProperty(LocalRepository.REPOSITORY_PROPERTY) == null) {
+            throw new SkipException(LocalRepository.REPOSITORY_PROPERTY + " is not set on this JVM");
+        }
+    }
+
+    private static Set<Long> getRecordingIds() throws Exception {
+        ObjectName objectName = new ObjectName("jdk.management.jfr:type=FlightRecorder");
+        CompositeData[] recordings = (CompositeData[]) ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "Recordings");
+        Set<Long> ids = new HashSet<>();
+        for (CompositeData recording : recordings) {
+            ids.add((Long) recording.get("id"));
+        }
+        return ids;
+    }
+
+    @Test
+    public void assertRepositoryStreamEqualsStream() throws Exception {
+        requireRepository();
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        Recording recording = startRecording(connection);
+        try {
+            recording.stop();
+            InputStream repositoryStream = recording.getRepositoryStream(null, null);
+            assertTrue(repositoryStream instanceof RepositoryStream, repositoryStream.getClass().getName());
+            byte[] fromRepository = RecordingTest.readAll(repositoryStream);
+            byte[] fromMBean = RecordingTest.readAll(recording.getStream(null, null));
+            assertTrue(fromRepository.length > 0);
+            assertEquals(fromRepository, fromMBean);
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test
+    public void assertTransferToChannelWritesAllChunks() throws Exception {
+        requireRepository();
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        Recording recording = startRecording(connection);
+        try {
+            recording.stop();
+            byte[] expected = RecordingTest.readAll(recording.getStream(null, null));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = recording.getRepositoryStream(null, null)) {
+                assertEquals(((RepositoryStream) in).transferTo(Channels.newChannel(out)), expected.length);
+                assertEquals(in.read(), -1);
+            }
+            assertEquals(out.toByteArray(), expected);
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test
+    public void assertRunningRecordingHasOnlyCompletedChunks() throws Exception {
+        requireRepository();
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        Recording recording = startRecording(connection);
+        try {
+            // A clone makes the JVM complete the chunk it is writing.
+            connection.closeRecording(connection.cloneRecording(recording.getId(), true));
+            byte[] data = RecordingTest.readAll(connection.getRepositoryStream(recording.getId(), null, null));
+            assertTrue(data.length >= ChunkHeader.SIZE);
+            int offset = 0;
+            while (offset < data.length) {
+                ChunkHeader header = ChunkHeader.parse(data, offset);
+                assertEquals(header.getFeatures() >>> 24, 0, header.toString());
+                offset += (int) header.getChunkSize();
+            }
+            assertEquals(offset, data.length);
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test
+    public void assertRunningRecordingWithoutRepositoryIsStreamedFromClone() throws Exception {
+        // Hides the RuntimeMXBean, as if the JVM did not name a repository.
+        MBeanServer platform = ManagementFactory.getPlatformMBeanServer();
+        MBeanServerConnection noRepository = (MBeanServerConnection) Proxy.newProxyInstance(
+                MBeanServerConnection.class.getClassLoader(),
+                new Class<?>[] {MBeanServerConnection.class},
+                (proxy, method, args) -> {
+                    if ("getAttribute".equals(method.getName()) && "SystemProperties".equals(args[1])) {
+                        throw new InstanceNotFoundException(String.valueOf(args[0]));
+                    }
+                    try {
+                        return method.invoke(platform, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        FlightRecorderConnection connection = FlightRecorderConnection.connect(noRepository);
+        Recording recording = startRecording(connection);
+        try {
+            Set<Long> ids = getRecordingIds();
+            InputStream stream = connection.getRepositoryStream(recording.getId(), null, null);
+            assertFalse(stream instanceof RepositoryStream, stream.getClass().getName());
+            byte[] data = RecordingTest.readAll(stream);
+            assertTrue(data.length >= ChunkHeader.SIZE);
+            assertEquals(ChunkHeader.parse(data, 0).getMajor(), (short) 2);
+            assertEquals(getRecordingIds(), ids);
+            assertEquals(recording.getState(), Recording.State.RECORDING);
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test
+    public void assertMissingChunksFallBackToStream() throws Exception {
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        Recording recording = startRecording(connection);
+        try {
+            recording.stop();
+            // There are no chunk files for an interval after the recording, so the MBean server is asked instead.
+            Instant later = Instant.now().plusSeconds(3600);
+            try {
+                InputStream stream = recording.getRepositoryStream(later, null);
+                assertFalse(stream instanceof RepositoryStream, stream.getClass().getName());
+                stream.close();
+            } catch (JfrStreamingException e) {
+                assertTrue(FlightRecorderConnection.isNoDataAvailable(e), e.toString());
+            }
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void assertRepositoryStreamOfRunningRecordingThrowsIllegalStateException() throws Exception {
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        Recording recording = connection.newRecording(null, null);
+        try {
+            recording.start();
+            recording.getRepositoryStream(null, null);
+        } finally {
+            recording.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ParallelDownloaderTest {
+
+    FlightRecorderConnection flightRecorderConnection = null;
+    Recording recording = null;
+    byte[] expected = null;
+
+    @BeforeClass
+    public void setup() {
+        flightRecorderConnection = RecordingTest.getFlightRecorderConnection();
+        try {
+            recording = RecordingTest.recordChunks(flightRecorderConnection, RecordingConfiguration.PROFILE_CONFIGURATION,
+                    3, RecordingTest.busyFor(400));
+            expected = RecordingTest.readAll(recording.getStream(null, null));
+            assertTrue(countChunks(expected) > 1, "recording should have more than one chunk");
+        } catch (IOException | JfrStreamingException e) {
+            fail("Could not create recording", e);
+        }
+    }
+
+    @AfterClass
+    public void tearDown() {
+        RecordingTest.closeQuietly(recording);
+    }
+
+    private static int countChunks(byte[] bytes) throws IOException {
+        int chunks = 0;
+        for (int offset = 0; offset < bytes.length; chunks++) {
+            offset += (int) ChunkHeader.parse(bytes, offset).getChunkSize();
+        }
+        return chunks;
+    }
+
+    @DataProvider(name="slices")
+    public static Object[][] slices() {
+        return new Object[][] { {1}, {2}, {4}, {16} };
+    }
+
+    @Test(dataProvider = "slices")
+    public void assertDownloadEqualsStream(int slices) {
+        try {
+            ParallelDownloader downloader = new ParallelDownloader(flightRecorderConnection, slices);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long written = downloader.download(recording, out);
+            assertEquals(written, expected.length);
+            assertEquals(out.toByteArray(), expected);
+        } catch (IOException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test
+    public void assertDownloadOverSeveralConnections() {
+        try {
+            ParallelDownloader downloader = new ParallelDownloader(
+                    Arrays.asList(flightRecorderConnection, RecordingTest.getFlightRecorderConnection()), 3, 4096L);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            downloader.download(recording.getId(), out);
+            assertEquals(out.toByteArray(), expected);
+        } catch (IOException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test
+    public void assertChunkFilterDropsDuplicateChunks() {
+        try {
+            InputStream twice = new SequenceInputStream(new ByteArrayInputStream(expected), new ByteArrayInputStream(expected));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ChunkFilterInputStream filter = new ChunkFilterInputStream(twice, Long.MIN_VALUE)) {
+                byte[] bytes = new byte[1000];
+                int n;
+                while ((n = filter.read(bytes, 0, bytes.length)) != -1) out.write(bytes, 0, n);
+                assertTrue(filter.getLastCompleteEndNanos() > 0L);
+                assertEquals(filter.getChunkPosition(), 0L);
+            }
+            assertEquals(out.toByteArray(), expected);
+        } catch (IOException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void assertDownloadOfRunningRecordingThrows() throws IOException, JfrStreamingException {
+        try (Recording running = flightRecorderConnection.newRecording(null, null)) {
+            running.start();
+            new ParallelDownloader(flightRecorderConnection, 2).download(running, new ByteArrayOutputStream());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void assertDownloadOfRunningRecordingByIdThrows() throws IOException, JfrStreamingException {
+        try (Recording running = flightRecorderConnection.newRecording(null, null)) {
+            running.start();
+            new ParallelDownloader(flightRecorderConnection, 2).download(running.getId(), new ByteArrayOutputStream());
+        }
+    }
+
+    @Test
+    public void assertStreamOfRunningRecordingIsNotNoDataAvailable() throws IOException, JfrStreamingException {
+        try (Recording running = flightRecorderConnection.newRecording(null, null)) {
+            running.start();
+            try {
+                flightRecorderConnection.getStream(running.getId(), null, null, JfrStream.getDefaultBlockSize()).close();
+                fail("stream of a running recording should not open");
+            } catch (JfrStreamingException e) {
+                assertFalse(FlightRecorderConnection.isNoDataAvailable(e), e.toString());
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertZeroSlicesThrows() {
+        new ParallelDownloader(flightRecorderConnection, 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertNoConnectionsThrows() {
+        new ParallelDownloader(Collections.emptyList(), 2, 4096L);
+    }
+}
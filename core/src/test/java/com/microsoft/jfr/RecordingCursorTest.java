@@ -0,0 +1,144 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.Test;
+
+import javax.management.MBeanException;
+import javax.management.MBeanServerConnection;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RecordingCursorTest {
+
+    private static byte[] pullAll(RecordingCursor cursor) throws IOException, JfrStreamingException {
+        try (InputStream inputStream = cursor.pull()) {
+            return RecordingTest.readAll(inputStream);
+        }
+    }
+
+    private static void doSomething(long millis) {
+        Instant then = Instant.now().plusMillis(millis);
+        while (Instant.now().compareTo(then) < 0) {
+            RecordingTest.fib(Short.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void assertPullsReturnOnlyNewData() {
+        FlightRecorderConnection flightRecorderConnection = RecordingTest.getFlightRecorderConnection();
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().disk("true").build();
+        try (Recording recording = flightRecorderConnection.newRecording(recordingOptions, RecordingConfiguration.PROFILE_CONFIGURATION)) {
+            recording.start();
+            RecordingCursor cursor = new RecordingCursor(flightRecorderConnection, recording.getId());
+            assertEquals(cursor.getPosition(), RecordingCursor.BEGINNING);
+
+            doSomething(300);
+            byte[] first = pullAll(cursor);
+            long firstPosition = cursor.getPosition();
+            assertTrue(first.length > 0);
+            assertTrue(firstPosition > RecordingCursor.BEGINNING);
+
+            doSomething(300);
+            // A new cursor at the saved position continues where the first one stopped.
+            RecordingCursor resumed = new RecordingCursor(flightRecorderConnection, recording.getId(), firstPosition);
+            byte[] second = pullAll(resumed);
+            assertTrue(second.length > 0);
+            assertTrue(resumed.getPosition() > firstPosition);
+
+            recording.stop();
+            byte[] third = pullAll(resumed);
+            assertEquals(pullAll(resumed).length, 0);
+
+            ByteArrayOutputStream pulled = new ByteArrayOutputStream();
+            pulled.write(first);
+            pulled.write(second);
+            pulled.write(third);
+            byte[] expected;
+            try (InputStream inputStream = recording.getStream(null, null)) {
+                expected = RecordingTest.readAll(inputStream);
+            }
+            assertEquals(pulled.toByteArray(), expected);
+        } catch (IOException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test
+    public void assertPartlyReadChunkIsPulledAgain() {
+        FlightRecorderConnection flightRecorderConnection = RecordingTest.getFlightRecorderConnection();
+        try (Recording recording = flightRecorderConnection.newRecording(null, null)) {
+            recording.start();
+            doSomething(200);
+            recording.stop();
+            RecordingCursor cursor = new RecordingCursor(flightRecorderConnection, recording.getId());
+            try (InputStream inputStream = cursor.pull()) {
+                assertTrue(inputStream.read() != -1);
+            }
+            assertEquals(cursor.getPosition(), RecordingCursor.BEGINNING);
+            byte[] expected;
+            try (InputStream inputStream = recording.getStream(null, null)) {
+                expected = RecordingTest.readAll(inputStream);
+            }
+            assertEquals(pullAll(cursor), expected);
+        } catch (IOException | JfrStreamingException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void assertPullOfUnknownRecordingThrows() throws IOException, JfrStreamingException {
+        new RecordingCursor(RecordingTest.getFlightRecorderConnection(), Long.MAX_VALUE).pull();
+    }
+
+    @Test
+    public void assertFailureToCloseCloneDoesNotHideOriginalFailure() throws Exception {
+        MBeanServerConnection platform = ManagementFactory.getPlatformMBeanServer();
+        // Fails openStream as if there were no data, and closeRecording, but only for the clone.
+        long[] cloneId = {-1L};
+        MBeanServerConnection failing = (MBeanServerConnection) Proxy.newProxyInstance(
+                MBeanServerConnection.class.getClassLoader(),
+                new Class<?>[] {MBeanServerConnection.class},
+                (proxy, method, args) -> {
+                    if ("invoke".equals(method.getName())) {
+                        String operation = (String) args[1];
+                        if ("openStream".equals(operation)) {
+                            throw new MBeanException(new IOException("No recording data available"));
+                        }
+                        if ("closeRecording".equals(operation) && args[2] != null && ((Object[]) args[2])[0].equals(cloneId[0])) {
+                            throw new MBeanException(new IOException("close failed"));
+                        }
+                    }
+                    try {
+                        Object result = method.invoke(platform, args);
+                        if ("invoke".equals(method.getName()) && "cloneRecording".equals(args[1])) {
+                            cloneId[0] = (Long) result;
+                        }
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        FlightRecorderConnection flightRecorderConnection = FlightRecorderConnection.connect(failing);
+        try (Recording recording = flightRecorderConnection.newRecording(null, null)) {
+            recording.start();
+            try {
+                new RecordingCursor(flightRecorderConnection, recording.getId()).pull();
+                fail("pull should throw when the clone cannot be closed");
+            } catch (JfrStreamingException e) {
+                assertTrue(FlightRecorderConnection.isNoDataAvailable(e), e.toString());
+                assertEquals(e.getSuppressed().length, 1);
+                assertTrue(e.getSuppressed()[0] instanceof JfrStreamingException, e.getSuppressed()[0].toString());
+            } finally {
+                RecordingTest.getFlightRecorderConnection().closeRecording(cloneId[0]);
+            }
+        }
+    }
+}
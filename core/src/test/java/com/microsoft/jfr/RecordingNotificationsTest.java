@@ -0,0 +1,105 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class RecordingNotificationsTest {
+
+    // Collects the changes of one recording.
+    private static final class Changes implements RecordingListener {
+        final BlockingQueue<Recording.State> states = new LinkedBlockingQueue<>();
+        volatile long id = -1;
+        volatile String name = null;
+
+        @Override
+        public void recordingStateChanged(long id, String name, Recording.State state) {
+            if (name != null && name.equals(this.name)) {
+                this.id = id;
+                states.add(state);
+            }
+        }
+
+        Recording.State next() throws InterruptedException {
+            return states.poll(30, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void assertListenerSeesLifecycle() throws Exception {
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        Changes changes = new Changes();
+        changes.name = "notifications-lifecycle";
+        connection.addRecordingListener(changes);
+        try {
+            Recording recording = connection.newRecording(
+                    new RecordingOptions.Builder().name(changes.name).build(), RecordingConfiguration.DEFAULT_CONFIGURATION);
+            long id = recording.start();
+            assertEquals(changes.next(), Recording.State.RECORDING);
+            recording.stop();
+            assertEquals(changes.next(), Recording.State.STOPPED);
+            recording.close();
+            assertEquals(changes.next(), Recording.State.CLOSED);
+            assertEquals(changes.id, id);
+        } finally {
+            connection.removeRecordingListener(changes);
+        }
+    }
+
+    @Test
+    public void assertRecordingStateFollowsJvmWithoutPolling() throws Exception {
+        LatencyInjectingConnection counting = new LatencyInjectingConnection.Builder(ManagementFactory.getPlatformMBeanServer()).build();
+        FlightRecorderConnection connection = FlightRecorderConnection.connect(counting.getConnection());
+        Changes changes = new Changes();
+        changes.name = "notifications-duration";
+        connection.addRecordingListener(changes);
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().name(changes.name).duration("1 s").build();
+        Recording timed = connection.newRecording(recordingOptions, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        Recording closedElsewhere = connection.newRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        try {
+            timed.start();
+            long id = closedElsewhere.start();
+            assertEquals(changes.next(), Recording.State.RECORDING);
+            connection.closeRecording(id);
+            counting.resetCounts();
+
+            // The JVM stops the recording when the duration is up.
+            assertEquals(changes.next(), Recording.State.STOPPED);
+            assertEquals(timed.getState(), Recording.State.STOPPED);
+            assertEquals(closedElsewhere.getState(), Recording.State.CLOSED);
+            assertEquals(counting.getRoundTrips(), 0L);
+        } finally {
+            connection.removeRecordingListener(changes);
+            timed.close();
+            closedElsewhere.close();
+        }
+    }
+
+    @Test
+    public void assertRemovedListenerIsNotCalled() throws Exception {
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        Changes removed = new Changes();
+        removed.name = "notifications-removed";
+        Changes kept = new Changes();
+        kept.name = removed.name;
+        connection.addRecordingListener(removed);
+        connection.addRecordingListener(kept);
+        connection.removeRecordingListener(removed);
+        Recording recording = connection.newRecording(
+                new RecordingOptions.Builder().name(removed.name).build(), RecordingConfiguration.DEFAULT_CONFIGURATION);
+        try {
+            recording.start();
+            assertEquals(kept.next(), Recording.State.RECORDING);
+            assertNull(removed.states.poll());
+        } finally {
+            connection.removeRecordingListener(kept);
+            recording.close();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.microsoft.jfr;
 
 import org.testng.Reporter;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.AfterTest;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.DataProvider;
@@ -16,6 +17,7 @@ import javax.management.ReflectionException;
 import javax.management.RuntimeMBeanException;
 import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.TabularData;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -29,6 +31,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Locale;
 
@@ -60,6 +63,21 @@ public class RecordingTest {
         return null;
     }
 
+    // Close the recordings a test left open. A running recording adds its events to the chunks that
+    // every later stream and snapshot in this JVM reads.
+    @AfterMethod
+    public void closeRecordings() {
+        RecordingTracker tracker = flightRecorderConnection.getRecordingTracker();
+        for (long id : tracker.getTracked()) {
+            try {
+                flightRecorderConnection.closeRecording(id);
+            } catch (IOException | JfrStreamingException | RuntimeException ignored) {
+                Reporter.log(ignored.getMessage());
+            }
+            tracker.untrack(id);
+        }
+    }
+
     @AfterTest
     public static void tearDown() {
         try {
@@ -85,6 +103,7 @@ public class RecordingTest {
         Recording recording = flightRecorderConnection.newRecording(null, null);
         assertEquals(recording.getState(), Recording.State.NEW);
         assertEquals(recording.getId(), -1);
+        assertEquals(recording.getStartLatency(), null);
     }
 
 
@@ -96,6 +115,7 @@ public class RecordingTest {
             long id = recording.start();
             assertEquals(recording.getId(), id);
             assertEquals(recording.getState(), Recording.State.RECORDING);
+            assertTrue(recording.getStartLatency() != null && !recording.getStartLatency().isNegative());
         } catch (IOException|IllegalStateException| JfrStreamingException e) {
             fail("assertRecordingStartIdAndState caught exception", e);
         }
@@ -138,7 +158,7 @@ public class RecordingTest {
             for (Method m : methods) {
                 if (m.getName().equals(methodName)) {
                     if ("getStream".equals(m.getName())) {
-                        if (m.getParameterTypes().length < 3) {
+                        if (m.getParameterTypes().length != 3 || m.getParameterTypes()[2] != long.class) {
                             // Always pick getStream(Instant,Instant,long)
                             continue;
                         }
@@ -248,6 +268,16 @@ public class RecordingTest {
 
     @Test(dataProvider = "options")
     public void assertRecordingOptionsAreSetInFlightRecorderMXBean(String[] options) {
+        assertRecordingOptionsAreSet(options, null);
+    }
+
+    // A predefined configuration lets the recording be started with the DiagnosticCommand jfrStart operation.
+    @Test(dataProvider = "options")
+    public void assertRecordingOptionsAreSetWithPredefinedConfiguration(String[] options) {
+        assertRecordingOptionsAreSet(options, RecordingConfiguration.DEFAULT_CONFIGURATION);
+    }
+
+    private void assertRecordingOptionsAreSet(String[] options, RecordingConfiguration recordingConfiguration) {
         try {
             MBeanServerConnection mBeanServer = ManagementFactory.getPlatformMBeanServer();
             ObjectName flightRecorder = new ObjectName("jdk.management.jfr:type=FlightRecorder");
@@ -262,7 +292,7 @@ public class RecordingTest {
                 method.invoke(builder, value);
             }
             RecordingOptions recordingOptions = builder.build();
-            Recording recording = flightRecorderConnection.newRecording(recordingOptions, null);
+            Recording recording = flightRecorderConnection.newRecording(recordingOptions, recordingConfiguration);
             long id = recording.start();
             TabularData flightRecorderMXBeanOptions =
                     (TabularData)mBeanServer.invoke(flightRecorder, "getRecordingOptions", new Object[]{id}, new String[]{long.class.getName()});
@@ -278,6 +308,10 @@ public class RecordingTest {
                             // and for destination since FlightRecorderMXBean returns null as default
                             if (!("name".equals(key) && "".equals(actual))
                                 && !("destination".equals(key) && "".equals(actual))) {
+                                // jfrStart resolves a relative destination against the working directory
+                                if ("destination".equals(key) && expected != null && expected.endsWith(actual)) {
+                                    return;
+                                }
                                 assertEquals(actual, expected, getter);
                             }
                         } catch (NoSuchMethodException|IllegalArgumentException|IllegalAccessException|InvocationTargetException badAPI) {
@@ -318,6 +352,82 @@ public class RecordingTest {
         }
     }
 
+    /**
+     * A workload that keeps the calling thread busy for the given time.
+     * @param millis How long to run, in milliseconds.
+     * @return A workload for {@link #recordChunks}.
+     */
+    public static Runnable busyFor(long millis) {
+        return () -> {
+            Instant then = Instant.now().plusMillis(millis);
+            while (Instant.now().compareTo(then) < 0) {
+                fib(Short.MAX_VALUE); // do something
+            }
+        };
+    }
+
+    /**
+     * Make a stopped disk recording with more than one chunk. The workload runs {@code newChunks} times,
+     * and the recording begins a new chunk after each run. The caller is responsible for closing the recording.
+     * @param connection The connection to record on.
+     * @param configuration The recording configuration.
+     * @param newChunks How many times to run the workload and begin a new chunk.
+     * @param workload What to record in each chunk.
+     * @return The stopped recording.
+     * @throws IOException Thrown by the connection.
+     * @throws JfrStreamingException Thrown by the connection.
+     */
+    public static Recording recordChunks(FlightRecorderConnection connection, RecordingConfiguration configuration,
+                                         int newChunks, Runnable workload) throws IOException, JfrStreamingException {
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().disk("true").build();
+        Recording recording = connection.newRecording(recordingOptions, configuration);
+        try {
+            recording.start();
+            for (int n = 0; n < newChunks; n++) {
+                workload.run();
+                // Starting another recording makes the JVM begin a new chunk.
+                try (Recording other = connection.newRecording(null, null)) {
+                    other.start();
+                    other.stop();
+                }
+            }
+            recording.stop();
+            return recording;
+        } catch (IOException | JfrStreamingException | RuntimeException e) {
+            closeQuietly(recording);
+            throw e;
+        }
+    }
+
+    /**
+     * Read an input stream to the end, then close it.
+     * @param inputStream The stream to read.
+     * @return The bytes read.
+     * @throws IOException Thrown by the stream.
+     */
+    public static byte[] readAll(InputStream inputStream) throws IOException {
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] bytes = new byte[8192];
+            int n;
+            while ((n = in.read(bytes, 0, bytes.length)) != -1) out.write(bytes, 0, n);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Close a recording, ignoring failures, for use in test clean up.
+     * @param recording The recording to close, or {@code null}.
+     */
+    public static void closeQuietly(Recording recording) {
+        if (recording != null) {
+            try {
+                recording.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
     @Test
     public void assertFileExistsAfterRecordingDump() {
         Path dumpFile = null;
@@ -472,4 +582,61 @@ public class RecordingTest {
         }
     }
 
+    @Test
+    public void assertSnapshotLeavesRecordingRunning() {
+        Path snapshotFile = null;
+        try {
+            snapshotFile = Paths.get(System.getProperty("user.dir"),"testRecordingSnapshot.jfr");
+            RecordingOptions recordingOptions = new RecordingOptions.Builder().disk("true").build();
+            Recording recording = flightRecorderConnection.newRecording(recordingOptions, null);
+            recording.start();
+            Instant then = Instant.now().plusSeconds(1);
+            while (Instant.now().compareTo(then) < 0) {
+                fib(Short.MAX_VALUE); // do something
+            }
+            Collection<?> before = getRecordings();
+            TransferStatistics statistics = recording.snapshot(snapshotFile);
+            assertTrue(statistics.getBytes() > 0);
+            assertEquals(Files.size(snapshotFile), statistics.getBytes());
+            assertEquals(recording.getState(), Recording.State.RECORDING);
+            // The clone made for the snapshot was closed.
+            assertEquals(getRecordings().size(), before.size());
+
+            recording.stop();
+            statistics = recording.snapshot(snapshotFile);
+            assertEquals(Files.size(snapshotFile), statistics.getBytes());
+            assertEquals(recording.getState(), Recording.State.STOPPED);
+            recording.close();
+        } catch (IOException ioe) {
+            // possible that this can be thrown, but should not happen in this context
+            fail("IOException not expected: ", ioe);
+        } catch (JfrStreamingException badBean) {
+            fail("Error thrown by MBean server or FlightRecorderMXBean: ", badBean);
+        } finally {
+            if (snapshotFile != null) {
+                try {
+                    Files.deleteIfExists(snapshotFile);
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    @Test(expectedExceptions = {IllegalStateException.class})
+    public void assertSnapshotOfNewRecordingThrowsIllegalStateException() throws Exception {
+        Recording recording = flightRecorderConnection.newRecording(null, null);
+        recording.snapshot(Paths.get(System.getProperty("user.dir"),"testRecordingSnapshot.jfr"));
+    }
+
+    private static Collection<?> getRecordings() {
+        try {
+            ObjectName objectName = new ObjectName("jdk.management.jfr:type=FlightRecorder");
+            CompositeData[] recordings = (CompositeData[]) ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "Recordings");
+            return Arrays.asList(recordings);
+        } catch (Exception e) {
+            fail("Could not get recordings", e);
+            return null;
+        }
+    }
+
 }
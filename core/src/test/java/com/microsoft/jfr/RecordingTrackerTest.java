@@ -0,0 +1,242 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.Test;
+
+import javax.management.MBeanException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class RecordingTrackerTest {
+
+    private static Set<Long> getRecordingIds() throws Exception {
+        ObjectName objectName = new ObjectName("jdk.management.jfr:type=FlightRecorder");
+        CompositeData[] recordings = (CompositeData[]) ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "Recordings");
+        Set<Long> ids = new HashSet<>();
+        for (CompositeData recording : recordings) {
+            ids.add((Long) recording.get("id"));
+        }
+        return ids;
+    }
+
+    @Test
+    public void assertCloseOfStoppedRecordingClosesItInJvm() throws Exception {
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        Recording recording = connection.newRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        long id = recording.start();
+        Recording clone = recording.clone(true);
+        recording.stop();
+        assertEquals(connection.getRecordingTracker().getTracked(), new HashSet<>(Arrays.asList(id, clone.getId())));
+
+        recording.close();
+        clone.close();
+        assertFalse(getRecordingIds().contains(id));
+        assertFalse(getRecordingIds().contains(clone.getId()));
+        assertTrue(connection.getRecordingTracker().getTracked().isEmpty());
+    }
+
+    @Test
+    public void assertRestartClosesStoppedRecording() throws Exception {
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        Recording recording = connection.newRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        long first = recording.start();
+        recording.stop();
+        long second = recording.start();
+        try {
+            assertTrue(first != second);
+            assertFalse(getRecordingIds().contains(first));
+            assertTrue(getRecordingIds().contains(second));
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test
+    public void assertAbandonedRecordingIsSwept() throws Exception {
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        RecordingTracker tracker = connection.getRecordingTracker();
+        long id = startAndAbandon(connection);
+        assertTrue(getRecordingIds().contains(id));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        int swept = 0;
+        while (swept == 0 && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+            swept = tracker.sweep();
+        }
+        assertEquals(swept, 1);
+        assertFalse(getRecordingIds().contains(id));
+        assertTrue(tracker.getTracked().isEmpty());
+    }
+
+    // Not inlined, so that the Recording is unreachable once this method returns.
+    private static long startAndAbandon(FlightRecorderConnection connection) throws Exception {
+        Recording recording = connection.newRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        long id = recording.start();
+        recording.stop();
+        return id;
+    }
+
+    @Test
+    public void assertOrphanedRecordingsAreClosed() throws Exception {
+        final String prefix = "orphan-test-";
+        FlightRecorderConnection previous = RecordingTest.getFlightRecorderConnection();
+        Recording orphan = previous.newRecording(new RecordingOptions.Builder().name(prefix + "1").build(), null);
+        long orphanId = orphan.start();
+        Recording other = previous.newRecording(new RecordingOptions.Builder().name("other").build(), null);
+        long otherId = other.start();
+
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        Recording inUse = connection.newRecording(new RecordingOptions.Builder().name(prefix + "2").build(), null);
+        long inUseId = inUse.start();
+        try {
+            ClosedRecordings closed = connection.closeOrphanedRecordings(prefix);
+            assertEquals(closed.getClosed(), Collections.singletonList(orphanId));
+            assertTrue(closed.isComplete(), closed.toString());
+            Set<Long> ids = getRecordingIds();
+            assertFalse(ids.contains(orphanId));
+            assertTrue(ids.contains(otherId));
+            assertTrue(ids.contains(inUseId));
+        } finally {
+            inUse.close();
+            other.close();
+        }
+    }
+
+    @Test
+    public void assertFailureToCloseOneOrphanDoesNotStopTheOthers() throws Exception {
+        final String prefix = "orphan-failure-test-";
+        FlightRecorderConnection previous = RecordingTest.getFlightRecorderConnection();
+        long failingId = previous.newRecording(new RecordingOptions.Builder().name(prefix + "1").build(), null).start();
+        long goneId = previous.newRecording(new RecordingOptions.Builder().name(prefix + "2").build(), null).start();
+        long orphanId = previous.newRecording(new RecordingOptions.Builder().name(prefix + "3").build(), null).start();
+
+        // Fails to close one recording, and closes another behind the caller's back before failing.
+        MBeanServer platform = ManagementFactory.getPlatformMBeanServer();
+        MBeanServerConnection failing = (MBeanServerConnection) Proxy.newProxyInstance(
+                MBeanServerConnection.class.getClassLoader(),
+                new Class<?>[] {MBeanServerConnection.class},
+                (proxy, method, args) -> {
+                    if ("invoke".equals(method.getName()) && "closeRecording".equals(args[1])) {
+                        Object id = ((Object[]) args[2])[0];
+                        if (id.equals(goneId)) {
+                            previous.closeRecording(goneId);
+                            throw new MBeanException(new IllegalArgumentException("No recording available with id " + goneId));
+                        }
+                        if (id.equals(failingId)) {
+                            throw new MBeanException(new IOException("close failed"));
+                        }
+                    }
+                    try {
+                        return method.invoke(platform, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        try {
+            ClosedRecordings closed = FlightRecorderConnection.connect(failing).closeOrphanedRecordings(prefix);
+            assertEquals(closed.getClosed(), Collections.singletonList(orphanId));
+            assertEquals(closed.getFailed().keySet(), Collections.singleton(failingId));
+            assertFalse(closed.isComplete());
+            Set<Long> ids = getRecordingIds();
+            assertTrue(ids.contains(failingId));
+            assertFalse(ids.contains(goneId));
+            assertFalse(ids.contains(orphanId));
+        } finally {
+            previous.closeRecording(failingId);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertEmptyPrefixThrows() throws Exception {
+        RecordingTest.getFlightRecorderConnection().closeOrphanedRecordings("");
+    }
+
+    @Test
+    public void assertSyncSeesChangesMadeInJvm() throws Exception {
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().duration("1 s").build();
+        Recording timed = connection.newRecording(recordingOptions, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        Recording closedElsewhere = connection.newRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        Recording running = connection.newRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        try {
+            timed.start();
+            long id = closedElsewhere.start();
+            running.start();
+            connection.closeRecording(id);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            do {
+                Thread.sleep(100);
+                connection.syncRecordingStates();
+            } while (timed.getState() == Recording.State.RECORDING && System.nanoTime() < deadline);
+
+            assertEquals(timed.getState(), Recording.State.STOPPED);
+            assertEquals(closedElsewhere.getState(), Recording.State.CLOSED);
+            assertEquals(running.getState(), Recording.State.RECORDING);
+            assertFalse(connection.getRecordingTracker().getTracked().contains(id));
+        } finally {
+            timed.close();
+            closedElsewhere.close();
+            running.close();
+        }
+    }
+
+    @Test
+    public void assertSyncIsOneRoundTrip() throws Exception {
+        LatencyInjectingConnection slow = new LatencyInjectingConnection.Builder(ManagementFactory.getPlatformMBeanServer()).build();
+        FlightRecorderConnection connection = FlightRecorderConnection.connect(slow.getConnection());
+        List<Recording> recordings = new ArrayList<>();
+        try {
+            for (int n = 0; n < 5; n++) {
+                Recording recording = connection.newRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION);
+                recording.start();
+                recordings.add(recording);
+            }
+            slow.resetCounts();
+            connection.syncRecordingStates();
+            assertEquals(slow.getRoundTrips(), 1L);
+        } finally {
+            for (Recording recording : recordings) {
+                recording.close();
+            }
+        }
+    }
+
+    @Test
+    public void assertPeriodicSyncSeesClose() throws Exception {
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        Recording recording = connection.newRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION);
+        try {
+            long id = recording.start();
+            connection.setRecordingStateSyncInterval(Duration.ofMillis(50));
+            connection.closeRecording(id);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (recording.getState() != Recording.State.CLOSED && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(recording.getState(), Recording.State.CLOSED);
+        } finally {
+            connection.setRecordingStateSyncInterval(null);
+            recording.close();
+        }
+    }
+}
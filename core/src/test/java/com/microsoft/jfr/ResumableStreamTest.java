@@ -0,0 +1,106 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ResumableStreamTest {
+
+    private static final long BLOCK_SIZE = 4096L;
+
+    Recording recording = null;
+    byte[] expected = null;
+
+    @BeforeClass
+    public void setup() {
+        try {
+            recording = RecordingTest.recordChunks(RecordingTest.getFlightRecorderConnection(),
+                    RecordingConfiguration.PROFILE_CONFIGURATION, 2, RecordingTest.busyFor(400));
+            expected = RecordingTest.readAll(recording.getStream(null, null, BLOCK_SIZE));
+            assertTrue(expected.length > 10 * BLOCK_SIZE, "recording should span many blocks");
+        } catch (IOException | JfrStreamingException e) {
+            fail("Could not create recording", e);
+        }
+    }
+
+    @AfterClass
+    public void tearDown() {
+        RecordingTest.closeQuietly(recording);
+    }
+
+    // A connection to the platform MBean server that breaks after a number of calls to readStream.
+    private static MBeanServerConnection breaksAfter(int reads) {
+        MBeanServerConnection platform = ManagementFactory.getPlatformMBeanServer();
+        AtomicInteger remaining = new AtomicInteger(reads);
+        return (MBeanServerConnection) Proxy.newProxyInstance(
+                ResumableStreamTest.class.getClassLoader(),
+                new Class<?>[]{MBeanServerConnection.class},
+                (proxy, method, args) -> {
+                    if ("invoke".equals(method.getName()) && "readStream".equals(args[1])
+                            && remaining.getAndDecrement() <= 0) {
+                        throw new IOException("connection broken");
+                    }
+                    try {
+                        return method.invoke(platform, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private InputStream getResumableStream(int reads, Reconnector reconnector, int maxRetries)
+            throws IOException, JfrStreamingException, InstanceNotFoundException {
+        FlightRecorderConnection connection = FlightRecorderConnection.connect(breaksAfter(reads));
+        return connection.getResumableStream(recording.getId(), null, null, BLOCK_SIZE, reconnector, maxRetries);
+    }
+
+    @Test
+    public void assertResumedStreamEqualsStream() {
+        AtomicInteger reconnects = new AtomicInteger();
+        // The first two connections break part way through a chunk.
+        Reconnector reconnector = cause -> reconnects.incrementAndGet() == 1 ? breaksAfter(50) : breaksAfter(Integer.MAX_VALUE);
+        try (InputStream inputStream = getResumableStream(5, reconnector, 1)) {
+            assertEquals(RecordingTest.readAll(inputStream), expected);
+            assertEquals(reconnects.get(), 2);
+        } catch (IOException | JfrStreamingException | InstanceNotFoundException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test
+    public void assertUnbrokenStreamDoesNotReconnect() {
+        Reconnector reconnector = cause -> {
+            throw new AssertionError("unexpected reconnect", cause);
+        };
+        try (InputStream inputStream = getResumableStream(Integer.MAX_VALUE, reconnector, 0)) {
+            assertEquals(RecordingTest.readAll(inputStream), expected);
+        } catch (IOException | JfrStreamingException | InstanceNotFoundException e) {
+            fail(e.getMessage(), e);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void assertStreamGivesUpAfterMaxRetries() throws Exception {
+        try (InputStream inputStream = getResumableStream(2, cause -> breaksAfter(0), 3)) {
+            RecordingTest.readAll(inputStream);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertNegativeMaxRetriesThrows() throws Exception {
+        recording.getResumableStream(null, null, cause -> breaksAfter(0), -1);
+    }
+}
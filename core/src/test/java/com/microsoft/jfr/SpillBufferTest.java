@@ -0,0 +1,201 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class SpillBufferTest {
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static long countFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @DataProvider(name = "memoryLimits")
+    public static Object[][] memoryLimits() {
+        return new Object[][]{
+                {0L},
+                {SpillBuffer.SEGMENT_SIZE - 1L},
+                {2L * SpillBuffer.SEGMENT_SIZE},
+                {10L * SpillBuffer.SEGMENT_SIZE}
+        };
+    }
+
+    @Test(dataProvider = "memoryLimits")
+    public void assertDataCanBeReadAgain(long memoryLimit) throws Exception {
+        byte[] data = randomBytes(5 * SpillBuffer.SEGMENT_SIZE + 123);
+        try (SpillBuffer buffer = new SpillBuffer(memoryLimit)) {
+            assertEquals(buffer.transferFrom(new ByteArrayInputStream(data)), data.length);
+            assertEquals(buffer.size(), data.length);
+            assertTrue(buffer.getMemorySize() <= memoryLimit);
+            assertEquals(RecordingTest.readAll(buffer.newInputStream()), data);
+            assertEquals(RecordingTest.readAll(buffer.newInputStream()), data);
+        }
+    }
+
+    @Test(dataProvider = "memoryLimits")
+    public void assertChannelSeeks(long memoryLimit) throws Exception {
+        byte[] data = randomBytes(3 * SpillBuffer.SEGMENT_SIZE + 7);
+        try (SpillBuffer buffer = new SpillBuffer(memoryLimit)) {
+            buffer.write(ByteBuffer.wrap(data));
+            try (SeekableByteChannel channel = buffer.newChannel()) {
+                assertEquals(channel.size(), data.length);
+                // Read across the boundaries of the segments, and of memory and file.
+                for (long position : new long[]{data.length - 10L, 0L, SpillBuffer.SEGMENT_SIZE - 5L, 2L * SpillBuffer.SEGMENT_SIZE - 1L}) {
+                    ByteBuffer dst = ByteBuffer.allocate(10);
+                    channel.position(position);
+                    assertEquals(channel.read(dst), 10);
+                    assertEquals(dst.array(), Arrays.copyOfRange(data, (int) position, (int) position + 10));
+                    assertEquals(channel.position(), position + 10);
+                }
+                channel.position(data.length);
+                assertEquals(channel.read(ByteBuffer.allocate(1)), -1);
+            }
+        }
+    }
+
+    @Test
+    public void assertInputStreamMarkAndSkip() throws Exception {
+        byte[] data = randomBytes(2 * SpillBuffer.SEGMENT_SIZE);
+        try (SpillBuffer buffer = new SpillBuffer(SpillBuffer.SEGMENT_SIZE)) {
+            buffer.write(ByteBuffer.wrap(data));
+            InputStream in = buffer.newInputStream();
+            assertEquals(in.skip(SpillBuffer.SEGMENT_SIZE - 1L), SpillBuffer.SEGMENT_SIZE - 1L);
+            in.mark(0);
+            assertEquals(in.read(), data[SpillBuffer.SEGMENT_SIZE - 1] & 0xff);
+            assertEquals(in.read(), data[SpillBuffer.SEGMENT_SIZE] & 0xff);
+            in.reset();
+            assertEquals(in.read(), data[SpillBuffer.SEGMENT_SIZE - 1] & 0xff);
+            assertEquals(in.skip(Long.MAX_VALUE), SpillBuffer.SEGMENT_SIZE);
+            assertEquals(in.read(), -1);
+        }
+    }
+
+    @Test
+    public void assertCloseDeletesFileAndReturnsMemory() throws Exception {
+        Path directory = Files.createTempDirectory("spill");
+        try {
+            SpillBuffer buffer = new SpillBuffer(2L * SpillBuffer.SEGMENT_SIZE, directory);
+            buffer.write(ByteBuffer.wrap(randomBytes(3 * SpillBuffer.SEGMENT_SIZE)));
+            assertEquals(buffer.getMemorySize(), 2L * SpillBuffer.SEGMENT_SIZE);
+            int pooled = SpillBuffer.getPooledSegments();
+            buffer.close();
+            assertFalse(buffer.isOpen());
+            assertEquals(countFiles(directory), 0L);
+            assertEquals(SpillBuffer.getPooledSegments(), pooled + 2);
+        } finally {
+            Files.delete(directory);
+        }
+    }
+
+    @Test(expectedExceptions = ClosedChannelException.class)
+    public void assertReadAfterCloseThrows() throws Exception {
+        SpillBuffer buffer = new SpillBuffer(SpillBuffer.SEGMENT_SIZE);
+        buffer.write(ByteBuffer.wrap(randomBytes(10)));
+        InputStream in = buffer.newInputStream();
+        buffer.close();
+        in.read();
+    }
+
+    @Test
+    public void assertCloseDuringReadsDoesNotReuseSegmentsInUse() throws Exception {
+        final int readers = 4;
+        byte[] data = randomBytes(4 * SpillBuffer.SEGMENT_SIZE);
+        byte[] other = new byte[data.length];
+        ExecutorService executor = Executors.newFixedThreadPool(readers);
+        try {
+            for (int round = 0; round < 20; round++) {
+                SpillBuffer buffer = new SpillBuffer(data.length);
+                buffer.write(ByteBuffer.wrap(data));
+                CountDownLatch started = new CountDownLatch(readers);
+                List<Future<Void>> futures = new ArrayList<>();
+                for (int n = 0; n < readers; n++) {
+                    futures.add(executor.submit(() -> {
+                        started.countDown();
+                        ByteBuffer dst = ByteBuffer.allocate(SpillBuffer.SEGMENT_SIZE);
+                        for (int position = 0; ; position = (position + dst.capacity()) % data.length) {
+                            dst.clear();
+                            final int read;
+                            try {
+                                read = buffer.read(position, dst);
+                            } catch (ClosedChannelException e) {
+                                return null;
+                            }
+                            assertEquals(Arrays.copyOf(dst.array(), read), Arrays.copyOfRange(data, position, position + read));
+                        }
+                    }));
+                }
+                started.await();
+                buffer.close();
+                // Take the segments from the pool and overwrite them while the reads may still be in progress.
+                try (SpillBuffer reuse = new SpillBuffer(other.length)) {
+                    reuse.write(ByteBuffer.wrap(other));
+                }
+                for (Future<Void> future : futures) {
+                    future.get(30, TimeUnit.SECONDS);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertNegativeMemoryLimitThrows() {
+        new SpillBuffer(-1L);
+    }
+
+    @Test
+    public void assertSpillBufferHoldsRecording() throws Exception {
+        FlightRecorderConnection connection = RecordingTest.getFlightRecorderConnection();
+        Recording recording = connection.newRecording(null, null);
+        try {
+            recording.start();
+            Instant then = Instant.now().plusMillis(100);
+            while (Instant.now().compareTo(then) < 0) {
+                RecordingTest.fib(Short.MAX_VALUE); // do something
+            }
+            recording.stop();
+            byte[] expected;
+            try (InputStream in = recording.getStream(null, null)) {
+                expected = RecordingTest.readAll(in);
+            }
+            try (SpillBuffer buffer = recording.getSpillBuffer(null, null, SpillBuffer.SEGMENT_SIZE)) {
+                assertEquals(buffer.size(), expected.length);
+                assertEquals(RecordingTest.readAll(buffer.newInputStream()), expected);
+            }
+        } finally {
+            recording.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.microsoft.jfr;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TailingStreamTest {
+
+    @Test(timeOut = 30000)
+    public void assertTailStreamEqualsStreamOfStoppedRecording() {
+        FlightRecorderConnection flightRecorderConnection = RecordingTest.getFlightRecorderConnection();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().disk("true").build();
+        try (Recording recording = flightRecorderConnection.newRecording(recordingOptions, RecordingConfiguration.PROFILE_CONFIGURATION)) {
+            recording.start();
+            Future<byte[]> tail;
+            try (InputStream inputStream = recording.getTailStream(Duration.ofMillis(200))) {
+                tail = executor.submit(() -> RecordingTest.readAll(inputStream));
+                Instant then = Instant.now().plusSeconds(1);
+                while (Instant.now().compareTo(then) < 0) {
+                    RecordingTest.fib(Short.MAX_VALUE); // do something
+                }
+                recording.stop();
+                byte[] tailed = tail.get(10, TimeUnit.SECONDS);
+                byte[] expected;
+                try (InputStream stoppedStream = recording.getStream(null, null)) {
+                    expected = RecordingTest.readAll(stoppedStream);
+                }
+                assertTrue(expected.length > 0);
+                assertEquals(tailed, expected);
+            }
+        } catch (IOException | JfrStreamingException | InterruptedException | ExecutionException | TimeoutException e) {
+            fail(e.getMessage(), e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void assertTailStreamEndsWhenDurationElapses() throws Exception {
+        FlightRecorderConnection flightRecorderConnection = RecordingTest.getFlightRecorderConnection();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        RecordingOptions recordingOptions = new RecordingOptions.Builder().disk("true").duration("1 s").build();
+        try (Recording recording = flightRecorderConnection.newRecording(recordingOptions, RecordingConfiguration.DEFAULT_CONFIGURATION)) {
+            recording.start();
+            try (InputStream inputStream = recording.getTailStream(Duration.ofMillis(100))) {
+                // The JVM stops the recording on its own, so nothing stops it through this Recording.
+                byte[] tailed = executor.submit(() -> RecordingTest.readAll(inputStream)).get(20, TimeUnit.SECONDS);
+                assertEquals(recording.getState(), Recording.State.STOPPED);
+                byte[] expected;
+                try (InputStream stoppedStream = recording.getStream(null, null)) {
+                    expected = RecordingTest.readAll(stoppedStream);
+                }
+                assertTrue(expected.length > 0);
+                assertEquals(tailed, expected);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeOut = 30000)
+    public void assertTailStreamEndsWhenRecordingIsClosedElsewhere() throws Exception {
+        FlightRecorderConnection flightRecorderConnection = RecordingTest.getFlightRecorderConnection();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Recording recording = flightRecorderConnection.newRecording(null, RecordingConfiguration.DEFAULT_CONFIGURATION)) {
+            recording.start();
+            try (InputStream inputStream = recording.getTailStream(Duration.ofMillis(100))) {
+                Future<byte[]> tail = executor.submit(() -> RecordingTest.readAll(inputStream));
+                Thread.sleep(300);
+                RecordingTest.getFlightRecorderConnection().closeRecording(recording.getId());
+                tail.get(20, TimeUnit.SECONDS);
+                assertEquals(recording.getState(), Recording.State.CLOSED);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void assertTailStreamOfNewRecordingThrows() throws IOException {
+        try (Recording recording = RecordingTest.getFlightRecorderConnection().newRecording(null, null)) {
+            recording.getTailStream(Duration.ofSeconds(1));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertNegativePollIntervalThrows() throws IOException, JfrStreamingException {
+        try (Recording recording = RecordingTest.getFlightRecorderConnection().newRecording(null, null)) {
+            recording.start();
+            recording.getTailStream(Duration.ofSeconds(-1));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.microsoft.jfr.decoder;
+
+import com.microsoft.jfr.FlightRecorderConnection;
+import com.microsoft.jfr.JfrChunk;
+import com.microsoft.jfr.JfrChunkReader;
+import com.microsoft.jfr.JfrStreamingException;
+import com.microsoft.jfr.Recording;
+import com.microsoft.jfr.RecordingConfiguration;
+import com.microsoft.jfr.RecordingTest;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class JfrEventDecoderTest {
+
+    static final String SLEEPER = "JfrEventDecoderTest-sleeper";
+    static final long SLEEP_MILLIS = 50;
+    static final int SLEEPS = 3;
+
+    FlightRecorderConnection flightRecorderConnection = null;
+    Recording recording = null;
+    byte[] bytes = null;
+    long recordingStartNanos;
+    long recordingStopNanos;
+
+    @BeforeClass
+    public void setup() {
+        flightRecorderConnection = RecordingTest.getFlightRecorderConnection();
+        try {
+            recordingStartNanos = nowNanos();
+            recording = RecordingTest.recordChunks(flightRecorderConnection, RecordingConfiguration.DEFAULT_CONFIGURATION,
+                    SLEEPS, JfrEventDecoderTest::sleep);
+            recordingStopNanos = nowNanos();
+            bytes = RecordingTest.readAll(recording.getStream(null, null));
+        } catch (IOException | JfrStreamingException e) {
+            fail("Could not create recording", e);
+        }
+    }
+
+    @AfterClass
+    public void tearDown() {
+        RecordingTest.closeQuietly(recording);
+    }
+
+    // Sleep once on a thread named SLEEPER, so that the test can find the jdk.ThreadSleep event.
+    private static void sleep() {
+        Thread sleeper = new Thread(() -> {
+            try {
+                Thread.sleep(SLEEP_MILLIS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }, SLEEPER);
+        sleeper.start();
+        try {
+            sleeper.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long nowNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+
+    @Test
+    public void assertThreadSleepEventsAreDecoded() throws Exception {
+        List<long[]> sleeps = new ArrayList<>();
+        ValueCursor thread = new ValueCursor();
+        new JfrEventDecoder().decode(new ByteArrayInputStream(bytes), event -> {
+            JfrType type = event.getEventType();
+            if (!"jdk.ThreadSleep".equals(type.getName())) return;
+            assertTrue(type.isEvent());
+            assertTrue(event.getObject(type.getFieldIndex("eventThread"), thread));
+            if (SLEEPER.equals(thread.getString(thread.getType().getFieldIndex("javaName")))) {
+                sleeps.add(new long[] {
+                        event.getLong(type.getFieldIndex("time")),
+                        event.getStartNanos(),
+                        event.getDurationNanos()
+                });
+            }
+        });
+        assertEquals(sleeps.size(), SLEEPS);
+        for (long[] sleep : sleeps) {
+            // The time field of jdk.ThreadSleep is the argument to Thread.sleep, in milliseconds.
+            assertEquals(sleep[0], SLEEP_MILLIS);
+            // The clocks of the recording and of System.currentTimeMillis may differ slightly.
+            assertTrue(sleep[1] >= recordingStartNanos - TimeUnit.SECONDS.toNanos(1), Arrays.toString(sleep));
+            assertTrue(sleep[1] <= recordingStopNanos + TimeUnit.SECONDS.toNanos(1), Arrays.toString(sleep));
+            assertTrue(sleep[2] >= TimeUnit.MILLISECONDS.toNanos(SLEEP_MILLIS / 2), Arrays.toString(sleep));
+        }
+    }
+
+    @Test
+    public void assertEveryChunkHasEvents() throws Exception {
+        JfrEventDecoder decoder = new JfrEventDecoder();
+        int[] total = {0};
+        int chunks = 0;
+        try (JfrChunkReader reader = new JfrChunkReader(new ByteArrayInputStream(bytes))) {
+            JfrChunk chunk;
+            while ((chunk = reader.next()) != null) {
+                int[] count = {0};
+                decoder.decode(chunk, event -> count[0]++);
+                assertTrue(count[0] > 0, chunk.toString());
+                assertFalse(decoder.getTypes().isEmpty());
+                total[0] += count[0];
+                chunks++;
+            }
+        }
+        assertTrue(chunks > 1, "recording should have more than one chunk");
+        int[] count = {0};
+        decoder.decode(new ByteArrayInputStream(bytes), event -> count[0]++);
+        assertEquals(count[0], total[0]);
+    }
+
+    @Test
+    public void assertArrayElementsInAnyOrder() throws Exception {
+        ValueCursor stackTrace = new ValueCursor();
+        ValueCursor frame = new ValueCursor();
+        int[] checked = {0};
+        new JfrEventDecoder().decode(new ByteArrayInputStream(bytes), event -> {
+            int field = event.getEventType().getFieldIndex("stackTrace");
+            if (field < 0 || !event.getObject(field, stackTrace)) return;
+            int frames = stackTrace.getType().getFieldIndex("frames");
+            int length = stackTrace.getArrayLength(frames);
+            int[] forward = new int[length];
+            for (int n = 0; n < length; n++) {
+                assertTrue(stackTrace.getArrayElement(frames, n, frame));
+                forward[n] = frame.getInt(frame.getType().getFieldIndex("lineNumber"));
+            }
+            for (int n = length - 1; n >= 0; n--) {
+                assertTrue(stackTrace.getArrayElement(frames, n, frame));
+                assertEquals(frame.getInt(frame.getType().getFieldIndex("lineNumber")), forward[n]);
+            }
+            checked[0]++;
+        });
+        assertTrue(checked[0] > 0, "no stack traces");
+    }
+
+    @Test
+    public void assertOnlyAllowedEventTypesAreVisited() throws Exception {
+        Map<String, Integer> all = new HashMap<>();
+        new JfrEventDecoder().decode(new ByteArrayInputStream(bytes), event ->
+                all.merge(event.getEventType().getName(), 1, Integer::sum));
+        List<String> allowed = Arrays.asList("jdk.ThreadSleep", "jdk.ActiveRecording", "no.such.Event");
+        Map<String, Integer> filtered = new HashMap<>();
+        new JfrEventDecoder(allowed).decode(new ByteArrayInputStream(bytes), event ->
+                filtered.merge(event.getEventType().getName(), 1, Integer::sum));
+        assertTrue(filtered.containsKey("jdk.ThreadSleep"), filtered.toString());
+        Map<String, Integer> expected = new HashMap<>(all);
+        expected.keySet().retainAll(allowed);
+        assertEquals(filtered, expected);
+    }
+
+    @Test
+    public void assertEmptyAllowListVisitsNothing() throws Exception {
+        int[] count = {0};
+        new JfrEventDecoder(Collections.emptyList()).decode(new ByteArrayInputStream(bytes), event -> count[0]++);
+        assertEquals(count[0], 0);
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void assertTruncatedRecordingThrows() throws Exception {
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+        new JfrEventDecoder().decode(new ByteArrayInputStream(truncated), event -> { });
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void assertUnsupportedVersionThrows() throws Exception {
+        byte[] version1 = bytes.clone();
+        // The major version is the short after the four byte magic.
+        version1[4] = 0;
+        version1[5] = 1;
+        new JfrEventDecoder().decode(new ByteArrayInputStream(version1), event -> { });
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void assertWrongAccessorThrows() throws Exception {
+        new JfrEventDecoder().decode(new ByteArrayInputStream(bytes), event ->
+                event.getString(event.getEventType().getFieldIndex("startTime")));
+    }
+}